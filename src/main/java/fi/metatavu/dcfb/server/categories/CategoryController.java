@@ -1,14 +1,15 @@
 package fi.metatavu.dcfb.server.categories;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
 import javax.inject.Inject;
 
 import fi.metatavu.dcfb.server.persistence.dao.CategoryDAO;
@@ -19,7 +20,9 @@ import fi.metatavu.dcfb.server.persistence.model.LocalizedEntry;
 import fi.metatavu.dcfb.server.rest.model.CategoryListSort;
 import fi.metatavu.dcfb.server.search.handlers.CategoryIndexHandler;
 import fi.metatavu.dcfb.server.search.searchers.CategorySearcher;
+import fi.metatavu.dcfb.server.search.searchers.SearchCursor;
 import fi.metatavu.dcfb.server.search.searchers.SearchResult;
+import fi.metatavu.dcfb.server.slugs.SlugAllocator;
 
 /**
  * Category controller
@@ -38,8 +41,32 @@ public class CategoryController {
   @Inject
   private CategoryDAO categoryDAO;
 
+  @Inject
+  private SlugAllocator slugAllocator;
+
   @Inject
   private CategoryMetaDAO categoryMetaDAO;
+  
+  @Inject
+  private CategoryTree categoryTree;
+  
+  @Inject
+  private Event<CategoryTreeChangeEvent> categoryTreeChangeEvent;
+
+  @Inject
+  private Event<CategoryMoveEvent> categoryMoveEvent;
+  
+  /**
+   * Invalidates the category tree after a transaction that changed it has completed. 
+   * 
+   * Tree is also invalidated immediately on change, but a concurrent read may have reloaded the 
+   * tree before the change was committed.
+   * 
+   * @param event change event
+   */
+  public void onCategoryTreeChange(@Observes (during = TransactionPhase.AFTER_COMPLETION) CategoryTreeChangeEvent event) {
+    categoryTree.invalidate();
+  }
 
   /**
    * Creates new category
@@ -51,9 +78,22 @@ public class CategoryController {
    * @return created category
    */
   public Category createCategory(Category parent, LocalizedEntry title, String slug, UUID lastModifier) {
-    return categoryDAO.create(UUID.randomUUID(), parent, title, getUniqueSlug(slug), lastModifier);
+    Category result = categoryDAO.create(UUID.randomUUID(), parent, title, getUniqueSlug(slug), lastModifier);
+    categoryTreeChanged(result);
+    return result;
   }
   
+  /**
+   * Lists categories ordered by id
+   * 
+   * @param afterId id after which categories are listed or null to start from the beginning
+   * @param maxResults max results
+   * @return categories ordered by id
+   */
+  public List<Category> listCategoriesAfter(UUID afterId, int maxResults) {
+    return categoryDAO.listAfterId(afterId, maxResults);
+  }
+
   /**
    * Find a category
    * 
@@ -70,19 +110,17 @@ public class CategoryController {
    * @param parent filter results by parent category. Ignored if null
    * @param slug filter results by slug. Ignored if null
    * @param search Search by free-text. Ignored if null
-   * @param firstResult result offset
+   * @param firstResult result offset. Ignored if cursor is given
+   * @param cursor cursor to the page when paginating with search_after or null to paginate by offset
    * @param maxResults maximum number of results returned
    * @return search result
    */
-  public SearchResult<Category> searchCategories(Category parent, String slug, String search, Long firstResult, Long maxResults, List<CategoryListSort> sorts) {
-    SearchResult<UUID> searchResult = categorySearcher.searchCategories(parent != null ? parent.getId() : null, slug, search, firstResult, maxResults, sorts);
+  public SearchResult<Category> searchCategories(Category parent, String slug, String search, Long firstResult, SearchCursor cursor, Long maxResults, List<CategoryListSort> sorts) {
+    SearchResult<UUID> searchResult = categorySearcher.searchCategories(parent != null ? parent.getId() : null, slug, search, firstResult, cursor, maxResults, sorts);
 
-    List<Category> categories = searchResult.getResult().stream()
-      .map(categoryDAO::findById)
-      .filter(Objects::nonNull)
-      .collect(Collectors.toList());
+    List<Category> categories = categoryDAO.findByIds(searchResult.getResult());
 
-    return new SearchResult<>(categories, searchResult.getTotalHits());
+    return new SearchResult<>(categories, searchResult.getTotalHits(), searchResult.getNextCursor());
   }
 
   /**
@@ -95,7 +133,12 @@ public class CategoryController {
    * @return updated category
    */
   public Category updateCategory(Category category, Category parent, LocalizedEntry title, String slug, UUID lastModifier) {
-    categoryDAO.updateParent(category, parent, lastModifier);
+    if (!Objects.equals(getCategoryId(category.getParent()), getCategoryId(parent))) {
+      categoryDAO.updateParent(category, parent, lastModifier);
+      categoryTreeChanged(category);
+      categoryMoveEvent.fire(new CategoryMoveEvent(category.getId()));
+    }
+    
     categoryDAO.updateTitle(category, title, lastModifier);
     categoryDAO.updateSlug(category, slug, lastModifier);
     return category;
@@ -110,6 +153,7 @@ public class CategoryController {
     categoryMetaDAO.listByCategory(category).stream().forEach(categoryMetaDAO::delete);
     categoryDAO.delete(category);
     categoryIndexHandler.deleteIndexable(category.getId());
+    categoryTreeChanged(category);
   }
 
   /**
@@ -159,39 +203,54 @@ public class CategoryController {
   }
 
   /**
-   * Lists all categories including parent categories and all their subcategories
+   * Lists ids of a category and all its subcategories. 
    * 
-   * @param categories root categories. If null, empty list will be returned
-   * @return all categories including parent categories and all their subcategories
+   * Subcategories are resolved from the in-memory category tree
+   * 
+   * @param categoryId root category id
+   * @return ids of the category and all its subcategories
    */
-  public List<Category> listTreeCategories(List<Category> categories) {
-    if (categories == null) {
-      return Collections.emptyList();
-    }
-    
-    List<Category> result = new ArrayList<>();
-    
-    result.addAll(categories);
-    
-    for (Category category : categories) {
-      appendSubcategories(category, result);
-    }
-    
-    return result;
+  public List<UUID> listSubtreeCategoryIds(UUID categoryId) {
+    return categoryTree.listSubtreeIds(Collections.singletonList(categoryId));
   }
   
   /**
-   * Appends recursively all subcategories into result array
+   * Lists ids of ancestors of a category starting from the parent. 
+   * 
+   * Ancestors are resolved from the in-memory category tree
    * 
-   * @param parentCategory parent category
-   * @param result result array
+   * @param category category
+   * @return ids of ancestors of the category
    */
-  private void appendSubcategories(Category parentCategory, List<Category> result) {
-    List<Category> subcategories = categoryDAO.listByParent(parentCategory);
-    result.addAll(subcategories);
-    for (Category subcategory : subcategories) {
-      appendSubcategories(subcategory, result);
-    }
+  public List<UUID> listAncestorIds(Category category) {
+    return categoryTree.listAncestorIds(category.getId());
+  }
+  
+  /**
+   * Invalidates cached category tree
+   */
+  public void invalidateCategoryTree() {
+    categoryTree.invalidate();
+  }
+  
+  /**
+   * Invalidates the category tree and notifies about the change
+   * 
+   * @param category changed category
+   */
+  private void categoryTreeChanged(Category category) {
+    categoryTree.invalidate();
+    categoryTreeChangeEvent.fire(new CategoryTreeChangeEvent(category.getId()));
+  }
+  
+  /**
+   * Returns id of a category
+   * 
+   * @param category category or null
+   * @return category id or null
+   */
+  private UUID getCategoryId(Category category) {
+    return category != null ? category.getId() : null;
   }
   
   /**
@@ -201,15 +260,7 @@ public class CategoryController {
    * @return unique slug
    */
   private String getUniqueSlug(String slug) {
-    String result = slug;
-    int iteration = 0;
-
-    while (categoryDAO.findBySlug(result) != null) {
-      iteration++;
-      result = String.format("%s-%d", slug, iteration);
-    }
-
-	  return result;
+    return slugAllocator.getUniqueSlug(slug, categoryDAO::listReservedSlugs);
   }
 
 }
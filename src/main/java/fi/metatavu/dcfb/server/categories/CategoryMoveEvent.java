@@ -0,0 +1,31 @@
+package fi.metatavu.dcfb.server.categories;
+
+import java.util.UUID;
+
+/**
+ * Event fired when a category has been moved under another parent
+ */
+public class CategoryMoveEvent {
+  
+  private UUID categoryId;
+  
+  /**
+   * Constructor
+   * 
+   * @param categoryId category id
+   */
+  public CategoryMoveEvent(UUID categoryId) {
+    super();
+    this.categoryId = categoryId;
+  }
+
+  /**
+   * Returns category id
+   * 
+   * @return category id
+   */
+  public UUID getCategoryId() {
+    return categoryId;
+  }
+
+}
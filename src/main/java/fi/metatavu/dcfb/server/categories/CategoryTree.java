@@ -0,0 +1,137 @@
+package fi.metatavu.dcfb.server.categories;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import fi.metatavu.dcfb.server.persistence.dao.CategoryDAO;
+
+/**
+ * In-memory category tree. 
+ * 
+ * Tree is loaded with a single query when first needed and reloaded after it has been invalidated. 
+ * Descendant and ancestor lookups are served from memory.
+ */
+@ApplicationScoped
+public class CategoryTree {
+  
+  @Inject
+  private CategoryDAO categoryDAO;
+  
+  private volatile Snapshot snapshot;
+  
+  private final AtomicLong generation = new AtomicLong(0);
+  
+  /**
+   * Returns ids of given categories and all their descendants
+   * 
+   * @param categoryIds category ids
+   * @return ids of given categories and all their descendants
+   */
+  public List<UUID> listSubtreeIds(Collection<UUID> categoryIds) {
+    Map<UUID, List<UUID>> childIds = getSnapshot().childIds;
+    Set<UUID> result = new LinkedHashSet<>(categoryIds);
+    Deque<UUID> pending = new ArrayDeque<>(categoryIds);
+    
+    while (!pending.isEmpty()) {
+      for (UUID childId : childIds.getOrDefault(pending.poll(), Collections.emptyList())) {
+        if (result.add(childId)) {
+          pending.add(childId);
+        }
+      }
+    }
+    
+    return new ArrayList<>(result);
+  }
+  
+  /**
+   * Returns ids of ancestors of a category starting from the parent
+   * 
+   * @param categoryId category id
+   * @return ids of ancestors of the category
+   */
+  public List<UUID> listAncestorIds(UUID categoryId) {
+    Map<UUID, UUID> parentIds = getSnapshot().parentIds;
+    List<UUID> result = new ArrayList<>();
+    
+    UUID parentId = parentIds.get(categoryId);
+    while (parentId != null && !result.contains(parentId)) {
+      result.add(parentId);
+      parentId = parentIds.get(parentId);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Invalidates the tree. Tree is reloaded when it is next needed
+   */
+  public synchronized void invalidate() {
+    generation.incrementAndGet();
+    snapshot = null;
+  }
+  
+  /**
+   * Returns current tree snapshot, loading it if needed
+   * 
+   * @return tree snapshot
+   */
+  private Snapshot getSnapshot() {
+    Snapshot result = snapshot;
+    if (result != null) {
+      return result;
+    }
+    
+    long loadGeneration = generation.get();
+    result = new Snapshot(categoryDAO.listParentIds());
+    
+    synchronized (this) {
+      if (generation.get() == loadGeneration) {
+        snapshot = result;
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Immutable snapshot of the category tree
+   */
+  private static class Snapshot {
+    
+    private final Map<UUID, UUID> parentIds;
+    
+    private final Map<UUID, List<UUID>> childIds;
+    
+    /**
+     * Constructor
+     * 
+     * @param parentIds parent ids by category id
+     */
+    public Snapshot(Map<UUID, UUID> parentIds) {
+      this.parentIds = parentIds;
+      this.childIds = new HashMap<>();
+      
+      for (Entry<UUID, UUID> entry : parentIds.entrySet()) {
+        if (entry.getValue() != null) {
+          childIds.computeIfAbsent(entry.getValue(), parentId -> new ArrayList<>()).add(entry.getKey());
+        }
+      }
+    }
+    
+  }
+  
+}
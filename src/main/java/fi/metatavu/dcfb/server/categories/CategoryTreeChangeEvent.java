@@ -0,0 +1,31 @@
+package fi.metatavu.dcfb.server.categories;
+
+import java.util.UUID;
+
+/**
+ * Event fired when a category has been created, moved or deleted
+ */
+public class CategoryTreeChangeEvent {
+  
+  private UUID categoryId;
+  
+  /**
+   * Constructor
+   * 
+   * @param categoryId category id
+   */
+  public CategoryTreeChangeEvent(UUID categoryId) {
+    super();
+    this.categoryId = categoryId;
+  }
+
+  /**
+   * Returns category id
+   * 
+   * @return category id
+   */
+  public UUID getCategoryId() {
+    return categoryId;
+  }
+
+}
@@ -0,0 +1,17 @@
+package fi.metatavu.dcfb.server.email;
+
+/**
+ * Exception thrown when an email could not be delivered
+ */
+public class EmailDeliveryException extends RuntimeException {
+
+  private static final long serialVersionUID = -2880745913360284720L;
+
+  public EmailDeliveryException(String message) {
+    super (message);
+  }
+
+  public EmailDeliveryException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
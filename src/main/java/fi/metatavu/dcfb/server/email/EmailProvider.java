@@ -1,5 +1,7 @@
 package fi.metatavu.dcfb.server.email;
 
+import java.util.Map;
+
 import fi.metatavu.dcfb.server.email.mailgun.MailFormat;
 
 /**
@@ -19,6 +21,19 @@ public interface EmailProvider {
    * @param format email format
    */
   public void sendMail(String toEmail, String subject, String content, MailFormat format);
+  
+  /**
+   * Sends same email to multiple recipients. 
+   * 
+   * Each recipient receives an individual copy of the email. Content may refer to recipient's 
+   * variables with %recipient.variableName% placeholders
+   * 
+   * @param recipients recipients' email addresses mapped to recipient's variables
+   * @param subject email's subject
+   * @param content email's content
+   * @param format email format
+   */
+  public void sendBatchMail(Map<String, Map<String, String>> recipients, String subject, String content, MailFormat format);
 
 }
 
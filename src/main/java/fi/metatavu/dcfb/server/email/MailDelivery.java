@@ -0,0 +1,20 @@
+package fi.metatavu.dcfb.server.email;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import javax.inject.Qualifier;
+
+/**
+ * Qualifier for the email provider that actually delivers mails. 
+ * 
+ * Unqualified email provider queues mails for delivery
+ */
+@Qualifier
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER })
+public @interface MailDelivery {
+
+}
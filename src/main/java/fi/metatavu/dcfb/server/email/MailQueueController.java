@@ -0,0 +1,204 @@
+package fi.metatavu.dcfb.server.email;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+import javax.transaction.Transactional.TxType;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.metatavu.dcfb.server.email.mailgun.MailFormat;
+import fi.metatavu.dcfb.server.persistence.dao.QueuedMailDAO;
+import fi.metatavu.dcfb.server.persistence.model.QueuedMail;
+import fi.metatavu.dcfb.server.persistence.model.QueuedMailStatus;
+
+/**
+ * Controller for the persistent mail delivery queue
+ */
+@ApplicationScoped
+public class MailQueueController {
+  
+  private static final int MAX_ATTEMPTS = 8;
+  
+  private static final long RETRY_BASE_DELAY = 30l;
+  
+  private static final long RETRY_MAX_DELAY = 3600l;
+  
+  private static final int MAX_ERROR_LENGTH = 1024;
+  
+  @Inject
+  private Logger logger;
+
+  @Inject
+  private QueuedMailDAO queuedMailDAO;
+
+  @Inject
+  private Event<MailQueuedEvent> mailQueuedEvent;
+  
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  
+  private final AtomicLong sentCount = new AtomicLong(0);
+  
+  private final AtomicLong failedAttemptCount = new AtomicLong(0);
+  
+  private final AtomicLong deadLetteredCount = new AtomicLong(0);
+
+  /**
+   * Adds a mail into the delivery queue. Mail is delivered after current transaction has been committed
+   * 
+   * @param toEmail recipient's email address
+   * @param subject subject
+   * @param content content
+   * @param format format
+   * @return queued mail
+   */
+  @Transactional
+  public QueuedMail enqueue(String toEmail, String subject, String content, MailFormat format) {
+    QueuedMail result = queuedMailDAO.create(UUID.randomUUID(), toEmail, null, subject, content, format);
+    mailQueuedEvent.fire(new MailQueuedEvent(result.getId()));
+    return result;
+  }
+  
+  /**
+   * Adds a batch mail into the delivery queue. Mail is delivered after current transaction has been committed
+   * 
+   * @param recipients recipients' email addresses mapped to recipient's variables
+   * @param subject subject
+   * @param content content
+   * @param format format
+   * @return queued mail
+   */
+  @Transactional
+  public QueuedMail enqueueBatch(Map<String, Map<String, String>> recipients, String subject, String content, MailFormat format) {
+    String recipientVariables;
+    try {
+      recipientVariables = objectMapper.writeValueAsString(recipients);
+    } catch (JsonProcessingException e) {
+      throw new EmailDeliveryException("Failed to serialize recipient variables", e);
+    }
+    
+    QueuedMail result = queuedMailDAO.create(UUID.randomUUID(), null, recipientVariables, subject, content, format);
+    mailQueuedEvent.fire(new MailQueuedEvent(result.getId()));
+    return result;
+  }
+  
+  /**
+   * Returns recipients of a queued batch mail
+   * 
+   * @param queuedMail queued mail
+   * @return recipients' email addresses mapped to recipient's variables or null if mail is not a batch mail
+   */
+  public Map<String, Map<String, String>> getBatchRecipients(QueuedMail queuedMail) {
+    if (queuedMail.getRecipientVariables() == null) {
+      return null;
+    }
+    
+    try {
+      return objectMapper.readValue(queuedMail.getRecipientVariables(), new TypeReference<Map<String, Map<String, String>>>() { });
+    } catch (IOException e) {
+      throw new EmailDeliveryException("Failed to read recipient variables", e);
+    }
+  }
+  
+  /**
+   * Claims mails due for delivery in a new transaction. Claimed mails are marked as being sent
+   * 
+   * @param maxResults max number of claimed mails
+   * @return claimed mails
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public List<QueuedMail> claimDueMails(int maxResults) {
+    List<QueuedMail> result = queuedMailDAO.listDueForUpdate(OffsetDateTime.now(), maxResults);
+    result.stream().forEach(queuedMail -> queuedMailDAO.updateStatus(queuedMail, QueuedMailStatus.SENDING));
+    return result;
+  }
+  
+  /**
+   * Removes a delivered mail from the queue
+   * 
+   * @param id queued mail id
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public void markSent(UUID id) {
+    QueuedMail queuedMail = queuedMailDAO.findById(id);
+    if (queuedMail != null) {
+      queuedMailDAO.delete(queuedMail);
+    }
+    
+    sentCount.incrementAndGet();
+  }
+  
+  /**
+   * Schedules a failed mail for a retry with exponential backoff or moves it 
+   * into the dead letter state after max attempts
+   * 
+   * @param id queued mail id
+   * @param e failure
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public void markFailed(UUID id, RuntimeException e) {
+    failedAttemptCount.incrementAndGet();
+    
+    QueuedMail queuedMail = queuedMailDAO.findById(id);
+    if (queuedMail == null) {
+      return;
+    }
+    
+    int attempts = queuedMail.getAttempts() + 1;
+    String error = StringUtils.abbreviate(e.getMessage(), MAX_ERROR_LENGTH);
+    
+    if (attempts >= MAX_ATTEMPTS) {
+      logger.error("Giving up delivering mail {} after {} attempts", id, attempts, e);
+      deadLetteredCount.incrementAndGet();
+      queuedMailDAO.updateAttempt(queuedMail, QueuedMailStatus.DEAD, queuedMail.getNextAttemptAt(), error);
+      return;
+    }
+    
+    long delay = Math.min(RETRY_BASE_DELAY << (attempts - 1), RETRY_MAX_DELAY);
+    logger.warn("Failed to deliver mail {}, retrying in {} seconds", id, delay, e);
+    queuedMailDAO.updateAttempt(queuedMail, QueuedMailStatus.QUEUED, OffsetDateTime.now().plus(delay, ChronoUnit.SECONDS), error);
+  }
+  
+  /**
+   * Returns mails that have been claimed for sending but not completed into the queue. 
+   * 
+   * This happens only if the server is stopped while mails are being sent.
+   * 
+   * @param timeout time in minutes after which mails being sent are considered abandoned
+   * @return number of returned mails
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public int requeueAbandoned(long timeout) {
+    return queuedMailDAO.requeueSendingBefore(OffsetDateTime.now().minus(timeout, ChronoUnit.MINUTES));
+  }
+  
+  /**
+   * Returns mail queue statistics
+   * 
+   * @return mail queue statistics
+   */
+  public MailQueueStatistics getStatistics() {
+    return new MailQueueStatistics(
+      queuedMailDAO.countByStatus(QueuedMailStatus.QUEUED),
+      queuedMailDAO.countByStatus(QueuedMailStatus.SENDING),
+      queuedMailDAO.countByStatus(QueuedMailStatus.DEAD),
+      sentCount.get(),
+      failedAttemptCount.get(),
+      deadLetteredCount.get());
+  }
+  
+}
@@ -0,0 +1,31 @@
+package fi.metatavu.dcfb.server.email;
+
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Scheduler that delivers mails that are due for a retry and recovers abandoned deliveries
+ */
+@Startup
+@Singleton
+@ApplicationScoped
+public class MailQueueScheduler {
+  
+  private static final long ABANDONED_TIMEOUT = 10l;
+  
+  @Inject
+  private MailQueueController mailQueueController;
+  
+  @Inject
+  private MailQueueWorker mailQueueWorker;
+
+  @Schedule(hour = "*", minute = "*", second = "*/10", persistent = false, info = "Every 10 seconds")
+  public void deliverMails() {
+    mailQueueController.requeueAbandoned(ABANDONED_TIMEOUT);
+    mailQueueWorker.dispatch();
+  }
+  
+}
@@ -0,0 +1,63 @@
+package fi.metatavu.dcfb.server.email;
+
+/**
+ * Snapshot of mail delivery queue statistics
+ */
+public class MailQueueStatistics {
+
+  private long queuedCount;
+
+  private long sendingCount;
+
+  private long deadCount;
+
+  private long sentCount;
+
+  private long failedAttemptCount;
+
+  private long deadLetteredCount;
+
+  /**
+   * Constructor
+   *
+   * @param queuedCount number of mails waiting for delivery
+   * @param sendingCount number of mails being sent
+   * @param deadCount number of mails in the dead letter state
+   * @param sentCount number of mails sent since startup
+   * @param failedAttemptCount number of failed delivery attempts since startup
+   * @param deadLetteredCount number of mails given up since startup
+   */
+  public MailQueueStatistics(long queuedCount, long sendingCount, long deadCount, long sentCount, long failedAttemptCount, long deadLetteredCount) {
+    this.queuedCount = queuedCount;
+    this.sendingCount = sendingCount;
+    this.deadCount = deadCount;
+    this.sentCount = sentCount;
+    this.failedAttemptCount = failedAttemptCount;
+    this.deadLetteredCount = deadLetteredCount;
+  }
+
+  public long getQueuedCount() {
+    return queuedCount;
+  }
+
+  public long getSendingCount() {
+    return sendingCount;
+  }
+
+  public long getDeadCount() {
+    return deadCount;
+  }
+
+  public long getSentCount() {
+    return sentCount;
+  }
+
+  public long getFailedAttemptCount() {
+    return failedAttemptCount;
+  }
+
+  public long getDeadLetteredCount() {
+    return deadLetteredCount;
+  }
+
+}
@@ -0,0 +1,117 @@
+package fi.metatavu.dcfb.server.email;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import fi.metatavu.dcfb.server.persistence.model.QueuedMail;
+import fi.metatavu.dcfb.server.settings.SystemSettingController;
+
+/**
+ * Worker that delivers queued mails. 
+ * 
+ * Number of concurrently sent mails is limited to stay within the rate limits of the mail service.
+ */
+@ApplicationScoped
+public class MailQueueWorker {
+  
+  private static final String CONCURRENCY_SETTING = "mail-queue-concurrency";
+  
+  private static final int DEFAULT_CONCURRENCY = 4;
+  
+  @Inject
+  private SystemSettingController systemSettingController;
+
+  @Inject
+  private MailQueueController mailQueueController;
+  
+  @Inject
+  @MailDelivery
+  private EmailProvider emailProvider;
+  
+  @Resource
+  private ManagedExecutorService executorService;
+  
+  private Semaphore permits;
+  
+  private final AtomicBoolean dispatching = new AtomicBoolean(false);
+  
+  /**
+   * Post construct method
+   */
+  @PostConstruct
+  public void init() {
+    permits = new Semaphore(systemSettingController.getSettingValueInteger(CONCURRENCY_SETTING, DEFAULT_CONCURRENCY));
+  }
+  
+  /**
+   * Starts delivering a mail as soon as the transaction that queued it has been committed
+   * 
+   * @param event queued event
+   */
+  public void onMailQueued(@Observes (during = TransactionPhase.AFTER_SUCCESS) MailQueuedEvent event) {
+    executorService.execute(this::dispatch);
+  }
+
+  /**
+   * Claims due mails and hands them to the executor as long as there are free delivery slots.
+   * 
+   * Only one dispatch is running at a time, concurrent calls return immediately.
+   */
+  public void dispatch() {
+    if (!dispatching.compareAndSet(false, true)) {
+      return;
+    }
+    
+    try {
+      int available = permits.availablePermits();
+      while (available > 0) {
+        List<QueuedMail> queuedMails = mailQueueController.claimDueMails(available);
+        if (queuedMails.isEmpty()) {
+          break;
+        }
+        
+        for (QueuedMail queuedMail : queuedMails) {
+          permits.acquireUninterruptibly();
+          executorService.execute(() -> deliver(queuedMail));
+        }
+        
+        available = permits.availablePermits();
+      }
+    } finally {
+      dispatching.set(false);
+    }
+  }
+  
+  /**
+   * Delivers a claimed mail
+   * 
+   * @param queuedMail mail
+   */
+  private void deliver(QueuedMail queuedMail) {
+    try {
+      Map<String, Map<String, String>> recipients = mailQueueController.getBatchRecipients(queuedMail);
+      if (recipients != null) {
+        emailProvider.sendBatchMail(recipients, queuedMail.getSubject(), queuedMail.getContent(), queuedMail.getFormat());
+      } else {
+        emailProvider.sendMail(queuedMail.getToEmail(), queuedMail.getSubject(), queuedMail.getContent(), queuedMail.getFormat());
+      }
+      
+      mailQueueController.markSent(queuedMail.getId());
+    } catch (RuntimeException e) {
+      mailQueueController.markFailed(queuedMail.getId(), e);
+    } finally {
+      permits.release();
+    }
+  }
+  
+}
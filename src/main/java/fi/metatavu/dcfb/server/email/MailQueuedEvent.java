@@ -0,0 +1,31 @@
+package fi.metatavu.dcfb.server.email;
+
+import java.util.UUID;
+
+/**
+ * Event fired when a mail has been added into the delivery queue
+ */
+public class MailQueuedEvent {
+  
+  private UUID id;
+  
+  /**
+   * Constructor
+   * 
+   * @param id queued mail id
+   */
+  public MailQueuedEvent(UUID id) {
+    super();
+    this.id = id;
+  }
+
+  /**
+   * Returns queued mail id
+   * 
+   * @return queued mail id
+   */
+  public UUID getId() {
+    return id;
+  }
+
+}
@@ -0,0 +1,48 @@
+package fi.metatavu.dcfb.server.email;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import fi.metatavu.dcfb.server.email.mailgun.MailFormat;
+
+/**
+ * Email provider that persists mails into the delivery queue and returns immediately. 
+ * 
+ * Mails are delivered in the background by the provider qualified with {@link MailDelivery}. 
+ * Batch mails are split into batches of at most 1000 recipients, which is the limit of a single Mailgun batch send.
+ */
+@ApplicationScoped
+public class QueuedEmailProvider implements EmailProvider {
+  
+  private static final int MAX_BATCH_SIZE = 1000;
+  
+  @Inject
+  private MailQueueController mailQueueController;
+
+  @Override
+  public void sendMail(String toEmail, String subject, String content, MailFormat format) {
+    mailQueueController.enqueue(toEmail, subject, content, format);
+  }
+
+  @Override
+  public void sendBatchMail(Map<String, Map<String, String>> recipients, String subject, String content, MailFormat format) {
+    Map<String, Map<String, String>> batch = new LinkedHashMap<>();
+    
+    for (Entry<String, Map<String, String>> recipient : recipients.entrySet()) {
+      batch.put(recipient.getKey(), recipient.getValue());
+      if (batch.size() >= MAX_BATCH_SIZE) {
+        mailQueueController.enqueueBatch(batch, subject, content, format);
+        batch = new LinkedHashMap<>();
+      }
+    }
+    
+    if (!batch.isEmpty()) {
+      mailQueueController.enqueueBatch(batch, subject, content, format);
+    }
+  }
+
+}
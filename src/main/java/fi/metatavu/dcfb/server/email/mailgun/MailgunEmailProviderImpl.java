@@ -1,86 +1,151 @@
 package fi.metatavu.dcfb.server.email.mailgun;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
 import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.metatavu.dcfb.server.email.EmailDeliveryException;
 import fi.metatavu.dcfb.server.email.EmailProvider;
+import fi.metatavu.dcfb.server.email.MailDelivery;
 import fi.metatavu.dcfb.server.settings.SystemSettingController;
 import net.sargue.mailgun.Configuration;
 import net.sargue.mailgun.Mail;
 import net.sargue.mailgun.MailBuilder;
+import net.sargue.mailgun.Response;
 
 /**
- * Mailgun email provider implementation
+ * Mailgun email provider implementation. 
+ * 
+ * Sends mails synchronously and throws {@link EmailDeliveryException} when a mail could not be delivered. 
+ * Mailgun configuration is built once and rebuilt only when Mailgun settings change.
  * 
  * @author Heikki Kurhinen
  * @author Antti Leppä
  */
 @ApplicationScoped
+@MailDelivery
 public class MailgunEmailProviderImpl implements EmailProvider {
   
+  private static final String RECIPIENT_VARIABLES_PARAMETER = "recipient-variables";
+  
   @Inject
   private SystemSettingController systemSettingController;
-
-  @Inject
-  private Logger logger;
+  
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  
+  private Configuration configuration;
+  
+  private List<String> configurationSettings;
   
   @Override
-  @SuppressWarnings ("squid:S3457")
   public void sendMail(String toEmail, String subject, String content, MailFormat format) {
+    MailBuilder mailBuilder = Mail.using(getConfiguration())
+      .to(toEmail)
+      .subject(subject);
+    
+    send(mailBuilder, content, format);
+  }
+  
+  @Override
+  public void sendBatchMail(Map<String, Map<String, String>> recipients, String subject, String content, MailFormat format) {
+    if (recipients.isEmpty()) {
+      return;
+    }
+    
+    MailBuilder mailBuilder = Mail.using(getConfiguration())
+      .subject(subject);
+    
+    for (String toEmail : recipients.keySet()) {
+      mailBuilder = mailBuilder.to(toEmail);
+    }
+    
+    try {
+      mailBuilder = mailBuilder.parameter(RECIPIENT_VARIABLES_PARAMETER, objectMapper.writeValueAsString(recipients));
+    } catch (JsonProcessingException e) {
+      throw new EmailDeliveryException("Failed to serialize recipient variables", e);
+    }
+    
+    send(mailBuilder, content, format);
+  }
+  
+  /**
+   * Sets content and sends the mail
+   * 
+   * @param mailBuilder mail builder
+   * @param content content
+   * @param format format
+   */
+  private void send(MailBuilder mailBuilder, String content, MailFormat format) {
+    MailBuilder builder = mailBuilder;
+    
+    switch (format) {
+      case HTML:
+        builder = builder.html(content);
+      break;
+      case PLAIN:
+        builder = builder.text(content);
+      break;
+      default:
+        throw new EmailDeliveryException(String.format("Unknown mail format %s", format));
+    }
+    
+    Response response = builder.build().send();
+    if (!response.isOk()) {
+      throw new EmailDeliveryException(String.format("Mailgun responded with %d: %s", response.responseCode(), response.responseMessage()));
+    }
+  }
+  
+  /**
+   * Returns Mailgun configuration. Configuration is rebuilt when Mailgun settings have changed
+   * 
+   * @return Mailgun configuration
+   */
+  private synchronized Configuration getConfiguration() {
     String domain = systemSettingController.getSettingValue(MailgunConsts.DOMAIN_SETTING_KEY);
     if (StringUtils.isEmpty(domain)) {
-      logger.error("Domain setting is missing");
-      return;
+      throw new EmailDeliveryException("Domain setting is missing");
     }
 
     String apiKey = systemSettingController.getSettingValue(MailgunConsts.APIKEY_SETTING_KEY);
     if (StringUtils.isEmpty(apiKey)) {
-      logger.error("API key setting is missing");
-      return;
+      throw new EmailDeliveryException("API key setting is missing");
     }
 
     String senderName = systemSettingController.getSettingValue(MailgunConsts.SENDER_NAME_SETTING_KEY);
     if (StringUtils.isEmpty(senderName)) {
-      logger.error("Sender name setting is missing");
-      return;
+      throw new EmailDeliveryException("Sender name setting is missing");
     }
 
     String senderEmail = systemSettingController.getSettingValue(MailgunConsts.SENDER_EMAIL_SETTING_KEY);
     if (StringUtils.isEmpty(senderEmail)) {
-      logger.error("Sender emaili setting is missing");
-      return;
+      throw new EmailDeliveryException("Sender email setting is missing");
     }
     
     String apiUrl = systemSettingController.getSettingValue(MailgunConsts.APIURL_SETTING_KEY);
-
-    Configuration configuration = new Configuration()
-      .domain(domain)
-      .apiKey(apiKey)
-      .from(senderName, senderEmail);
-    
-    if (StringUtils.isNotEmpty(apiUrl)) {
-      configuration.apiUrl(apiUrl);
-    }
-    
-    MailBuilder mailBuilder = Mail.using(configuration)
-      .to(toEmail)
-      .subject(subject);
+    List<String> settings = Arrays.asList(domain, apiKey, senderName, senderEmail, apiUrl);
     
-    switch (format) {
-      case HTML:
-        mailBuilder = mailBuilder.html(content);
-      break;
-      case PLAIN:
-        mailBuilder = mailBuilder.text(content);
-      break;
-      default:
-        logger.error("Unknown mail format {}", format);
-        return;
+    if (configuration == null || !settings.equals(configurationSettings)) {
+      Configuration result = new Configuration()
+        .domain(domain)
+        .apiKey(apiKey)
+        .from(senderName, senderEmail);
+      
+      if (StringUtils.isNotEmpty(apiUrl)) {
+        result.apiUrl(apiUrl);
+      }
+      
+      configuration = result;
+      configurationSettings = settings;
     }
     
-    mailBuilder.build().send();
+    return configuration;
   }
 
 }
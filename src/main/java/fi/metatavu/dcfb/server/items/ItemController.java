@@ -2,16 +2,20 @@ package fi.metatavu.dcfb.server.items;
 
 import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Collection;
 import java.util.Currency;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
 import javax.inject.Inject;
+import javax.transaction.Transactional;
+import javax.transaction.Transactional.TxType;
 
 import fi.metatavu.dcfb.server.categories.CategoryController;
 import fi.metatavu.dcfb.server.localization.LocalizedValueController;
@@ -29,10 +33,11 @@ import fi.metatavu.dcfb.server.persistence.model.ItemUser;
 import fi.metatavu.dcfb.server.persistence.model.LocalizedEntry;
 import fi.metatavu.dcfb.server.persistence.model.Location;
 import fi.metatavu.dcfb.server.rest.model.ItemListSort;
-import fi.metatavu.dcfb.server.search.handlers.ItemIndexEvent;
 import fi.metatavu.dcfb.server.search.handlers.ItemIndexHandler;
 import fi.metatavu.dcfb.server.search.searchers.ItemSearcher;
+import fi.metatavu.dcfb.server.search.searchers.SearchCursor;
 import fi.metatavu.dcfb.server.search.searchers.SearchResult;
+import fi.metatavu.dcfb.server.slugs.SlugAllocator;
 
 @ApplicationScoped
 public class ItemController {
@@ -51,6 +56,9 @@ public class ItemController {
   @Inject
   private ItemDAO itemDAO;
 
+  @Inject
+  private SlugAllocator slugAllocator;
+
   @Inject
   private ItemImageDAO itemImageDAO;
 
@@ -65,9 +73,6 @@ public class ItemController {
 
   @Inject
   private LocalizedValueController localizedValueController;
-
-  @Inject
-  private Event<ItemIndexEvent> itemIndexEvent;
   
   /**
    * Create item
@@ -106,6 +111,29 @@ public class ItemController {
         businessName, businessCode, sellerId, modifier);
   }
 
+  /**
+   * Lists items ordered by id
+   * 
+   * @param afterId id after which items are listed or null to start from the beginning
+   * @param maxResults max results
+   * @return items ordered by id
+   */
+  public List<Item> listItemsAfter(UUID afterId, int maxResults) {
+    return itemDAO.listAfterId(afterId, maxResults);
+  }
+
+  /**
+   * Lists items that belong to given categories ordered by id
+   * 
+   * @param categoryIds category ids
+   * @param afterId id after which items are listed or null to start from the beginning
+   * @param maxResults max results
+   * @return items ordered by id
+   */
+  public List<Item> listItemsByCategoriesAfter(List<UUID> categoryIds, UUID afterId, int maxResults) {
+    return itemDAO.listByCategoryIdsAfterId(categoryIds, afterId, maxResults);
+  }
+
   /**
    * Finds an item
    * 
@@ -117,7 +145,12 @@ public class ItemController {
   }
 
   /**
-   * Update item
+   * Update item. 
+   * 
+   * Only fields that differ from current values are changed, so an update that changes nothing 
+   * does not modify the item at all and changed fields are written with a single update. 
+   * Item is reindexed only when indexed fields have changed, otherwise only its modification 
+   * time is updated into the index.
    *
    * @param title                      title
    * @param description                description
@@ -147,35 +180,178 @@ public class ItemController {
    * @return updated item
    */
   public Item updateItem(Item item, LocalizedEntry title, LocalizedEntry description, Category category, boolean visibilityLimited, Location location, String slug, OffsetDateTime expiresAt, String unitPrice, Currency priceCurrency, Long amount, String unit, Long soldAmount, Boolean allowPurchaseContactSeller, Boolean allowPurchaseCreditCard, Integer deliveryTime, String contactEmail, String contactPhone, String termsOfDelivery,Boolean allowDelivery, Boolean allowPickup, String deliveryPrice, Currency deliveryCurrency, String businessName, String businessCode, UUID sellerId, UUID modifier) {
-    itemDAO.updateTitle(item, title, modifier);
-    itemDAO.updateDescription(item, description, modifier);
-    itemDAO.updateCategory(item, category, modifier);
-    itemDAO.updateVisibilityLimited(item, visibilityLimited, modifier);
-    itemDAO.updateLocation(item, location, modifier);
-    itemDAO.updateSlug(item, slug, modifier);
-    itemDAO.updateExpiresAt(item, expiresAt, modifier);
-    itemDAO.updateUnitPrice(item, unitPrice, modifier);
-    itemDAO.updatePriceCurrency(item, priceCurrency, modifier);
-    itemDAO.updateAmount(item, amount, modifier);
-    itemDAO.updateUnit(item, unit, modifier);
-    itemDAO.updateSellerId(item, sellerId, modifier);
-    itemDAO.updateSoldAmount(item, soldAmount, modifier);
-    itemDAO.updateAllowPurchaseContactSeller(item, allowPurchaseContactSeller, modifier);
-    itemDAO.updateAllowPurchaseCreditCard(item, allowPurchaseCreditCard, modifier);
-    itemDAO.updateDeliveryTime(item, deliveryTime, modifier);
-    itemDAO.updateContactEmail(item, contactEmail, modifier);
-    itemDAO.updateContactPhone(item, contactPhone, modifier);
-    itemDAO.updateTermsOfDelivery(item, termsOfDelivery, modifier);
-    itemDAO.updateAllowDelivery(item, allowDelivery, modifier);
-    itemDAO.updateAllowPickup(item, allowPickup, modifier);
-    itemDAO.updateDeliveryPrice(item, deliveryPrice, modifier);
-    itemDAO.updateDeliveryCurrency(item, deliveryCurrency, modifier);
-    itemDAO.updateBusinessCode(item, businessCode, modifier);
-    itemDAO.updateBusinessName(item, businessName, modifier);
+    boolean indexedFieldsChanged = false;
+    boolean otherFieldsChanged = false;
+    
+    if (!Objects.equals(item.getTitle(), title)) {
+      itemDAO.updateTitle(item, title, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getDescription(), description)) {
+      itemDAO.updateDescription(item, description, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(getCategoryId(item.getCategory()), getCategoryId(category))) {
+      itemDAO.updateCategory(item, category, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (item.getVisibilityLimited() != visibilityLimited) {
+      itemDAO.updateVisibilityLimited(item, visibilityLimited, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(getLocationId(item.getLocation()), getLocationId(location))) {
+      itemDAO.updateLocation(item, location, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getSlug(), slug)) {
+      itemDAO.updateSlug(item, slug, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!isSameInstant(item.getExpiresAt(), expiresAt)) {
+      itemDAO.updateExpiresAt(item, expiresAt, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getUnitPrice(), unitPrice)) {
+      itemDAO.updateUnitPrice(item, unitPrice, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getPriceCurrency(), priceCurrency)) {
+      itemDAO.updatePriceCurrency(item, priceCurrency, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getAmount(), amount)) {
+      itemDAO.updateAmount(item, amount, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getUnit(), unit)) {
+      itemDAO.updateUnit(item, unit, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getSellerId(), sellerId)) {
+      itemDAO.updateSellerId(item, sellerId, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getSoldAmount(), soldAmount)) {
+      itemDAO.updateSoldAmount(item, soldAmount, modifier);
+      indexedFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getAllowPurchaseContactSeller(), allowPurchaseContactSeller)) {
+      itemDAO.updateAllowPurchaseContactSeller(item, allowPurchaseContactSeller, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getAllowPurchaseCreditCard(), allowPurchaseCreditCard)) {
+      itemDAO.updateAllowPurchaseCreditCard(item, allowPurchaseCreditCard, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getDeliveryTime(), deliveryTime)) {
+      itemDAO.updateDeliveryTime(item, deliveryTime, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getContactEmail(), contactEmail)) {
+      itemDAO.updateContactEmail(item, contactEmail, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getContactPhone(), contactPhone)) {
+      itemDAO.updateContactPhone(item, contactPhone, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getTermsOfDelivery(), termsOfDelivery)) {
+      itemDAO.updateTermsOfDelivery(item, termsOfDelivery, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getAllowDelivery(), allowDelivery)) {
+      itemDAO.updateAllowDelivery(item, allowDelivery, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getAllowPickup(), allowPickup)) {
+      itemDAO.updateAllowPickup(item, allowPickup, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getDeliveryPrice(), deliveryPrice)) {
+      itemDAO.updateDeliveryPrice(item, deliveryPrice, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getDeliveryCurrency(), deliveryCurrency)) {
+      itemDAO.updateDeliveryCurrency(item, deliveryCurrency, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getBusinessCode(), businessCode)) {
+      itemDAO.updateBusinessCode(item, businessCode, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (!Objects.equals(item.getBusinessName(), businessName)) {
+      itemDAO.updateBusinessName(item, businessName, modifier);
+      otherFieldsChanged = true;
+    }
+    
+    if (indexedFieldsChanged) {
+      itemIndexHandler.requestIndex(item.getId());
+    } else if (otherFieldsChanged) {
+      itemIndexHandler.requestModifiedAtUpdate(item.getId());
+    }
     
     return item;
   }
 
+  /**
+   * Returns id of a category
+   * 
+   * @param category category or null
+   * @return category id or null
+   */
+  private UUID getCategoryId(Category category) {
+    return category != null ? category.getId() : null;
+  }
+  
+  /**
+   * Returns id of a location
+   * 
+   * @param location location or null
+   * @return location id or null
+   */
+  private UUID getLocationId(Location location) {
+    return location != null ? location.getId() : null;
+  }
+  
+  /**
+   * Returns whether given times refer to the same instant regardless of their offsets
+   * 
+   * @param time1 time or null
+   * @param time2 time or null
+   * @return whether given times refer to the same instant
+   */
+  private boolean isSameInstant(OffsetDateTime time1, OffsetDateTime time2) {
+    if (time1 == null || time2 == null) {
+      return time1 == null && time2 == null;
+    }
+    
+    return time1.isEqual(time2);
+  }
+
   /**
    * Update item sold amount value
    *
@@ -187,6 +363,7 @@ public class ItemController {
    */
   public Item updateItemSoldAmount(Item item, Long soldAmount, UUID modifier) {
     itemDAO.updateSoldAmount(item, soldAmount, modifier);
+    itemIndexHandler.requestIndex(item.getId());
     return item;
   }
   
@@ -225,7 +402,17 @@ public class ItemController {
   public List<ItemImage> listItemImages(Item item) {
     return itemImageDAO.listByItem(item);
   }
-  
+
+  /**
+   * Lists images of multiple items
+   * 
+   * @param items items
+   * @return images of given items
+   */
+  public List<ItemImage> listItemImages(Collection<Item> items) {
+    return itemImageDAO.listByItems(items);
+  }
+
   /**
    * Deletes all images related to specified item
    * 
@@ -256,7 +443,17 @@ public class ItemController {
   public List<ItemUser> listItemUsers(Item item) {
     return itemUserDAO.listByItem(item);
   }
-  
+
+  /**
+   * Lists users of multiple items
+   * 
+   * @param items items
+   * @return users of given items
+   */
+  public List<ItemUser> listItemUsers(Collection<Item> items) {
+    return itemUserDAO.listByItems(items);
+  }
+
   /**
    * Deletes all users related to specified item
    * 
@@ -266,6 +463,44 @@ public class ItemController {
     listItemUsers(item).stream().forEach(itemUserDAO::delete);
   }
   
+  /**
+   * Sets users an item is visible to. Only missing users are added and removed users deleted
+   * 
+   * @param item item
+   * @param userIds user ids
+   * @return whether users were changed
+   */
+  public boolean setItemUsers(Item item, Collection<UUID> userIds) {
+    Set<UUID> addedUserIds = new HashSet<>(userIds);
+    boolean changed = false;
+    
+    for (ItemUser itemUser : listItemUsers(item)) {
+      if (!addedUserIds.remove(itemUser.getUserId())) {
+        itemUserDAO.delete(itemUser);
+        changed = true;
+      }
+    }
+    
+    for (UUID userId : addedUserIds) {
+      createItemUser(item, userId);
+      changed = true;
+    }
+    
+    return changed;
+  }
+  
+  /**
+   * Requests item to be reindexed after current transaction has been committed. 
+   * 
+   * Changes into item's own fields are reindexed by updateItem, this is needed only 
+   * when indexed data related to the item has changed.
+   * 
+   * @param item item
+   */
+  public void requestIndex(Item item) {
+    itemIndexHandler.requestIndex(item.getId());
+  }
+  
   /**
    * Deletes all item reservations
    * 
@@ -273,7 +508,7 @@ public class ItemController {
    */
   public void deleteItemReservations(Item item) {
     itemReservationDAO.listByItem(item).stream()
-      .forEach(this::deleteItemReservation);
+      .forEach(itemReservationDAO::delete);
   }
 
   /**
@@ -281,36 +516,40 @@ public class ItemController {
    * 
    * @param nearLat prefer items near geo point
    * @param nearLon prefer items near geo point
-   * @param sellerIds seller ids. Ignored if null
-   * @param categories filter by categories. Ignored if null
-   * @param locations filter by locations. Ignored if null
+   * @param sellerIds seller ids. Ignored if null or empty
+   * @param categories filter by categories. Ignored if null or empty
+   * @param locations filter by locations. Ignored if null or empty
    * @param search Search by free-text. Ignored if null
    * @param includeExhausted whether to include items without any items left
-   * @param firstResult result offset
+   * @param firstResult result offset. Ignored if cursor is given
+   * @param cursor cursor to the page when paginating with search_after or null to paginate by offset
    * @param maxResults maximum number of results returned
    * @return search result
    */
   @SuppressWarnings ("squid:S00107")
   public SearchResult<Item> searchItems(Double nearLat, Double nearLon, List<UUID> sellerIds, List<Category> categories, List<Location> locations, String search, 
-      UUID currentUserId, boolean includeExhausted, Long firstResult, Long maxResults, List<ItemListSort> sorts) {
+      UUID currentUserId, boolean includeExhausted, Long firstResult, SearchCursor cursor, Long maxResults, List<ItemListSort> sorts) {
     
-    List<UUID> categoryIds = categoryController.listTreeCategories(categories).stream()
+    List<UUID> categoryIds = categories == null ? null : categories.stream()
       .map(Category::getId)
       .collect(Collectors.toList());
 
+    List<UUID> subtreeCategoryIds = categoryIds == null ? null : categoryIds.stream()
+      .map(categoryController::listSubtreeCategoryIds)
+      .flatMap(List::stream)
+      .distinct()
+      .collect(Collectors.toList());
+
     List<UUID> locationIds = locations == null ? null : locations.stream()
       .map(Location::getId)
       .collect(Collectors.toList());
 
-    SearchResult<UUID> searchResult = itemSearcher.searchItems(nearLat, nearLon, sellerIds,categoryIds, locationIds, 
-        search,  currentUserId, includeExhausted, firstResult, maxResults, sorts);
+    SearchResult<UUID> searchResult = itemSearcher.searchItems(nearLat, nearLon, sellerIds, categoryIds, subtreeCategoryIds, locationIds, 
+        search,  currentUserId, includeExhausted, firstResult, cursor, maxResults, sorts);
 
-    List<Item> items = searchResult.getResult().stream()
-      .map(itemDAO::findById)
-      .filter(Objects::nonNull)
-      .collect(Collectors.toList());
+    List<Item> items = itemDAO.findByIds(searchResult.getResult());
 
-    return new SearchResult<>(items, searchResult.getTotalHits());
+    return new SearchResult<>(items, searchResult.getTotalHits(), searchResult.getNextCursor());
   }
 
   /**
@@ -320,7 +559,17 @@ public class ItemController {
    * @return item metas
    */
   public List<ItemMeta> listMetas(Item item) {
-    return itemMetaDAO.listByItem(item); 
+    return itemMetaDAO.listByItem(item);
+  }
+
+  /**
+   * Lists metas of multiple items
+   * 
+   * @param items items
+   * @return metas of given items
+   */
+  public List<ItemMeta> listMetas(Collection<Item> items) {
+    return itemMetaDAO.listByItems(items);
   }
 
   /**
@@ -332,10 +581,11 @@ public class ItemController {
    * @return created or updatedmeta entity. Null if given value is null
    */
   public Item setResourceId(Item item, UUID resourceId, UUID lastModifier) {
-    return itemDAO.updateResourceId(item, resourceId, lastModifier);
+    Item result = itemDAO.updateResourceId(item, resourceId, lastModifier);
+    itemIndexHandler.requestModifiedAtUpdate(result.getId());
+    return result;
   }
 
-
   /**
    * Sets meta value for an item
    * 
@@ -373,17 +623,36 @@ public class ItemController {
   }
 
   /**
-   * Create new ItemReservation 
+   * Create new ItemReservation if there are enough items left in the stock.
+   * 
+   * Stock is checked and reserved while the item row is locked, so concurrent reservations can not oversell the item
    * 
    * @param item item
    * @param amount amount
-   * @return
+   * @return created reservation or null if there are not enough items left
    */
   public ItemReservation createResevation(Item item, Long amount) {
+    if (!itemDAO.reserveAmount(item, amount)) {
+      return null;
+    }
+    
     ItemReservation result = itemReservationDAO.create(UUID.randomUUID(), item, OffsetDateTime.now().plus(RESERVATION_EXPIRE_MINUTES, ChronoUnit.MINUTES), amount);
-    itemIndexEvent.fire(new ItemIndexEvent(item.getId()));
+    itemIndexHandler.requestStockUpdate(item.getId());
     return result;
   }
+  
+  /**
+   * Marks reserved items as sold and removes the reservation
+   * 
+   * @param itemReservation item reservation
+   * @return updated item
+   */
+  public Item sellReservation(ItemReservation itemReservation) {
+    Item item = itemDAO.sellReservedAmount(itemReservation.getItem(), itemReservation.getAmount());
+    itemReservationDAO.delete(itemReservation);
+    itemIndexHandler.requestStockUpdate(item.getId());
+    return item;
+  }
 
   /**
    * Finds an item reservation
@@ -396,21 +665,30 @@ public class ItemController {
   }
   
   /**
-   * Returns total amount of reservations for an item
+   * Returns amounts of items left in the stock
    * 
-   * @param item item
-   * @return total amount of reservations for an item
+   * @param itemIds item ids
+   * @return amounts of items left by item id
    */
-  public long countReservedAmountByItem(Item item) {
-    return itemReservationDAO.listByItem(item).stream().mapToLong(ItemReservation::getAmount).sum();
+  public Map<UUID, Long> getItemsLeft(Collection<UUID> itemIds) {
+    return itemDAO.listItemsLeft(itemIds);
   }
   
   /**
-   * Deletes expired reservations
+   * Deletes a chunk of expired reservations in a new transaction. 
+   * 
+   * Reserved amounts of deleted reservations are released and stock of affected items is updated into the search index
+   * 
+   * @param maxResults max number of reservations to delete
+   * @return ids of items that had expired reservations deleted
    */
-  public void deleteExpiredReservations() {
-    itemReservationDAO.listExpired().stream().forEach(itemReservationDAO::delete);
-  } 
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public Set<UUID> deleteExpiredReservations(int maxResults) {
+    Map<UUID, Long> deletedAmounts = itemReservationDAO.deleteExpired(OffsetDateTime.now(), maxResults);
+    deletedAmounts.forEach(itemDAO::releaseReservedAmount);
+    deletedAmounts.keySet().forEach(itemIndexHandler::requestStockUpdate);
+    return deletedAmounts.keySet();
+  }
 
   /**
    * Deletes an item reservation
@@ -418,7 +696,10 @@ public class ItemController {
    * @param itemReservation item reservation
    */
   public void deleteItemReservation(ItemReservation itemReservation) {
+    Item item = itemReservation.getItem();
+    itemDAO.releaseReservedAmount(item.getId(), itemReservation.getAmount());
     itemReservationDAO.delete(itemReservation);
+    itemIndexHandler.requestStockUpdate(item.getId());
   }
   
   /**
@@ -428,14 +709,6 @@ public class ItemController {
    * @return unique slug
    */
   private String getUniqueSlug(String slug) {
-    String result = slug;
-    int iteration = 0;
-
-    while (itemDAO.findBySlug(result) != null) {
-      iteration++;
-      result = String.format("%s-%d", slug, iteration);
-    }
-
-	  return result;
+    return slugAllocator.getUniqueSlug(slug, itemDAO::listReservedSlugs);
   }
 }
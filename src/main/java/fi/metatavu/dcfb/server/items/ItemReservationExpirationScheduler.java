@@ -6,17 +6,31 @@ import javax.ejb.Startup;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
+/**
+ * Scheduler that deletes expired item reservations. 
+ * 
+ * Reservations are deleted in chunks and a single run deletes at most {@value #MAX_CHUNKS_PER_RUN} chunks. 
+ * Reservations left over are deleted by the following runs
+ */
 @Startup
 @Singleton
 @ApplicationScoped
 public class ItemReservationExpirationScheduler {
   
+  private static final int CHUNK_SIZE = 500;
+  
+  private static final int MAX_CHUNKS_PER_RUN = 20;
+  
   @Inject
   private ItemController itemController;
 
   @Schedule(hour = "*", minute = "*", info = "Every minute")
   public void deleteExpiredReservations() {
-    itemController.deleteExpiredReservations();
+    for (int chunk = 0; chunk < MAX_CHUNKS_PER_RUN; chunk++) {
+      if (itemController.deleteExpiredReservations(CHUNK_SIZE).isEmpty()) {
+        break;
+      }
+    }
   }
   
 }
@@ -1,12 +1,16 @@
 package fi.metatavu.dcfb.server.keycloak;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.keycloak.OAuth2Constants;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.KeycloakBuilder;
@@ -17,16 +21,39 @@ import org.keycloak.representations.idm.UserRepresentation;
 import fi.metatavu.dcfb.server.settings.SystemSettingController;
 
 /**
- * Controller for keycloak administration tasks
+ * Controller for keycloak administration tasks. 
+ * 
+ * Admin client is shared between calls and rebuilt only when admin settings change. The client 
+ * keeps its access token and refreshes it when needed. Fetched users are cached for a short while. 
+ * This service never modifies users, so cached entries are only expired by the TTL configured with 
+ * the user cache TTL setting (0 disables the cache).
  * 
  * @author Heikki Kurhinen
  * @author Antti leppä
  */
 @ApplicationScoped
 public class KeycloakAdminController {
+  
+  private static final int DEFAULT_CONNECTION_POOL_SIZE = 10;
+  private static final long DEFAULT_USER_CACHE_TTL = 30l;
+  private static final int MAX_CACHED_USERS = 1000;
 
   @Inject
   private SystemSettingController systemSettingController;
+  
+  private final Map<UUID, CachedUser> userCache = new ConcurrentHashMap<>();
+  
+  private Keycloak client;
+  
+  private List<String> clientSettings;
+
+  /**
+   * Closes the admin client
+   */
+  @PreDestroy
+  public void deinit() {
+    closeClient();
+  }
 
   /**
    * Checks if user has some attribute present
@@ -50,7 +77,10 @@ public class KeycloakAdminController {
    }
   
   /**
-   * Gets user from keycloak server with user id
+   * Gets user from keycloak server with user id. 
+   * 
+   * Users are cached for a short while, so changes made in Keycloak become visible only after the 
+   * cached entry has expired
    * 
    * @param userId user id
    * @return user representation or null if not found
@@ -60,30 +90,137 @@ public class KeycloakAdminController {
       return null;
     }
     
-    Keycloak client = getClient();
+    Keycloak keycloak = getClient();
+    
+    long now = System.currentTimeMillis();
+    CachedUser cachedUser = userCache.get(userId);
+    if (cachedUser != null && cachedUser.getExpiresAt() > now) {
+      return cachedUser.getUser();
+    }
+    
     String realm = systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_REALM_SETTING);
-    RealmResource realmResource = client.realm(realm);
+    RealmResource realmResource = keycloak.realm(realm);
     UserResource userRessource = realmResource.users().get(userId.toString());
     if (userRessource == null) {
       return null;
     }
     
-    return userRessource.toRepresentation();
+    UserRepresentation result = userRessource.toRepresentation();
+    if (result != null) {
+      cacheUser(userId, result, now);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Adds user into the user cache
+   * 
+   * @param userId user id
+   * @param user user representation
+   * @param now current time in milliseconds
+   */
+  private void cacheUser(UUID userId, UserRepresentation user, long now) {
+    long ttl = systemSettingController.getSettingValueLong(KeycloakConsts.KEYCLOAK_ADMIN_USER_CACHE_TTL_SETTING, DEFAULT_USER_CACHE_TTL);
+    if (ttl <= 0) {
+      return;
+    }
+    
+    if (userCache.size() >= MAX_CACHED_USERS) {
+      userCache.values().removeIf(cached -> cached.getExpiresAt() <= now);
+      if (userCache.size() >= MAX_CACHED_USERS) {
+        userCache.clear();
+      }
+    }
+    
+    userCache.put(userId, new CachedUser(user, now + (ttl * 1000)));
+  }
+
+  /**
+   * Returns shared keycloak admin client. Client is rebuilt when admin settings have changed
+   * 
+   * @return keycloak admin client
+   */
+  private synchronized Keycloak getClient() {
+    List<String> settings = Arrays.asList(
+      systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_SERVER_URL_SETTING),
+      systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_REALM_SETTING),
+      systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_CLIENT_ID_SETTING),
+      systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_CLIENT_SECRET_SETTING),
+      systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_USERNAME_SETTING),
+      systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_PASSWORD_SETTING)
+    );
+    
+    if (client == null || !settings.equals(clientSettings)) {
+      closeClient();
+      client = createClient(settings);
+      clientSettings = settings;
+      userCache.clear();
+    }
+    
+    return client;
   }
 
   /**
    * Constructs keycloak admin client
+   * 
+   * @param settings server url, realm, client id, client secret, username and password
+   * @return keycloak admin client
    */
-  private Keycloak getClient() {
+  private Keycloak createClient(List<String> settings) {
+    int connectionPoolSize = systemSettingController.getSettingValueInteger(KeycloakConsts.KEYCLOAK_ADMIN_CONNECTION_POOL_SIZE_SETTING, DEFAULT_CONNECTION_POOL_SIZE);
+    
     return KeycloakBuilder.builder()
-      .serverUrl(systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_SERVER_URL_SETTING))
-      .realm(systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_REALM_SETTING))
+      .serverUrl(settings.get(0))
+      .realm(settings.get(1))
       .grantType(OAuth2Constants.PASSWORD)
-      .clientId(systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_CLIENT_ID_SETTING))
-      .clientSecret(systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_CLIENT_SECRET_SETTING))
-      .username(systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_USERNAME_SETTING))
-      .password(systemSettingController.getSettingValue(KeycloakConsts.KEYCLOAK_ADMIN_PASSWORD_SETTING))
+      .clientId(settings.get(2))
+      .clientSecret(settings.get(3))
+      .username(settings.get(4))
+      .password(settings.get(5))
+      .resteasyClient(new ResteasyClientBuilder().connectionPoolSize(connectionPoolSize).build())
       .build();
   }
+  
+  /**
+   * Closes the admin client if it is open
+   */
+  private synchronized void closeClient() {
+    if (client != null) {
+      client.close();
+      client = null;
+      clientSettings = null;
+    }
+  }
+  
+  /**
+   * Cached user representation
+   */
+  private static class CachedUser {
+    
+    private final UserRepresentation user;
+    
+    private final long expiresAt;
+    
+    /**
+     * Constructor
+     * 
+     * @param user user representation
+     * @param expiresAt expiration time in milliseconds
+     */
+    public CachedUser(UserRepresentation user, long expiresAt) {
+      this.user = user;
+      this.expiresAt = expiresAt;
+    }
+    
+    public UserRepresentation getUser() {
+      return user;
+    }
+    
+    public long getExpiresAt() {
+      return expiresAt;
+    }
+    
+  }
 
 }
@@ -25,6 +25,10 @@ public class KeycloakConsts {
   public static final String KEYCLOAK_ADMIN_USERNAME_SETTING = "keycloak-admin-username";
   
   public static final String KEYCLOAK_ADMIN_PASSWORD_SETTING = "keycloak-admin-password";
+  
+  public static final String KEYCLOAK_ADMIN_CONNECTION_POOL_SIZE_SETTING = "keycloak-admin-connection-pool-size";
+  
+  public static final String KEYCLOAK_ADMIN_USER_CACHE_TTL_SETTING = "keycloak-admin-user-cache-ttl";
 }
 
 
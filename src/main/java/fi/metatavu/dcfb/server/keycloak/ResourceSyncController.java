@@ -0,0 +1,393 @@
+package fi.metatavu.dcfb.server.keycloak;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+import javax.transaction.Transactional.TxType;
+
+import org.apache.commons.lang3.StringUtils;
+import org.keycloak.authorization.client.AuthzClient;
+import org.keycloak.authorization.client.resource.ProtectedResource;
+import org.keycloak.authorization.client.util.HttpResponseException;
+import org.keycloak.representations.idm.authorization.ResourceRepresentation;
+import org.keycloak.representations.idm.authorization.ScopeRepresentation;
+import org.slf4j.Logger;
+
+import fi.metatavu.dcfb.server.items.ItemController;
+import fi.metatavu.dcfb.server.persistence.dao.ResourceSyncTaskDAO;
+import fi.metatavu.dcfb.server.persistence.model.Item;
+import fi.metatavu.dcfb.server.persistence.model.ItemUser;
+import fi.metatavu.dcfb.server.persistence.model.ResourceSyncOperation;
+import fi.metatavu.dcfb.server.persistence.model.ResourceSyncStatus;
+import fi.metatavu.dcfb.server.persistence.model.ResourceSyncTask;
+
+/**
+ * Controller for synchronizing item protected resources into Keycloak. 
+ * 
+ * Item changes record sync tasks in the same transaction as the change itself and tasks are 
+ * processed in the background. Pending tasks of an item are processed together by reconciling 
+ * the resource with the current state of the item, so processing is idempotent and can be 
+ * safely retried.
+ */
+@ApplicationScoped
+public class ResourceSyncController {
+
+  public static final String SCOPE_ITEM_VIEW = "item:view";
+
+  public static final String SCOPE_ITEM_MANAGE = "item:manage";
+
+  public static final String ITEM_RESOURCE_TYPE = "urn:dcfbapi:resources:item";
+
+  private static final String RESOURCE_VISIBILITY_ATTR = "visibility";
+
+  private static final String RESOURCE_VISIBILITY_USERS_ATTR = "visibleTo";
+
+  private static final String RESOURCE_VISIBILITY_PUBLIC = "public";
+
+  private static final String RESOURCE_VISIBILITY_PRIVATE = "private";
+  
+  private static final int MAX_ATTEMPTS = 10;
+  
+  private static final long RETRY_BASE_DELAY = 5l;
+  
+  private static final long RETRY_MAX_DELAY = 3600l;
+  
+  private static final int MAX_ERROR_LENGTH = 1024;
+  
+  private static final int NOT_FOUND = 404;
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  private ItemController itemController;
+
+  @Inject
+  private ResourceSyncTaskDAO resourceSyncTaskDAO;
+  
+  private AuthzClient authzClient;
+  
+  /**
+   * Requests protected resource to be created for an item
+   * 
+   * @param item item
+   * @param owner resource owner
+   */
+  public void requestCreate(Item item, UUID owner) {
+    resourceSyncTaskDAO.create(UUID.randomUUID(), item.getId(), ResourceSyncOperation.CREATE, null, item.getSlug(), owner);
+  }
+  
+  /**
+   * Requests protected resource of an item to be updated
+   * 
+   * @param item item
+   */
+  public void requestUpdate(Item item) {
+    resourceSyncTaskDAO.create(UUID.randomUUID(), item.getId(), ResourceSyncOperation.UPDATE, item.getResourceId(), null, null);
+  }
+  
+  /**
+   * Requests protected resource of an item to be deleted. Must be called before the item is deleted
+   * 
+   * @param item item
+   */
+  public void requestDelete(Item item) {
+    resourceSyncTaskDAO.create(UUID.randomUUID(), item.getId(), ResourceSyncOperation.DELETE, item.getResourceId(), null, null);
+  }
+  
+  /**
+   * Returns synchronization status of an item's protected resource
+   * 
+   * @param item item
+   * @return synchronization status
+   */
+  public ResourceSyncStatus getSyncStatus(Item item) {
+    List<ResourceSyncTask> tasks = resourceSyncTaskDAO.listByItemId(item.getId());
+    if (tasks.isEmpty()) {
+      return ResourceSyncStatus.SYNCED;
+    }
+    
+    if (tasks.stream().anyMatch(ResourceSyncTask::getFailed)) {
+      return ResourceSyncStatus.FAILED;
+    }
+    
+    return ResourceSyncStatus.PENDING;
+  }
+  
+  /**
+   * Lists ids of items with sync tasks due for processing
+   * 
+   * @param maxResults max results
+   * @return item ids
+   */
+  public List<UUID> listDueItemIds(int maxResults) {
+    return resourceSyncTaskDAO.listDueItemIds(OffsetDateTime.now(), maxResults);
+  }
+  
+  /**
+   * Synchronizes protected resource of an item into Keycloak in a new transaction. 
+   * 
+   * On success all tasks of the item are removed. When protected resource of the item no longer exists 
+   * in Keycloak, tasks are kept and marked as failed. On failure the transaction is rolled back 
+   * and the failure should be recorded with {@link #markSyncFailed(UUID, RuntimeException)}
+   * 
+   * @param itemId item id
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public void syncItem(UUID itemId) {
+    List<ResourceSyncTask> tasks = resourceSyncTaskDAO.listByItemId(itemId);
+    if (tasks.isEmpty()) {
+      return;
+    }
+    
+    Item item = itemController.findItem(itemId);
+    if (item == null) {
+      deleteResources(tasks);
+    } else if (!syncResource(item, tasks)) {
+      return;
+    }
+    
+    tasks.stream().forEach(resourceSyncTaskDAO::delete);
+  }
+  
+  /**
+   * Schedules tasks of an item for a retry with exponential backoff or marks them 
+   * as failed after max attempts. Failure is recorded in a new transaction
+   * 
+   * @param itemId item id
+   * @param e failure
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public void markSyncFailed(UUID itemId, RuntimeException e) {
+    List<ResourceSyncTask> tasks = resourceSyncTaskDAO.listByItemId(itemId);
+    if (!tasks.isEmpty()) {
+      scheduleRetry(itemId, tasks, e);
+    }
+  }
+
+  /**
+   * Creates or updates protected resource of an existing item
+   * 
+   * @param item item
+   * @param tasks pending tasks of the item
+   * @return whether the resource was synchronized. False when the protected resource of the item no longer exists
+   */
+  private boolean syncResource(Item item, List<ResourceSyncTask> tasks) {
+    ProtectedResource protectedResource = getAuthzClient().protection().resource();
+    Map<String, List<String>> attributes = createResourceAttributes(item);
+    
+    if (item.getResourceId() != null) {
+      ResourceRepresentation resource = findResource(protectedResource, item.getResourceId());
+      if (resource == null) {
+        markResourceMissing(item, tasks);
+        return false;
+      }
+      
+      resource.setAttributes(attributes);
+      protectedResource.update(resource);
+      return true;
+    }
+    
+    ResourceSyncTask createTask = tasks.stream()
+      .filter(task -> task.getOperation() == ResourceSyncOperation.CREATE)
+      .findFirst()
+      .orElse(null);
+    
+    if (createTask == null) {
+      return true;
+    }
+    
+    String owner = createTask.getOwner().toString();
+    ResourceRepresentation resource = protectedResource.findByName(createTask.getResourceName(), owner);
+    if (resource == null) {
+      resource = protectedResource.create(createResourceRepresentation(item, createTask.getResourceName(), owner, attributes));
+    } else {
+      resource.setAttributes(attributes);
+      protectedResource.update(resource);
+    }
+    
+    itemController.setResourceId(item, UUID.fromString(resource.getId()), createTask.getOwner());
+    return true;
+  }
+  
+  /**
+   * Marks tasks of an item as failed because the protected resource of the item no longer exists. 
+   * 
+   * Resource is not recreated, because its original owner is not known anymore
+   * 
+   * @param item item
+   * @param tasks pending tasks of the item
+   */
+  private void markResourceMissing(Item item, List<ResourceSyncTask> tasks) {
+    String error = String.format("Protected resource %s of item %s no longer exists", item.getResourceId(), item.getId());
+    logger.error(error);
+    tasks.stream().forEach(task -> resourceSyncTaskDAO.updateAttempt(task, OffsetDateTime.now(), true, error));
+  }
+  
+  /**
+   * Deletes protected resources of a deleted item
+   * 
+   * @param tasks pending tasks of the item
+   */
+  private void deleteResources(List<ResourceSyncTask> tasks) {
+    ProtectedResource protectedResource = getAuthzClient().protection().resource();
+    Set<String> resourceIds = tasks.stream()
+      .map(ResourceSyncTask::getResourceId)
+      .filter(Objects::nonNull)
+      .map(UUID::toString)
+      .collect(Collectors.toCollection(LinkedHashSet::new));
+    
+    for (ResourceSyncTask task : tasks) {
+      if (task.getOperation() == ResourceSyncOperation.CREATE) {
+        ResourceRepresentation resource = protectedResource.findByName(task.getResourceName(), task.getOwner().toString());
+        if (resource != null) {
+          resourceIds.add(resource.getId());
+        }
+      }
+    }
+    
+    for (String resourceId : resourceIds) {
+      try {
+        protectedResource.delete(resourceId);
+      } catch (RuntimeException e) {
+        if (!isNotFound(e)) {
+          throw e;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Finds a protected resource by id
+   * 
+   * @param protectedResource protected resource client
+   * @param resourceId resource id
+   * @return resource or null if not found
+   */
+  private ResourceRepresentation findResource(ProtectedResource protectedResource, UUID resourceId) {
+    try {
+      return protectedResource.findById(resourceId.toString());
+    } catch (RuntimeException e) {
+      if (isNotFound(e)) {
+        return null;
+      }
+      
+      throw e;
+    }
+  }
+  
+  /**
+   * Schedules tasks of an item for a retry or marks them failed after max attempts
+   * 
+   * @param itemId item id
+   * @param tasks tasks
+   * @param e failure
+   */
+  private void scheduleRetry(UUID itemId, List<ResourceSyncTask> tasks, RuntimeException e) {
+    int attempts = tasks.stream().mapToInt(ResourceSyncTask::getAttempts).max().orElse(0) + 1;
+    boolean failed = attempts >= MAX_ATTEMPTS;
+    long delay = Math.min(RETRY_BASE_DELAY << Math.min(attempts, 20), RETRY_MAX_DELAY);
+    OffsetDateTime nextAttemptAt = OffsetDateTime.now().plus(delay, ChronoUnit.SECONDS);
+    String error = StringUtils.abbreviate(e.getMessage(), MAX_ERROR_LENGTH);
+    
+    if (failed) {
+      logger.error("Giving up synchronizing protected resource of item {} after {} attempts", itemId, attempts, e);
+    } else {
+      logger.warn("Failed to synchronize protected resource of item {}, retrying in {} seconds", itemId, delay, e);
+    }
+    
+    tasks.stream().forEach(task -> resourceSyncTaskDAO.updateAttempt(task, nextAttemptAt, failed, error));
+  }
+
+  /**
+   * Creates protected resource representation for an item
+   * 
+   * @param item item
+   * @param name resource name
+   * @param owner resource owner
+   * @param attributes resource attributes
+   * @return resource representation
+   */
+  private ResourceRepresentation createResourceRepresentation(Item item, String name, String owner, Map<String, List<String>> attributes) {
+    Set<ScopeRepresentation> scopes = new HashSet<>();
+    scopes.add(new ScopeRepresentation(SCOPE_ITEM_MANAGE));
+    scopes.add(new ScopeRepresentation(SCOPE_ITEM_VIEW));
+
+    ResourceRepresentation result = new ResourceRepresentation(name, scopes, String.format("/v1/items/%s", item.getId()), ITEM_RESOURCE_TYPE);
+    result.setOwner(owner);
+    result.setOwnerManagedAccess(true);
+    result.setAttributes(attributes);
+    
+    return result;
+  }
+
+  /**
+   * Creates attributes for protected resource from current state of an item
+   * 
+   * @param item item
+   * @return resource attributes
+   */
+  private Map<String, List<String>> createResourceAttributes(Item item) {
+    List<ItemUser> visibleToUsers = itemController.listItemUsers(item);
+    
+    HashMap<String, List<String>> attributes = new HashMap<>();
+    String visibility = item.getVisibilityLimited() ? RESOURCE_VISIBILITY_PRIVATE : RESOURCE_VISIBILITY_PUBLIC;
+    attributes.put(RESOURCE_VISIBILITY_ATTR, Arrays.asList(visibility));
+    attributes.put(RESOURCE_VISIBILITY_USERS_ATTR, visibleToUsers.stream().map(itemUser -> itemUser.getUserId().toString()).collect(Collectors.toList()));
+    return attributes;
+  }
+  
+  /**
+   * Returns whether exception is caused by a not found response
+   * 
+   * @param e exception
+   * @return whether exception is caused by a not found response
+   */
+  private boolean isNotFound(Throwable e) {
+    Throwable cause = e;
+    while (cause != null) {
+      if (cause instanceof HttpResponseException && ((HttpResponseException) cause).getStatusCode() == NOT_FOUND) {
+        return true;
+      }
+      
+      cause = cause.getCause();
+    }
+    
+    return false;
+  }
+  
+  /**
+   * Returns authorization client built from the Keycloak adapter configuration
+   * 
+   * @return authorization client
+   */
+  private synchronized AuthzClient getAuthzClient() {
+    if (authzClient == null) {
+      String configFilePath = System.getProperty("keycloak.config-path");
+      try (InputStream configStream = new FileInputStream(configFilePath)) {
+        authzClient = AuthzClient.create(configStream);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to read Keycloak config file", e);
+      }
+    }
+    
+    return authzClient;
+  }
+  
+}
@@ -0,0 +1,52 @@
+package fi.metatavu.dcfb.server.keycloak;
+
+import java.util.List;
+import java.util.UUID;
+
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Scheduler that processes pending protected resource sync tasks
+ */
+@Startup
+@Singleton
+@ApplicationScoped
+public class ResourceSyncScheduler {
+  
+  private static final int BATCH_SIZE = 50;
+  
+  @Inject
+  private ResourceSyncController resourceSyncController;
+
+  @Schedule(hour = "*", minute = "*", second = "*/5", persistent = false, info = "Every 5 seconds")
+  public void syncResources() {
+    List<UUID> itemIds = resourceSyncController.listDueItemIds(BATCH_SIZE);
+    while (!itemIds.isEmpty()) {
+      itemIds.stream().forEach(this::syncItem);
+      
+      if (itemIds.size() < BATCH_SIZE) {
+        break;
+      }
+      
+      itemIds = resourceSyncController.listDueItemIds(BATCH_SIZE);
+    }
+  }
+  
+  /**
+   * Synchronizes protected resource of an item and records the failure if synchronization fails
+   * 
+   * @param itemId item id
+   */
+  private void syncItem(UUID itemId) {
+    try {
+      resourceSyncController.syncItem(itemId);
+    } catch (RuntimeException e) {
+      resourceSyncController.markSyncFailed(itemId, e);
+    }
+  }
+  
+}
@@ -0,0 +1,31 @@
+package fi.metatavu.dcfb.server.localization;
+
+import java.util.UUID;
+
+/**
+ * Event fired when values of a localized entry have been changed or the entry has been deleted
+ */
+public class LocalizedEntryChangeEvent {
+  
+  private UUID entryId;
+  
+  /**
+   * Constructor
+   * 
+   * @param entryId entry id
+   */
+  public LocalizedEntryChangeEvent(UUID entryId) {
+    super();
+    this.entryId = entryId;
+  }
+
+  /**
+   * Returns entry id
+   * 
+   * @return entry id
+   */
+  public UUID getEntryId() {
+    return entryId;
+  }
+
+}
@@ -0,0 +1,104 @@
+package fi.metatavu.dcfb.server.localization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import fi.metatavu.dcfb.server.persistence.model.LocalizedType;
+import fi.metatavu.dcfb.server.persistence.model.LocalizedValue;
+
+/**
+ * Immutable snapshot of values of a localized entry
+ */
+public class LocalizedEntryValues {
+  
+  private final Map<Locale, Map<LocalizedType, String>> values;
+  
+  /**
+   * Constructor
+   * 
+   * @param localizedValues localized values of the entry
+   */
+  public LocalizedEntryValues(List<LocalizedValue> localizedValues) {
+    Map<Locale, Map<LocalizedType, String>> result = new LinkedHashMap<>();
+    
+    for (LocalizedValue localizedValue : localizedValues) {
+      result.computeIfAbsent(localizedValue.getLocale(), locale -> new LinkedHashMap<>())
+        .put(localizedValue.getType(), localizedValue.getValue());
+    }
+    
+    for (Entry<Locale, Map<LocalizedType, String>> entry : result.entrySet()) {
+      entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+    }
+    
+    this.values = Collections.unmodifiableMap(result);
+  }
+  
+  /**
+   * Returns values by locale and type
+   * 
+   * @return values by locale and type
+   */
+  public Map<Locale, Map<LocalizedType, String>> getValues() {
+    return values;
+  }
+  
+  /**
+   * Returns value for locale and type
+   * 
+   * @param locale locale
+   * @param type type
+   * @return value or null if not found
+   */
+  public String getValue(Locale locale, LocalizedType type) {
+    Map<LocalizedType, String> localeValues = values.get(locale);
+    return localeValues != null ? localeValues.get(type) : null;
+  }
+  
+  /**
+   * Returns values for locale
+   * 
+   * @param locale locale
+   * @return values
+   */
+  public List<String> getValues(Locale locale) {
+    Map<LocalizedType, String> localeValues = values.get(locale);
+    if (localeValues == null) {
+      return Collections.emptyList();
+    }
+    
+    return new ArrayList<>(localeValues.values());
+  }
+  
+  /**
+   * Returns value of given type in any locale
+   * 
+   * @param type type
+   * @return value or null if not found
+   */
+  public String getAnyValue(String type) {
+    for (Map<LocalizedType, String> localeValues : values.values()) {
+      for (Entry<LocalizedType, String> entry : localeValues.entrySet()) {
+        if (entry.getKey().name().equals(type)) {
+          return entry.getValue();
+        }
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Returns whether entry has no values
+   * 
+   * @return whether entry has no values
+   */
+  public boolean isEmpty() {
+    return values.isEmpty();
+  }
+  
+}
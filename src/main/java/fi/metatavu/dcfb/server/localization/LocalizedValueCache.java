@@ -0,0 +1,133 @@
+package fi.metatavu.dcfb.server.localization;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import fi.metatavu.dcfb.server.settings.SystemSettingController;
+
+/**
+ * Bounded in-memory cache for values of localized entries. 
+ * 
+ * Least recently used entries are evicted when the cache grows over its max size.
+ */
+@ApplicationScoped
+public class LocalizedValueCache {
+  
+  private static final String MAX_SIZE_SETTING = "localized-value-cache-size";
+  
+  private static final int DEFAULT_MAX_SIZE = 10000;
+  
+  @Inject
+  private SystemSettingController systemSettingController;
+  
+  private Map<UUID, LocalizedEntryValues> entries;
+  
+  private int maxSize;
+  
+  private final AtomicLong generation = new AtomicLong(0);
+  
+  private final AtomicLong hitCount = new AtomicLong(0);
+  
+  private final AtomicLong missCount = new AtomicLong(0);
+  
+  private final AtomicLong evictionCount = new AtomicLong(0);
+  
+  /**
+   * Post construct method
+   */
+  @PostConstruct
+  public void init() {
+    maxSize = systemSettingController.getSettingValueInteger(MAX_SIZE_SETTING, DEFAULT_MAX_SIZE);
+    entries = new LinkedHashMap<UUID, LocalizedEntryValues>(16, 0.75f, true) {
+      
+      private static final long serialVersionUID = -7011453390311932262L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, LocalizedEntryValues> eldest) {
+        if (size() > maxSize) {
+          evictionCount.incrementAndGet();
+          return true;
+        }
+        
+        return false;
+      }
+      
+    };
+  }
+  
+  /**
+   * Returns cached values of an entry
+   * 
+   * @param entryId entry id
+   * @return cached values or null if entry is not cached
+   */
+  public synchronized LocalizedEntryValues get(UUID entryId) {
+    LocalizedEntryValues result = entries.get(entryId);
+    if (result != null) {
+      hitCount.incrementAndGet();
+    } else {
+      missCount.incrementAndGet();
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Returns current cache generation. Generation changes every time the cache is invalidated. 
+   * 
+   * Values loaded from the database should be cached with the generation read before loading, so that 
+   * values loaded before a concurrent invalidation are not cached.
+   * 
+   * @return current cache generation
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+  
+  /**
+   * Caches values of an entry unless the cache has been invalidated since given generation
+   * 
+   * @param entryId entry id
+   * @param values values
+   * @param loadGeneration cache generation read before values were loaded
+   */
+  public synchronized void put(UUID entryId, LocalizedEntryValues values, long loadGeneration) {
+    if (generation.get() == loadGeneration) {
+      entries.put(entryId, values);
+    }
+  }
+  
+  /**
+   * Removes an entry from the cache
+   * 
+   * @param entryId entry id
+   */
+  public synchronized void invalidate(UUID entryId) {
+    generation.incrementAndGet();
+    entries.remove(entryId);
+  }
+  
+  /**
+   * Removes all entries from the cache
+   */
+  public synchronized void invalidateAll() {
+    generation.incrementAndGet();
+    entries.clear();
+  }
+  
+  /**
+   * Returns cache statistics
+   * 
+   * @return cache statistics
+   */
+  public synchronized LocalizedValueCacheStatistics getStatistics() {
+    return new LocalizedValueCacheStatistics(hitCount.get(), missCount.get(), evictionCount.get(), entries.size(), maxSize);
+  }
+  
+}
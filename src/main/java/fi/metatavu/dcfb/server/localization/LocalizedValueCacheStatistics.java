@@ -0,0 +1,55 @@
+package fi.metatavu.dcfb.server.localization;
+
+/**
+ * Snapshot of localized value cache statistics
+ */
+public class LocalizedValueCacheStatistics {
+
+  private long hitCount;
+
+  private long missCount;
+
+  private long evictionCount;
+
+  private int size;
+
+  private int maxSize;
+
+  /**
+   * Constructor
+   *
+   * @param hitCount number of reads served from the cache
+   * @param missCount number of reads that loaded values from the database
+   * @param evictionCount number of entries evicted to keep the cache within its max size
+   * @param size number of cached entries
+   * @param maxSize max number of cached entries
+   */
+  public LocalizedValueCacheStatistics(long hitCount, long missCount, long evictionCount, int size, int maxSize) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+    this.maxSize = maxSize;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+}
@@ -1,6 +1,9 @@
 package fi.metatavu.dcfb.server.localization;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -9,14 +12,27 @@ import java.util.stream.Collectors;
 import java.util.Map.Entry;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
 import javax.inject.Inject;
 
+import org.apache.commons.lang3.StringUtils;
+
 import fi.metatavu.dcfb.server.persistence.dao.LocalizedEntryDAO;
 import fi.metatavu.dcfb.server.persistence.dao.LocalizedValueDAO;
 import fi.metatavu.dcfb.server.persistence.model.LocalizedEntry;
 import fi.metatavu.dcfb.server.persistence.model.LocalizedType;
 import fi.metatavu.dcfb.server.persistence.model.LocalizedValue;
 
+/**
+ * Controller for localized values. 
+ * 
+ * Values are read through a cache that holds all values of an entry. Cached entries are invalidated 
+ * when entry values are changed through the controller.
+ * 
+ * @author Antti Leppä
+ */
 @ApplicationScoped
 public class LocalizedValueController {
   
@@ -26,6 +42,24 @@ public class LocalizedValueController {
   @Inject
   private LocalizedValueDAO localizedValueDAO;
   
+  @Inject
+  private LocalizedValueCache localizedValueCache;
+  
+  @Inject
+  private Event<LocalizedEntryChangeEvent> localizedEntryChangeEvent;
+  
+  /**
+   * Invalidates cached entry after a transaction that changed it has completed. 
+   * 
+   * Entry is also invalidated immediately on change, but a concurrent read may have cached the 
+   * entry before the change was committed.
+   * 
+   * @param event change event
+   */
+  public void onLocalizedEntryChange(@Observes (during = TransactionPhase.AFTER_COMPLETION) LocalizedEntryChangeEvent event) {
+    localizedValueCache.invalidate(event.getEntryId());
+  }
+  
   /**
    * Creates new localized entry
    * 
@@ -39,22 +73,69 @@ public class LocalizedValueController {
    * Sets localized entry values
    * 
    * @param entry entry
-   * @param locale locale
    * @param values values
    * @return localized entry
    */
   public LocalizedEntry setEntryValues(LocalizedEntry entry, Map<Locale, Map<LocalizedType, String>> values) {
-    localizedValueDAO.listByEntry(entry).stream().forEach(localizedValueDAO::delete);
+    updateEntryValues(entry, values);
+    return entry;
+  }
+  
+  /**
+   * Updates localized entry values. 
+   * 
+   * Only changed values are written: values are compared with existing ones by locale and type and 
+   * changes are applied as inserts, updates and deletes with a single flush. 
+   * 
+   * @param entry entry
+   * @param values values
+   * @return whether any value was changed
+   */
+  public boolean updateEntryValues(LocalizedEntry entry, Map<Locale, Map<LocalizedType, String>> values) {
+    Map<String, LocalizedValue> existingValues = new HashMap<>();
+    List<LocalizedValue> removedValues = new ArrayList<>();
+    
+    for (LocalizedValue existingValue : localizedValueDAO.listByEntry(entry)) {
+      LocalizedValue duplicate = existingValues.put(getValueKey(existingValue.getLocale(), existingValue.getType()), existingValue);
+      if (duplicate != null) {
+        removedValues.add(duplicate);
+      }
+    }
+    
+    boolean changed = !removedValues.isEmpty();
 
     for (Entry<Locale, Map<LocalizedType, String>> localeEntry : values.entrySet()) {
       Locale locale = localeEntry.getKey();
       
       for (Entry<LocalizedType, String> valueEntry : localeEntry.getValue().entrySet()) {
-        localizedValueDAO.create(UUID.randomUUID(), entry, locale, valueEntry.getKey(), valueEntry.getValue());
+        LocalizedType type = valueEntry.getKey();
+        String value = valueEntry.getValue();
+        LocalizedValue existingValue = existingValues.remove(getValueKey(locale, type));
+        
+        if (existingValue == null) {
+          localizedValueDAO.create(UUID.randomUUID(), entry, locale, type, value);
+          changed = true;
+        } else if (!StringUtils.equals(existingValue.getValue(), value)) {
+          localizedValueDAO.updateValue(existingValue, value);
+          changed = true;
+        }
       }
     }
     
-    return entry;
+    removedValues.addAll(existingValues.values());
+    
+    if (!removedValues.isEmpty()) {
+      localizedValueDAO.deleteAll(removedValues);
+      changed = true;
+    } else if (changed) {
+      localizedValueDAO.flush();
+    }
+    
+    if (changed) {
+      entryChanged(entry);
+    }
+    
+    return changed;
   } 
   
   /**
@@ -70,8 +151,7 @@ public class LocalizedValueController {
       return null;
     }
     
-    LocalizedValue localizedValue = localizedValueDAO.findByEntryLocaleAndType(entry, locale, type);
-    return localizedValue != null ? localizedValue.getValue() : null;
+    return getEntryValues(entry).getValue(locale, type);
   }
   
   /**
@@ -86,9 +166,7 @@ public class LocalizedValueController {
       return Collections.emptyList();
     }
     
-    return localizedValueDAO.listByEntryAndLocale(entry, locale).stream()
-      .map(LocalizedValue::getValue)
-      .collect(Collectors.toList());
+    return getEntryValues(entry).getValues(locale);
   }
   
   /**
@@ -103,17 +181,89 @@ public class LocalizedValueController {
       return null;
     }
     
-    List<LocalizedValue> result = localizedValueDAO.listByEntryAndType(entry, type, 0, 1);
-    if (result.isEmpty()) {
-      return null;
+    return getEntryValues(entry).getAnyValue(type);
+  }
+  
+  /**
+   * Returns all values of an entry
+   * 
+   * @param entry entry
+   * @return values of the entry
+   */
+  public LocalizedEntryValues getEntryValues(LocalizedEntry entry) {
+    LocalizedEntryValues result = localizedValueCache.get(entry.getId());
+    if (result == null) {
+      long generation = localizedValueCache.getGeneration();
+      result = new LocalizedEntryValues(localizedValueDAO.listByEntry(entry));
+      localizedValueCache.put(entry.getId(), result, generation);
     }
     
-    return result.get(0).getValue();
+    return result;
+  }
+  
+  /**
+   * Returns all values of multiple entries. Entries missing from the cache are loaded with a single query
+   * 
+   * @param entries entries
+   * @return values by entry id
+   */
+  public Map<UUID, LocalizedEntryValues> getEntryValues(Collection<LocalizedEntry> entries) {
+    Map<UUID, LocalizedEntryValues> result = new HashMap<>(entries.size());
+    List<LocalizedEntry> missing = new ArrayList<>();
+    
+    for (LocalizedEntry entry : entries) {
+      LocalizedEntryValues values = localizedValueCache.get(entry.getId());
+      if (values != null) {
+        result.put(entry.getId(), values);
+      } else {
+        missing.add(entry);
+      }
+    }
+    
+    if (!missing.isEmpty()) {
+      long generation = localizedValueCache.getGeneration();
+      Map<UUID, List<LocalizedValue>> loaded = localizedValueDAO.listByEntries(missing).stream()
+        .collect(Collectors.groupingBy(localizedValue -> localizedValue.getEntry().getId()));
+      
+      for (LocalizedEntry entry : missing) {
+        LocalizedEntryValues values = new LocalizedEntryValues(loaded.getOrDefault(entry.getId(), Collections.emptyList()));
+        localizedValueCache.put(entry.getId(), values, generation);
+        result.put(entry.getId(), values);
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Invalidates all cached localized values
+   */
+  public void invalidateCache() {
+    localizedValueCache.invalidateAll();
+  }
+  
+  /**
+   * Returns localized value cache statistics
+   * 
+   * @return localized value cache statistics
+   */
+  public LocalizedValueCacheStatistics getCacheStatistics() {
+    return localizedValueCache.getStatistics();
   }
   
   public List<LocalizedValue> listLocalizedValues(LocalizedEntry entry) {
     return localizedValueDAO.listByEntry(entry);
   }
+  
+  /**
+   * Lists localized values of multiple entries
+   * 
+   * @param entries entries
+   * @return localized values of given entries
+   */
+  public List<LocalizedValue> listLocalizedValues(Collection<LocalizedEntry> entries) {
+    return localizedValueDAO.listByEntries(entries);
+  }
 
   /**
    * Deletes localized entry
@@ -123,6 +273,28 @@ public class LocalizedValueController {
   public void deleteEntry(LocalizedEntry entry) {
     localizedValueDAO.listByEntry(entry).stream().forEach(localizedValueDAO::delete);
     localizedEntryDAO.delete(entry);
+    entryChanged(entry);
+  }
+  
+  /**
+   * Returns key for identifying a value within an entry
+   * 
+   * @param locale locale
+   * @param type type
+   * @return key
+   */
+  private String getValueKey(Locale locale, LocalizedType type) {
+    return String.format("%s/%s", locale, type);
+  }
+  
+  /**
+   * Invalidates cached entry and notifies about the change
+   * 
+   * @param entry changed entry
+   */
+  private void entryChanged(LocalizedEntry entry) {
+    localizedValueCache.invalidate(entry.getId());
+    localizedEntryChangeEvent.fire(new LocalizedEntryChangeEvent(entry.getId()));
   }
   
 }
@@ -2,9 +2,7 @@ package fi.metatavu.dcfb.server.locations;
 
 import java.math.BigDecimal;
 import java.util.List;
-import java.util.Objects;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -15,7 +13,9 @@ import fi.metatavu.dcfb.server.rest.model.LocationListSort;
 import fi.metatavu.dcfb.server.persistence.model.LocalizedEntry;
 import fi.metatavu.dcfb.server.search.handlers.LocationIndexHandler;
 import fi.metatavu.dcfb.server.search.searchers.LocationSearcher;
+import fi.metatavu.dcfb.server.search.searchers.SearchCursor;
 import fi.metatavu.dcfb.server.search.searchers.SearchResult;
+import fi.metatavu.dcfb.server.slugs.SlugAllocator;
 
 @ApplicationScoped
 public class LocationController {
@@ -29,6 +29,9 @@ public class LocationController {
   @Inject
   private LocationDAO locationDAO;
 
+  @Inject
+  private SlugAllocator slugAllocator;
+
   /**
     * Creates new location
     *
@@ -51,6 +54,17 @@ public class LocationController {
     return locationDAO.create(UUID.randomUUID(), getUniqueSlug(slug), additionalInformations, country, latitude, longitude, name, postalCode, postOffice, streetAddress, lastModifier);
   }
 
+  /**
+   * Lists locations ordered by id
+   * 
+   * @param afterId id after which locations are listed or null to start from the beginning
+   * @param maxResults max results
+   * @return locations ordered by id
+   */
+  public List<Location> listLocationsAfter(UUID afterId, int maxResults) {
+    return locationDAO.listAfterId(afterId, maxResults);
+  }
+
   /**
    * Finds an location
    * 
@@ -103,19 +117,17 @@ public class LocationController {
    * 
    * @param slug filter by slug. Ignored if null
    * @param search Search by free-text. Ignored if null
-   * @param firstResult result offset
+   * @param firstResult result offset. Ignored if cursor is given
+   * @param cursor cursor to the page when paginating with search_after or null to paginate by offset
    * @param maxResults maximum number of results returned
    * @return search result
    */
-  public SearchResult<Location> searchLocations(String slug, String search, Long firstResult, Long maxResults, List<LocationListSort> sorts) {
-    SearchResult<UUID> searchResult = locationSearcher.searchLocations(slug, search, firstResult, maxResults, sorts);
+  public SearchResult<Location> searchLocations(String slug, String search, Long firstResult, SearchCursor cursor, Long maxResults, List<LocationListSort> sorts) {
+    SearchResult<UUID> searchResult = locationSearcher.searchLocations(slug, search, firstResult, cursor, maxResults, sorts);
 
-    List<Location> locations = searchResult.getResult().stream()
-      .map(locationDAO::findById)
-      .filter(Objects::nonNull)
-      .collect(Collectors.toList());
+    List<Location> locations = locationDAO.findByIds(searchResult.getResult());
 
-    return new SearchResult<>(locations, searchResult.getTotalHits());
+    return new SearchResult<>(locations, searchResult.getTotalHits(), searchResult.getNextCursor());
   }
  
   /**
@@ -125,15 +137,7 @@ public class LocationController {
    * @return unique slug
    */
   private String getUniqueSlug(String slug) {
-    String result = slug;
-    int iteration = 0;
-
-    while (locationDAO.findBySlug(result) != null) {
-      iteration++;
-      result = String.format("%s-%d", slug, iteration);
-    }
-
-	  return result;
+    return slugAllocator.getUniqueSlug(slug, locationDAO::listReservedSlugs);
   }
 
 }
\ No newline at end of file
@@ -2,8 +2,13 @@ package fi.metatavu.dcfb.server.persistence.dao;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
@@ -11,9 +16,16 @@ import javax.persistence.EntityNotFoundException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.apache.commons.lang3.StringUtils;
 
 import org.slf4j.Logger;
 
+import org.hibernate.Session;
 import org.hibernate.jpa.criteria.compile.CriteriaQueryTypeQueryAdapter;
 
 /**
@@ -26,6 +38,8 @@ import org.hibernate.jpa.criteria.compile.CriteriaQueryTypeQueryAdapter;
 @SuppressWarnings ("squid:S3306")
 public abstract class AbstractDAO<T> {
 
+  private static final char LIKE_ESCAPE = '\\';
+
   @Inject
   private Logger logger;
   
@@ -65,6 +79,32 @@ public abstract class AbstractDAO<T> {
     return (T) getEntityManager().find(getGenericTypeClass(), id);
   }
 
+  /**
+   * Returns entities by ids with a single query. 
+   * 
+   * Entities are returned in the same order as the ids. Ids without an entity are omitted
+   * 
+   * @param ids entity ids
+   * @return entities in the order of ids
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> findByIds(Collection<UUID> ids) {
+    if (ids.isEmpty()) {
+      return Collections.emptyList();
+    }
+    
+    List<T> entities = (List<T>) getEntityManager()
+      .unwrap(Session.class)
+      .byMultipleIds(getGenericTypeClass())
+      .enableOrderedReturn(true)
+      .enableSessionCheck(true)
+      .multiLoad(new ArrayList<>(ids));
+    
+    return entities.stream()
+      .filter(Objects::nonNull)
+      .collect(Collectors.toList());
+  }
+
   /**
    * Lists all entities from database
    * 
@@ -123,6 +163,30 @@ public abstract class AbstractDAO<T> {
     return query.getResultList();
   }
 
+  /**
+   * Lists entities ordered by id. Used for keyset pagination through all entities
+   * 
+   * @param afterId id after which entities are listed or null to start from the beginning
+   * @param maxResults max results
+   * @return entities ordered by id
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> listAfterId(UUID afterId, int maxResults) {
+    Class<?> genericTypeClass = getGenericTypeClass();
+    Query query;
+    
+    if (afterId == null) {
+      query = getEntityManager().createQuery("select o from " + genericTypeClass.getName() + " o order by o.id");
+    } else {
+      query = getEntityManager().createQuery("select o from " + genericTypeClass.getName() + " o where o.id > :afterId order by o.id");
+      query.setParameter("afterId", afterId);
+    }
+    
+    query.setMaxResults(maxResults);
+    
+    return query.getResultList();
+  }
+
   /**
    * Returns count of all entities
    * 
@@ -144,6 +208,21 @@ public abstract class AbstractDAO<T> {
     flush();
   }
 
+  /**
+   * Deletes multiple entities with a single flush
+   * 
+   * @param entities entities
+   */
+  public void deleteAll(Collection<T> entities) {
+    if (entities.isEmpty()) {
+      return;
+    }
+    
+    EntityManager entityManager = getEntityManager();
+    entities.forEach(entityManager::remove);
+    flush();
+  }
+
   /**
    * Flushes persistence context state
    */
@@ -166,6 +245,62 @@ public abstract class AbstractDAO<T> {
     }    
   }
 
+  /**
+   * Lists values of a slug attribute that equal given slug or consist of the slug followed by a numeric suffix 
+   * (e.g. slug, slug-1, slug-2). Values are listed with a single prefix query
+   * 
+   * @param slugAttribute slug attribute
+   * @param slug slug
+   * @return matching slugs
+   */
+  protected List<String> listSlugsWithSuffixes(SingularAttribute<T, String> slugAttribute, String slug) {
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<String> criteria = criteriaBuilder.createQuery(String.class);
+    Root<T> root = criteria.from(slugAttribute.getDeclaringType().getJavaType());
+    criteria.select(root.get(slugAttribute));
+    criteria.where(
+      criteriaBuilder.or(
+        criteriaBuilder.equal(root.get(slugAttribute), slug),
+        criteriaBuilder.like(root.get(slugAttribute), String.format("%s-%%", escapeLikePattern(slug)), LIKE_ESCAPE)
+      )
+    );
+    
+    String suffixPrefix = String.format("%s-", slug);
+    
+    return entityManager.createQuery(criteria).getResultList().stream()
+      .filter(value -> value.equals(slug) || StringUtils.isNumeric(StringUtils.removeStart(value, suffixPrefix)))
+      .collect(Collectors.toList());
+  }
+  
+  /**
+   * Acquires a lock that is held until current transaction ends. 
+   * 
+   * Used for serializing concurrent transactions that would otherwise race on the same data
+   * 
+   * @param key lock key
+   */
+  protected void lockForTransaction(String key) {
+    getEntityManager()
+      .createNativeQuery("SELECT COUNT(*) FROM (SELECT pg_advisory_xact_lock(hashtext(:key))) AS advisory_lock")
+      .setParameter("key", key)
+      .getSingleResult();
+  }
+  
+  /**
+   * Escapes wildcard characters of a LIKE pattern
+   * 
+   * @param value value
+   * @return escaped value
+   */
+  private String escapeLikePattern(String value) {
+    return value
+      .replace(String.valueOf(LIKE_ESCAPE), String.format("%c%c", LIKE_ESCAPE, LIKE_ESCAPE))
+      .replace("%", String.format("%c%%", LIKE_ESCAPE))
+      .replace("_", String.format("%c_", LIKE_ESCAPE));
+  }
+
   /**
    * Persists an entity
    * 
@@ -1,9 +1,12 @@
 package fi.metatavu.dcfb.server.persistence.dao;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
@@ -39,6 +42,20 @@ public class CategoryDAO extends AbstractDAO<Category> {
     return persist(category);
   }
 
+  /**
+   * Lists slugs that are equal to given slug or consist of the slug followed by a numeric suffix. 
+   * 
+   * Concurrent calls with the same slug are serialized until the calling transaction ends, 
+   * so a slug allocated from the result can be safely persisted within the transaction.
+   * 
+   * @param slug slug
+   * @return reserved slugs
+   */
+  public List<String> listReservedSlugs(String slug) {
+    lockForTransaction(String.format("category-slug/%s", slug));
+    return listSlugsWithSuffixes(Category_.slug, slug);
+  }
+
   /**
    * Finds category by slug
    * 
@@ -73,6 +90,24 @@ public class CategoryDAO extends AbstractDAO<Category> {
     return entityManager.createQuery(criteria).getResultList();
   }
 
+  /**
+   * Lists parent ids of all categories
+   * 
+   * @return parent ids by category id. Value is null for root categories
+   */
+  public Map<UUID, UUID> listParentIds() {
+    List<Tuple> rows = getEntityManager()
+      .createQuery("SELECT o.id, p.id FROM Category o LEFT JOIN o.parent p", Tuple.class)
+      .getResultList();
+    
+    Map<UUID, UUID> result = new HashMap<>(rows.size());
+    for (Tuple row : rows) {
+      result.put(row.get(0, UUID.class), row.get(1, UUID.class));
+    }
+    
+    return result;
+  }
+
   /**
   * Updates parent
   *
@@ -1,15 +1,24 @@
 package fi.metatavu.dcfb.server.persistence.dao;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Currency;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
 import fi.metatavu.dcfb.server.persistence.model.Category;
+import fi.metatavu.dcfb.server.persistence.model.Category_;
 import fi.metatavu.dcfb.server.persistence.model.Item;
 import fi.metatavu.dcfb.server.persistence.model.Item_;
 import fi.metatavu.dcfb.server.persistence.model.LocalizedEntry;
@@ -74,6 +83,7 @@ public class ItemDAO extends AbstractDAO<Item> {
     item.setVisibilityLimited(visibilityLimited);
     item.setResourceId(resourceId);
     item.setSoldAmount(soldAmount);
+    item.setReservedAmount(0l);
     item.setSellerId(sellerId);
     item.setAllowPurchaseContactSeller(allowPurchaseContactSeller);
     item.setAllowPurchaseCreditCard(allowPurchaseCreditCard);
@@ -92,6 +102,55 @@ public class ItemDAO extends AbstractDAO<Item> {
     return persist(item);
   }
 
+  /**
+   * Lists slugs that are equal to given slug or consist of the slug followed by a numeric suffix. 
+   * 
+   * Concurrent calls with the same slug are serialized until the calling transaction ends, 
+   * so a slug allocated from the result can be safely persisted within the transaction.
+   * 
+   * @param slug slug
+   * @return reserved slugs
+   */
+  public List<String> listReservedSlugs(String slug) {
+    lockForTransaction(String.format("item-slug/%s", slug));
+    return listSlugsWithSuffixes(Item_.slug, slug);
+  }
+
+  /**
+   * Lists items that belong to given categories ordered by id. Used for keyset pagination through the items
+   * 
+   * @param categoryIds category ids
+   * @param afterId id after which items are listed or null to start from the beginning
+   * @param maxResults max results
+   * @return items ordered by id
+   */
+  public List<Item> listByCategoryIdsAfterId(Collection<UUID> categoryIds, UUID afterId, int maxResults) {
+    if (categoryIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+    
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Item> criteria = criteriaBuilder.createQuery(Item.class);
+    Root<Item> root = criteria.from(Item.class);
+    
+    Predicate categoryPredicate = root.get(Item_.category).get(Category_.id).in(categoryIds);
+    
+    criteria.select(root);
+    if (afterId == null) {
+      criteria.where(categoryPredicate);
+    } else {
+      criteria.where(categoryPredicate, criteriaBuilder.greaterThan(root.get(Item_.id), afterId));
+    }
+    
+    criteria.orderBy(criteriaBuilder.asc(root.get(Item_.id)));
+    
+    return entityManager.createQuery(criteria)
+      .setMaxResults(maxResults)
+      .getResultList();
+  }
+
   /**
    * Finds location by slug
    * 
@@ -459,4 +518,93 @@ public class ItemDAO extends AbstractDAO<Item> {
     item.setLastModifier(lastModifier);
     return persist(item);
   }
+
+  /**
+   * Reserves given amount of items if there are enough items left. 
+   * 
+   * Item row is locked and its stock re-read before the check, so concurrent reservations can not oversell 
+   * an item. Item is updated as a managed entity, so only its own second-level cache entry is changed. 
+   * Reservations do not change the modification time of the item.
+   * 
+   * @param item item
+   * @param amount amount to be reserved
+   * @return whether the amount was reserved
+   */
+  public boolean reserveAmount(Item item, long amount) {
+    lockItem(item);
+    
+    if (item.getAmount() - item.getSoldAmount() - item.getReservedAmount() < amount) {
+      return false;
+    }
+    
+    item.setReservedAmount(item.getReservedAmount() + amount);
+    item.preserveModifiedAt();
+    
+    return true;
+  }
+
+  /**
+   * Releases reserved amount of items. 
+   * 
+   * Item row is locked before the update and the modification time of the item is not changed
+   * 
+   * @param itemId item id
+   * @param amount amount to be released
+   */
+  public void releaseReservedAmount(UUID itemId, long amount) {
+    Item item = findById(itemId);
+    if (item == null) {
+      return;
+    }
+    
+    lockItem(item);
+    item.setReservedAmount(item.getReservedAmount() - amount);
+    item.preserveModifiedAt();
+  }
+
+  /**
+   * Converts reserved amount of items into sold items. 
+   * 
+   * Item row is locked before the update
+   * 
+   * @param item item
+   * @param amount amount sold
+   * @return updated item
+   */
+  public Item sellReservedAmount(Item item, long amount) {
+    lockItem(item);
+    item.setSoldAmount(item.getSoldAmount() + amount);
+    item.setReservedAmount(item.getReservedAmount() - amount);
+    return item;
+  }
+
+  /**
+   * Returns amounts of items left in the stock
+   * 
+   * @param itemIds item ids
+   * @return amounts of items left by item id
+   */
+  public Map<UUID, Long> listItemsLeft(Collection<UUID> itemIds) {
+    if (itemIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    
+    List<Tuple> rows = getEntityManager()
+      .createQuery("SELECT o.id, o.amount - o.soldAmount - o.reservedAmount FROM Item o WHERE o.id IN :ids", Tuple.class)
+      .setParameter("ids", itemIds)
+      .getResultList();
+    
+    return rows.stream()
+      .collect(Collectors.toMap(row -> row.get(0, UUID.class), row -> row.get(1, Long.class)));
+  }
+
+  /**
+   * Locks row of an item for the rest of the transaction and refreshes the item from the database
+   * 
+   * @param item managed item
+   */
+  private void lockItem(Item item) {
+    getEntityManager().refresh(item, LockModeType.PESSIMISTIC_WRITE);
+  }
+
 }
@@ -1,5 +1,7 @@
 package fi.metatavu.dcfb.server.persistence.dao;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -78,4 +80,26 @@ public class ItemImageDAO extends AbstractDAO<ItemImage> {
     return persist(itemImage);
   }
 
+  /**
+   * Lists item images by items
+   * 
+   * @param items items
+   * @return list of item images
+   */
+  public List<ItemImage> listByItems(Collection<Item> items) {
+    if (items.isEmpty()) {
+      return Collections.emptyList();
+    }
+    
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<ItemImage> criteria = criteriaBuilder.createQuery(ItemImage.class);
+    Root<ItemImage> root = criteria.from(ItemImage.class);
+    criteria.select(root);
+    criteria.where(root.get(ItemImage_.item).in(items));
+    
+    return entityManager.createQuery(criteria).getResultList();
+  }
+
 }
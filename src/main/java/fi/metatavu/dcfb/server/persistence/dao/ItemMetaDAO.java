@@ -137,5 +137,27 @@ public class ItemMetaDAO extends AbstractDAO<ItemMeta> {
      itemMeta.setValue(value);
      return persist(itemMeta);
    }
-   
+
+  /**
+   * Lists item metas by items
+   * 
+   * @param items items
+   * @return list of item metas
+   */
+  public List<ItemMeta> listByItems(Collection<Item> items) {
+    if (items.isEmpty()) {
+      return Collections.emptyList();
+    }
+    
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<ItemMeta> criteria = criteriaBuilder.createQuery(ItemMeta.class);
+    Root<ItemMeta> root = criteria.from(ItemMeta.class);
+    criteria.select(root);
+    criteria.where(root.get(ItemMeta_.item).in(items));
+    
+    return entityManager.createQuery(criteria).getResultList();
+  }
+
 }
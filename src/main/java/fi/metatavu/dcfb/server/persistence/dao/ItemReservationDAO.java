@@ -2,13 +2,20 @@ package fi.metatavu.dcfb.server.persistence.dao;
 
 import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 
+import org.hibernate.SQLQuery;
+import org.hibernate.type.LongType;
+import org.hibernate.type.PostgresUUIDType;
+
 import fi.metatavu.dcfb.server.persistence.model.Item;
 import fi.metatavu.dcfb.server.persistence.model.ItemReservation;
 import fi.metatavu.dcfb.server.persistence.model.ItemReservation_;
@@ -57,20 +64,30 @@ public class ItemReservationDAO extends AbstractDAO<ItemReservation> {
   }  
   
   /**
-   * Lists expired reservations
+   * Deletes a chunk of expired reservations with a single statement. 
+   * 
+   * Reservations locked by concurrent transactions are skipped and left for the next run
    * 
-   * @return expired reservations
+   * @param expiredBefore reservations expired before this time are deleted
+   * @param maxResults max number of reservations to delete
+   * @return amounts of deleted reservations grouped by item id
    */
-  public List<ItemReservation> listExpired() {
-    EntityManager entityManager = getEntityManager();
-
-    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-    CriteriaQuery<ItemReservation> criteria = criteriaBuilder.createQuery(ItemReservation.class);
-    Root<ItemReservation> root = criteria.from(ItemReservation.class);
-    criteria.select(root);
-    criteria.where(criteriaBuilder.lessThan(root.get(ItemReservation_.expiresAt), OffsetDateTime.now()));
+  @SuppressWarnings("unchecked")
+  public Map<UUID, Long> deleteExpired(OffsetDateTime expiredBefore, int maxResults) {
+    Query query = getEntityManager()
+      .createNativeQuery("DELETE FROM itemreservation WHERE id IN (SELECT id FROM itemreservation WHERE expiresat < :expiredBefore ORDER BY expiresat LIMIT :maxResults FOR UPDATE SKIP LOCKED) RETURNING item_id, amount")
+      .setParameter("expiredBefore", expiredBefore)
+      .setParameter("maxResults", maxResults);
     
-    return entityManager.createQuery(criteria).getResultList();
-  }    
+    query.unwrap(SQLQuery.class)
+      .addScalar("item_id", PostgresUUIDType.INSTANCE)
+      .addScalar("amount", LongType.INSTANCE)
+      .addSynchronizedEntityClass(ItemReservation.class);
+    
+    List<Object[]> rows = query.getResultList();
+    
+    return rows.stream()
+      .collect(Collectors.groupingBy(row -> (UUID) row[0], Collectors.summingLong(row -> (Long) row[1])));
+  }
 
 }
@@ -1,5 +1,7 @@
 package fi.metatavu.dcfb.server.persistence.dao;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -51,6 +53,28 @@ public class ItemUserDAO extends AbstractDAO<ItemUser> {
     criteria.where(criteriaBuilder.equal(root.get(ItemUser_.item), item));
     
     return entityManager.createQuery(criteria).getResultList();
-  }  
+  }
+
+  /**
+   * Lists item users by items
+   * 
+   * @param items items
+   * @return list of item users
+   */
+  public List<ItemUser> listByItems(Collection<Item> items) {
+    if (items.isEmpty()) {
+      return Collections.emptyList();
+    }
+    
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<ItemUser> criteria = criteriaBuilder.createQuery(ItemUser.class);
+    Root<ItemUser> root = criteria.from(ItemUser.class);
+    criteria.select(root);
+    criteria.where(root.get(ItemUser_.item).in(items));
+    
+    return entityManager.createQuery(criteria).getResultList();
+  }
 
 }
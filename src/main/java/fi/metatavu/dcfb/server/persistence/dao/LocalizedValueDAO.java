@@ -1,5 +1,7 @@
 package fi.metatavu.dcfb.server.persistence.dao;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
@@ -57,6 +59,28 @@ public class LocalizedValueDAO extends AbstractDAO<LocalizedValue> {
     criteria.select(root);
     criteria.where(criteriaBuilder.equal(root.get(LocalizedValue_.entry), entry));
     
+    return entityManager.createQuery(criteria).getResultList();
+  }
+
+  /**
+   * Lists localized values by entries
+   * 
+   * @param entries entries
+   * @return localized values
+   */
+  public List<LocalizedValue> listByEntries(Collection<LocalizedEntry> entries) {
+    if (entries.isEmpty()) {
+      return Collections.emptyList();
+    }
+    
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<LocalizedValue> criteria = criteriaBuilder.createQuery(LocalizedValue.class);
+    Root<LocalizedValue> root = criteria.from(LocalizedValue.class);
+    criteria.select(root);
+    criteria.where(root.get(LocalizedValue_.entry).in(entries));
+    
     return entityManager.createQuery(criteria).getResultList();
   }  
 
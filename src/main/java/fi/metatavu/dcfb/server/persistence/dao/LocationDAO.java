@@ -1,6 +1,7 @@
 package fi.metatavu.dcfb.server.persistence.dao;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.UUID;
 
 import javax.persistence.EntityManager;
@@ -52,6 +53,20 @@ public class LocationDAO extends AbstractDAO<Location> {
     return persist(location);
   }
 
+  /**
+   * Lists slugs that are equal to given slug or consist of the slug followed by a numeric suffix. 
+   * 
+   * Concurrent calls with the same slug are serialized until the calling transaction ends, 
+   * so a slug allocated from the result can be safely persisted within the transaction.
+   * 
+   * @param slug slug
+   * @return reserved slugs
+   */
+  public List<String> listReservedSlugs(String slug) {
+    lockForTransaction(String.format("location-slug/%s", slug));
+    return listSlugsWithSuffixes(Location_.slug, slug);
+  }
+
   /**
    * Finds location by slug
    * 
@@ -0,0 +1,141 @@
+package fi.metatavu.dcfb.server.persistence.dao;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.LockOptions;
+
+import fi.metatavu.dcfb.server.email.mailgun.MailFormat;
+import fi.metatavu.dcfb.server.persistence.model.QueuedMail;
+import fi.metatavu.dcfb.server.persistence.model.QueuedMailStatus;
+import fi.metatavu.dcfb.server.persistence.model.QueuedMail_;
+
+/**
+ * DAO class for QueuedMail entity
+ */
+@ApplicationScoped
+public class QueuedMailDAO extends AbstractDAO<QueuedMail> {
+
+  /**
+   * Creates new QueuedMail entity
+   * 
+   * @param id id
+   * @param toEmail recipient's email address or null for batch mails
+   * @param recipientVariables JSON serialized recipient variables of batch mail or null for single recipient mails
+   * @param subject subject
+   * @param content content
+   * @param format format
+   * @return created QueuedMail entity
+   */
+  public QueuedMail create(UUID id, String toEmail, String recipientVariables, String subject, String content, MailFormat format) {
+    QueuedMail queuedMail = new QueuedMail();
+    queuedMail.setId(id);
+    queuedMail.setToEmail(toEmail);
+    queuedMail.setRecipientVariables(recipientVariables);
+    queuedMail.setSubject(subject);
+    queuedMail.setContent(content);
+    queuedMail.setFormat(format);
+    queuedMail.setStatus(QueuedMailStatus.QUEUED);
+    queuedMail.setAttempts(0);
+    queuedMail.setNextAttemptAt(OffsetDateTime.now());
+    return persist(queuedMail);
+  }
+
+  /**
+   * Lists queued mails due for delivery and locks them. Mails locked by other transactions are skipped
+   * 
+   * @param now current time
+   * @param maxResults max results
+   * @return mails due for delivery
+   */
+  public List<QueuedMail> listDueForUpdate(OffsetDateTime now, int maxResults) {
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<QueuedMail> criteria = criteriaBuilder.createQuery(QueuedMail.class);
+    Root<QueuedMail> root = criteria.from(QueuedMail.class);
+    criteria.select(root);
+    criteria.where(
+      criteriaBuilder.equal(root.get(QueuedMail_.status), QueuedMailStatus.QUEUED),
+      criteriaBuilder.lessThanOrEqualTo(root.get(QueuedMail_.nextAttemptAt), now)
+    );
+    criteria.orderBy(criteriaBuilder.asc(root.get(QueuedMail_.nextAttemptAt)));
+    
+    return entityManager.createQuery(criteria)
+      .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+      .setHint("javax.persistence.lock.timeout", LockOptions.SKIP_LOCKED)
+      .setMaxResults(maxResults)
+      .getResultList();
+  }
+
+  /**
+   * Counts mails by status
+   * 
+   * @param status status
+   * @return number of mails with given status
+   */
+  public long countByStatus(QueuedMailStatus status) {
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Long> criteria = criteriaBuilder.createQuery(Long.class);
+    Root<QueuedMail> root = criteria.from(QueuedMail.class);
+    criteria.select(criteriaBuilder.count(root));
+    criteria.where(criteriaBuilder.equal(root.get(QueuedMail_.status), status));
+    
+    return entityManager.createQuery(criteria).getSingleResult();
+  }
+
+  /**
+   * Returns mails that have been sending since given time back into the queue
+   * 
+   * @param before time before which the mail has been claimed for sending
+   * @return number of returned mails
+   */
+  public int requeueSendingBefore(OffsetDateTime before) {
+    return getEntityManager()
+      .createQuery("UPDATE QueuedMail o SET o.status = :queued WHERE o.status = :sending AND o.modifiedAt < :before")
+      .setParameter("queued", QueuedMailStatus.QUEUED)
+      .setParameter("sending", QueuedMailStatus.SENDING)
+      .setParameter("before", before)
+      .executeUpdate();
+  }
+
+  /**
+   * Updates mail status
+   * 
+   * @param queuedMail mail
+   * @param status status
+   * @return updated mail
+   */
+  public QueuedMail updateStatus(QueuedMail queuedMail, QueuedMailStatus status) {
+    queuedMail.setStatus(status);
+    return persist(queuedMail);
+  }
+
+  /**
+   * Updates mail after a failed delivery attempt
+   * 
+   * @param queuedMail mail
+   * @param status new status
+   * @param nextAttemptAt time of next attempt
+   * @param lastError error message
+   * @return updated mail
+   */
+  public QueuedMail updateAttempt(QueuedMail queuedMail, QueuedMailStatus status, OffsetDateTime nextAttemptAt, String lastError) {
+    queuedMail.setAttempts(queuedMail.getAttempts() + 1);
+    queuedMail.setStatus(status);
+    queuedMail.setNextAttemptAt(nextAttemptAt);
+    queuedMail.setLastError(lastError);
+    return persist(queuedMail);
+  }
+
+}
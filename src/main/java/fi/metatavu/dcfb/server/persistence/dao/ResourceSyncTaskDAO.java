@@ -0,0 +1,109 @@
+package fi.metatavu.dcfb.server.persistence.dao;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import fi.metatavu.dcfb.server.persistence.model.ResourceSyncOperation;
+import fi.metatavu.dcfb.server.persistence.model.ResourceSyncTask;
+import fi.metatavu.dcfb.server.persistence.model.ResourceSyncTask_;
+
+/**
+ * DAO class for ResourceSyncTask entity
+ */
+@ApplicationScoped
+public class ResourceSyncTaskDAO extends AbstractDAO<ResourceSyncTask> {
+
+  /**
+   * Creates new ResourceSyncTask entity
+   * 
+   * @param id id
+   * @param itemId item id
+   * @param operation operation
+   * @param resourceId resource id or null if not known
+   * @param resourceName resource name or null if not needed for the operation
+   * @param owner resource owner or null if not needed for the operation
+   * @return created ResourceSyncTask entity
+   */
+  @SuppressWarnings ("squid:S00107")
+  public ResourceSyncTask create(UUID id, UUID itemId, ResourceSyncOperation operation, UUID resourceId, String resourceName, UUID owner) {
+    ResourceSyncTask resourceSyncTask = new ResourceSyncTask();
+    resourceSyncTask.setId(id);
+    resourceSyncTask.setItemId(itemId);
+    resourceSyncTask.setOperation(operation);
+    resourceSyncTask.setResourceId(resourceId);
+    resourceSyncTask.setResourceName(resourceName);
+    resourceSyncTask.setOwner(owner);
+    resourceSyncTask.setAttempts(0);
+    resourceSyncTask.setNextAttemptAt(OffsetDateTime.now());
+    resourceSyncTask.setFailed(Boolean.FALSE);
+    return persist(resourceSyncTask);
+  }
+
+  /**
+   * Lists ids of items that have tasks due for processing
+   * 
+   * @param now current time
+   * @param maxResults max results
+   * @return item ids
+   */
+  public List<UUID> listDueItemIds(OffsetDateTime now, int maxResults) {
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<UUID> criteria = criteriaBuilder.createQuery(UUID.class);
+    Root<ResourceSyncTask> root = criteria.from(ResourceSyncTask.class);
+    criteria.select(root.get(ResourceSyncTask_.itemId)).distinct(true);
+    criteria.where(
+      criteriaBuilder.isFalse(root.get(ResourceSyncTask_.failed)),
+      criteriaBuilder.lessThanOrEqualTo(root.get(ResourceSyncTask_.nextAttemptAt), now)
+    );
+    
+    return entityManager.createQuery(criteria)
+      .setMaxResults(maxResults)
+      .getResultList();
+  }
+
+  /**
+   * Lists tasks of an item ordered by creation time
+   * 
+   * @param itemId item id
+   * @return tasks
+   */
+  public List<ResourceSyncTask> listByItemId(UUID itemId) {
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<ResourceSyncTask> criteria = criteriaBuilder.createQuery(ResourceSyncTask.class);
+    Root<ResourceSyncTask> root = criteria.from(ResourceSyncTask.class);
+    criteria.select(root);
+    criteria.where(criteriaBuilder.equal(root.get(ResourceSyncTask_.itemId), itemId));
+    criteria.orderBy(criteriaBuilder.asc(root.get(ResourceSyncTask_.createdAt)));
+    
+    return entityManager.createQuery(criteria).getResultList();
+  }
+
+  /**
+   * Updates task after a failed attempt
+   * 
+   * @param resourceSyncTask task
+   * @param nextAttemptAt time of next attempt
+   * @param failed whether task has permanently failed
+   * @param lastError error message
+   * @return updated task
+   */
+  public ResourceSyncTask updateAttempt(ResourceSyncTask resourceSyncTask, OffsetDateTime nextAttemptAt, boolean failed, String lastError) {
+    resourceSyncTask.setAttempts(resourceSyncTask.getAttempts() + 1);
+    resourceSyncTask.setNextAttemptAt(nextAttemptAt);
+    resourceSyncTask.setFailed(failed);
+    resourceSyncTask.setLastError(lastError);
+    return persist(resourceSyncTask);
+  }
+
+}
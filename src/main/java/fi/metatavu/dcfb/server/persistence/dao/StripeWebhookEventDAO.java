@@ -0,0 +1,144 @@
+package fi.metatavu.dcfb.server.persistence.dao;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+
+import org.hibernate.SQLQuery;
+import org.hibernate.type.PostgresUUIDType;
+
+import fi.metatavu.dcfb.server.persistence.model.StripeWebhookEvent;
+import fi.metatavu.dcfb.server.persistence.model.StripeWebhookEventStatus;
+import fi.metatavu.dcfb.server.persistence.model.StripeWebhookEvent_;
+
+/**
+ * DAO class for StripeWebhookEvent entity
+ */
+@ApplicationScoped
+public class StripeWebhookEventDAO extends AbstractDAO<StripeWebhookEvent> {
+
+  /**
+   * Creates new StripeWebhookEvent entity unless an event with same Stripe event id already exists. 
+   * 
+   * Uniqueness is enforced by the database, so concurrent deliveries of the same event are recorded only once
+   * 
+   * @param id id
+   * @param eventId Stripe event id
+   * @param eventType Stripe event type
+   * @param itemId id of the item event concerns or null if event does not concern an item
+   * @param payload event payload
+   * @return whether the event was created
+   */
+  public boolean createIfAbsent(UUID id, String eventId, String eventType, UUID itemId, String payload) {
+    OffsetDateTime now = OffsetDateTime.now();
+    
+    Query query = getEntityManager()
+      .createNativeQuery("INSERT INTO stripewebhookevent (id, eventid, eventtype, itemid, payload, status, attempts, nextattemptat, createdat, modifiedat) VALUES (:id, :eventId, :eventType, :itemId, :payload, :status, 0, :now, :now, :now) ON CONFLICT (eventid) DO NOTHING")
+      .setParameter("eventId", eventId)
+      .setParameter("eventType", eventType)
+      .setParameter("payload", payload)
+      .setParameter("status", StripeWebhookEventStatus.QUEUED.name())
+      .setParameter("now", now);
+    
+    SQLQuery sqlQuery = query.unwrap(SQLQuery.class);
+    sqlQuery.setParameter("id", id, PostgresUUIDType.INSTANCE);
+    sqlQuery.setParameter("itemId", itemId, PostgresUUIDType.INSTANCE);
+    sqlQuery.addSynchronizedEntityClass(StripeWebhookEvent.class);
+    
+    return query.executeUpdate() > 0;
+  }
+
+  /**
+   * Finds an event by id and locks it for update
+   * 
+   * @param id id
+   * @return event or null if not found
+   */
+  public StripeWebhookEvent findByIdForUpdate(UUID id) {
+    return getEntityManager().find(StripeWebhookEvent.class, id, LockModeType.PESSIMISTIC_WRITE);
+  }
+
+  /**
+   * Lists queued events that are due for processing in the order they were received. 
+   * 
+   * Events that have an older queued event of the same item are not listed, so that events of 
+   * an item are applied in order while events of other items are not held back by them.
+   * 
+   * @param now current time
+   * @param maxResults max results
+   * @return events
+   */
+  public List<StripeWebhookEvent> listDue(OffsetDateTime now, int maxResults) {
+    EntityManager entityManager = getEntityManager();
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<StripeWebhookEvent> criteria = criteriaBuilder.createQuery(StripeWebhookEvent.class);
+    Root<StripeWebhookEvent> root = criteria.from(StripeWebhookEvent.class);
+    
+    Subquery<StripeWebhookEvent> olderQueued = criteria.subquery(StripeWebhookEvent.class);
+    Root<StripeWebhookEvent> older = olderQueued.from(StripeWebhookEvent.class);
+    olderQueued.select(older);
+    olderQueued.where(
+      criteriaBuilder.equal(older.get(StripeWebhookEvent_.itemId), root.get(StripeWebhookEvent_.itemId)),
+      criteriaBuilder.equal(older.get(StripeWebhookEvent_.status), StripeWebhookEventStatus.QUEUED),
+      criteriaBuilder.or(
+        criteriaBuilder.lessThan(older.get(StripeWebhookEvent_.createdAt), root.get(StripeWebhookEvent_.createdAt)),
+        criteriaBuilder.and(
+          criteriaBuilder.equal(older.get(StripeWebhookEvent_.createdAt), root.get(StripeWebhookEvent_.createdAt)),
+          criteriaBuilder.lessThan(older.get(StripeWebhookEvent_.id), root.get(StripeWebhookEvent_.id))
+        )
+      )
+    );
+    
+    criteria.select(root);
+    criteria.where(
+      criteriaBuilder.equal(root.get(StripeWebhookEvent_.status), StripeWebhookEventStatus.QUEUED),
+      criteriaBuilder.lessThanOrEqualTo(root.get(StripeWebhookEvent_.nextAttemptAt), now),
+      criteriaBuilder.not(criteriaBuilder.exists(olderQueued))
+    );
+    criteria.orderBy(criteriaBuilder.asc(root.get(StripeWebhookEvent_.createdAt)), criteriaBuilder.asc(root.get(StripeWebhookEvent_.id)));
+    
+    return entityManager.createQuery(criteria)
+      .setMaxResults(maxResults)
+      .getResultList();
+  }
+
+  /**
+   * Updates event status
+   * 
+   * @param stripeWebhookEvent event
+   * @param status status
+   * @return updated event
+   */
+  public StripeWebhookEvent updateStatus(StripeWebhookEvent stripeWebhookEvent, StripeWebhookEventStatus status) {
+    stripeWebhookEvent.setStatus(status);
+    return persist(stripeWebhookEvent);
+  }
+
+  /**
+   * Updates event after a failed processing attempt
+   * 
+   * @param stripeWebhookEvent event
+   * @param status new status
+   * @param nextAttemptAt time of next attempt
+   * @param lastError error message
+   * @return updated event
+   */
+  public StripeWebhookEvent updateAttempt(StripeWebhookEvent stripeWebhookEvent, StripeWebhookEventStatus status, OffsetDateTime nextAttemptAt, String lastError) {
+    stripeWebhookEvent.setAttempts(stripeWebhookEvent.getAttempts() + 1);
+    stripeWebhookEvent.setStatus(status);
+    stripeWebhookEvent.setNextAttemptAt(nextAttemptAt);
+    stripeWebhookEvent.setLastError(lastError);
+    return persist(stripeWebhookEvent);
+  }
+
+}
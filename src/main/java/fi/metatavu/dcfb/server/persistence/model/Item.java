@@ -12,11 +12,14 @@ import javax.persistence.Id;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
 import javax.persistence.PrePersist;
+import javax.persistence.PostUpdate;
 import javax.persistence.PreUpdate;
+import javax.persistence.Transient;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.annotations.Type;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -31,6 +34,7 @@ import fi.metatavu.dcfb.server.search.handlers.ItemIndexHandler;
 @EntityListeners(ItemIndexHandler.class)
 @Cacheable(true)
 @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
+@DynamicUpdate
 public class Item {
 
   @Id
@@ -86,6 +90,15 @@ public class Item {
   @Column (nullable = false)
   private Long soldAmount;
   
+  /**
+   * Amount of items held by open reservations. Column is changed only while the item row is locked
+   */
+  @Column (nullable = false)
+  private Long reservedAmount;
+  
+  @Transient
+  private boolean modifiedAtPreserved;
+  
   @Column(nullable = false)
   @NotNull
   @NotEmpty
@@ -302,6 +315,14 @@ public class Item {
     this.soldAmount = soldAmount;
   }
   
+  public Long getReservedAmount() {
+    return reservedAmount;
+  }
+  
+  public void setReservedAmount(Long reservedAmount) {
+    this.reservedAmount = reservedAmount;
+  }
+  
   public Boolean getAllowPurchaseContactSeller() {
     return allowPurchaseContactSeller;
   }
@@ -428,9 +449,25 @@ public class Item {
     setModifiedAt(OffsetDateTime.now());
   }
   
+  /**
+   * Keeps the modification time of the item unchanged on the next update. 
+   * 
+   * Used when only the stock bookkeeping of the item changes
+   */
+  public void preserveModifiedAt() {
+    this.modifiedAtPreserved = true;
+  }
+  
   @PreUpdate
   public void onUpdate() {
-    setModifiedAt(OffsetDateTime.now());
+    if (!modifiedAtPreserved) {
+      setModifiedAt(OffsetDateTime.now());
+    }
+  }
+  
+  @PostUpdate
+  public void afterUpdate() {
+    modifiedAtPreserved = false;
   }
   
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package fi.metatavu.dcfb.server.persistence.model;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.annotations.Type;
+
+import fi.metatavu.dcfb.server.email.mailgun.MailFormat;
+
+/**
+ * JPA entity for storing outgoing mails waiting for delivery. 
+ * 
+ * Mail is either sent to a single recipient or as a batch to recipients listed in recipient variables 
+ */
+@Entity
+public class QueuedMail {
+
+  @Id
+  @Type(type="org.hibernate.type.PostgresUUIDType")
+  private UUID id;
+
+  @Column (nullable = true)
+  private String toEmail;
+  
+  @Column (nullable = true)
+  @Lob
+  @Type(type = "org.hibernate.type.TextType")
+  private String recipientVariables;
+
+  @NotNull
+  @Column (nullable = false)
+  private String subject;
+  
+  @NotNull
+  @Column (nullable = false)
+  @Lob
+  @Type(type = "org.hibernate.type.TextType")
+  private String content;
+  
+  @NotNull
+  @Column (nullable = false)
+  @Enumerated (EnumType.STRING)
+  private MailFormat format;
+  
+  @NotNull
+  @Column (nullable = false)
+  @Enumerated (EnumType.STRING)
+  private QueuedMailStatus status;
+  
+  @NotNull
+  @Column (nullable = false)
+  private Integer attempts;
+  
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime nextAttemptAt;
+  
+  @Column (nullable = true, length = 1024)
+  private String lastError;
+  
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime createdAt;
+
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime modifiedAt;
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+  
+  public String getToEmail() {
+    return toEmail;
+  }
+  
+  public void setToEmail(String toEmail) {
+    this.toEmail = toEmail;
+  }
+  
+  public String getRecipientVariables() {
+    return recipientVariables;
+  }
+  
+  public void setRecipientVariables(String recipientVariables) {
+    this.recipientVariables = recipientVariables;
+  }
+  
+  public String getSubject() {
+    return subject;
+  }
+  
+  public void setSubject(String subject) {
+    this.subject = subject;
+  }
+  
+  public String getContent() {
+    return content;
+  }
+  
+  public void setContent(String content) {
+    this.content = content;
+  }
+  
+  public MailFormat getFormat() {
+    return format;
+  }
+  
+  public void setFormat(MailFormat format) {
+    this.format = format;
+  }
+  
+  public QueuedMailStatus getStatus() {
+    return status;
+  }
+  
+  public void setStatus(QueuedMailStatus status) {
+    this.status = status;
+  }
+  
+  public Integer getAttempts() {
+    return attempts;
+  }
+  
+  public void setAttempts(Integer attempts) {
+    this.attempts = attempts;
+  }
+  
+  public OffsetDateTime getNextAttemptAt() {
+    return nextAttemptAt;
+  }
+  
+  public void setNextAttemptAt(OffsetDateTime nextAttemptAt) {
+    this.nextAttemptAt = nextAttemptAt;
+  }
+  
+  public String getLastError() {
+    return lastError;
+  }
+  
+  public void setLastError(String lastError) {
+    this.lastError = lastError;
+  }
+  
+  public OffsetDateTime getCreatedAt() {
+    return createdAt;
+  }
+  
+  public void setCreatedAt(OffsetDateTime createdAt) {
+    this.createdAt = createdAt;
+  }
+  
+  public OffsetDateTime getModifiedAt() {
+    return modifiedAt;
+  }
+  
+  public void setModifiedAt(OffsetDateTime modifiedAt) {
+    this.modifiedAt = modifiedAt;
+  }
+
+  @PrePersist
+  public void onCreate() {
+    setCreatedAt(OffsetDateTime.now());
+    setModifiedAt(OffsetDateTime.now());
+  }
+  
+  @PreUpdate
+  public void onUpdate() {
+    setModifiedAt(OffsetDateTime.now());
+  }
+  
+}
@@ -0,0 +1,14 @@
+package fi.metatavu.dcfb.server.persistence.model;
+
+/**
+ * Enumeration describing status of a queued mail
+ */
+public enum QueuedMailStatus {
+
+  QUEUED,
+  
+  SENDING,
+  
+  DEAD
+  
+}
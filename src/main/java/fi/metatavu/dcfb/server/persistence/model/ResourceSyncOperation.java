@@ -0,0 +1,14 @@
+package fi.metatavu.dcfb.server.persistence.model;
+
+/**
+ * Enumeration describing an operation on a Keycloak protected resource
+ */
+public enum ResourceSyncOperation {
+
+  CREATE,
+  
+  UPDATE,
+  
+  DELETE
+  
+}
@@ -0,0 +1,14 @@
+package fi.metatavu.dcfb.server.persistence.model;
+
+/**
+ * Enumeration describing synchronization status of an item's Keycloak protected resource
+ */
+public enum ResourceSyncStatus {
+
+  SYNCED,
+  
+  PENDING,
+  
+  FAILED
+  
+}
@@ -0,0 +1,181 @@
+package fi.metatavu.dcfb.server.persistence.model;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.annotations.Type;
+
+/**
+ * JPA entity for storing pending Keycloak protected resource changes. 
+ * 
+ * Tasks are created in the same transaction as the item change and processed 
+ * in the background.
+ */
+@Entity
+public class ResourceSyncTask {
+
+  @Id
+  @Type(type="org.hibernate.type.PostgresUUIDType")
+  private UUID id;
+
+  @NotNull
+  @Column (nullable = false)
+  @Type(type="org.hibernate.type.PostgresUUIDType")
+  private UUID itemId;
+  
+  @NotNull
+  @Column (nullable = false)
+  @Enumerated (EnumType.STRING)
+  private ResourceSyncOperation operation;
+
+  @Column (nullable = true)
+  @Type(type="org.hibernate.type.PostgresUUIDType")
+  private UUID resourceId;
+  
+  @Column (nullable = true)
+  private String resourceName;
+
+  @Column (nullable = true)
+  @Type(type="org.hibernate.type.PostgresUUIDType")
+  private UUID owner;
+  
+  @NotNull
+  @Column (nullable = false)
+  private Integer attempts;
+  
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime nextAttemptAt;
+  
+  @NotNull
+  @Column (nullable = false)
+  private Boolean failed;
+  
+  @Column (nullable = true, length = 1024)
+  private String lastError;
+  
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime createdAt;
+
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime modifiedAt;
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+  
+  public UUID getItemId() {
+    return itemId;
+  }
+  
+  public void setItemId(UUID itemId) {
+    this.itemId = itemId;
+  }
+  
+  public ResourceSyncOperation getOperation() {
+    return operation;
+  }
+  
+  public void setOperation(ResourceSyncOperation operation) {
+    this.operation = operation;
+  }
+  
+  public UUID getResourceId() {
+    return resourceId;
+  }
+  
+  public void setResourceId(UUID resourceId) {
+    this.resourceId = resourceId;
+  }
+  
+  public String getResourceName() {
+    return resourceName;
+  }
+  
+  public void setResourceName(String resourceName) {
+    this.resourceName = resourceName;
+  }
+  
+  public UUID getOwner() {
+    return owner;
+  }
+  
+  public void setOwner(UUID owner) {
+    this.owner = owner;
+  }
+  
+  public Integer getAttempts() {
+    return attempts;
+  }
+  
+  public void setAttempts(Integer attempts) {
+    this.attempts = attempts;
+  }
+  
+  public OffsetDateTime getNextAttemptAt() {
+    return nextAttemptAt;
+  }
+  
+  public void setNextAttemptAt(OffsetDateTime nextAttemptAt) {
+    this.nextAttemptAt = nextAttemptAt;
+  }
+  
+  public Boolean getFailed() {
+    return failed;
+  }
+  
+  public void setFailed(Boolean failed) {
+    this.failed = failed;
+  }
+  
+  public String getLastError() {
+    return lastError;
+  }
+  
+  public void setLastError(String lastError) {
+    this.lastError = lastError;
+  }
+  
+  public OffsetDateTime getCreatedAt() {
+    return createdAt;
+  }
+  
+  public void setCreatedAt(OffsetDateTime createdAt) {
+    this.createdAt = createdAt;
+  }
+  
+  public OffsetDateTime getModifiedAt() {
+    return modifiedAt;
+  }
+  
+  public void setModifiedAt(OffsetDateTime modifiedAt) {
+    this.modifiedAt = modifiedAt;
+  }
+
+  @PrePersist
+  public void onCreate() {
+    setCreatedAt(OffsetDateTime.now());
+    setModifiedAt(OffsetDateTime.now());
+  }
+  
+  @PreUpdate
+  public void onUpdate() {
+    setModifiedAt(OffsetDateTime.now());
+  }
+  
+}
@@ -0,0 +1,178 @@
+package fi.metatavu.dcfb.server.persistence.model;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.annotations.Type;
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+ * JPA entity for storing received Stripe webhook events. 
+ * 
+ * Events are recorded when the webhook is received and processed in the background. 
+ * Stripe event id is unique, so redelivered events are recorded only once.
+ */
+@Entity
+@Table (uniqueConstraints = { @UniqueConstraint (columnNames = { "eventId" }) })
+public class StripeWebhookEvent {
+
+  @Id
+  @Type(type="org.hibernate.type.PostgresUUIDType")
+  private UUID id;
+
+  @NotNull
+  @NotEmpty
+  @Column (nullable = false)
+  private String eventId;
+
+  @NotNull
+  @NotEmpty
+  @Column (nullable = false)
+  private String eventType;
+
+  @Column (nullable = true)
+  @Type(type="org.hibernate.type.PostgresUUIDType")
+  private UUID itemId;
+  
+  @NotNull
+  @Column (nullable = false)
+  @Lob
+  @Type(type = "org.hibernate.type.TextType")
+  private String payload;
+  
+  @NotNull
+  @Column (nullable = false)
+  @Enumerated (EnumType.STRING)
+  private StripeWebhookEventStatus status;
+  
+  @NotNull
+  @Column (nullable = false)
+  private Integer attempts;
+  
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime nextAttemptAt;
+  
+  @Column (nullable = true, length = 1024)
+  private String lastError;
+  
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime createdAt;
+
+  @NotNull
+  @Column (nullable = false)
+  private OffsetDateTime modifiedAt;
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+  
+  public String getEventId() {
+    return eventId;
+  }
+  
+  public void setEventId(String eventId) {
+    this.eventId = eventId;
+  }
+  
+  public String getEventType() {
+    return eventType;
+  }
+  
+  public void setEventType(String eventType) {
+    this.eventType = eventType;
+  }
+  
+  public UUID getItemId() {
+    return itemId;
+  }
+  
+  public void setItemId(UUID itemId) {
+    this.itemId = itemId;
+  }
+  
+  public String getPayload() {
+    return payload;
+  }
+  
+  public void setPayload(String payload) {
+    this.payload = payload;
+  }
+  
+  public StripeWebhookEventStatus getStatus() {
+    return status;
+  }
+  
+  public void setStatus(StripeWebhookEventStatus status) {
+    this.status = status;
+  }
+  
+  public Integer getAttempts() {
+    return attempts;
+  }
+  
+  public void setAttempts(Integer attempts) {
+    this.attempts = attempts;
+  }
+  
+  public OffsetDateTime getNextAttemptAt() {
+    return nextAttemptAt;
+  }
+  
+  public void setNextAttemptAt(OffsetDateTime nextAttemptAt) {
+    this.nextAttemptAt = nextAttemptAt;
+  }
+  
+  public String getLastError() {
+    return lastError;
+  }
+  
+  public void setLastError(String lastError) {
+    this.lastError = lastError;
+  }
+  
+  public OffsetDateTime getCreatedAt() {
+    return createdAt;
+  }
+  
+  public void setCreatedAt(OffsetDateTime createdAt) {
+    this.createdAt = createdAt;
+  }
+  
+  public OffsetDateTime getModifiedAt() {
+    return modifiedAt;
+  }
+  
+  public void setModifiedAt(OffsetDateTime modifiedAt) {
+    this.modifiedAt = modifiedAt;
+  }
+
+  @PrePersist
+  public void onCreate() {
+    setCreatedAt(OffsetDateTime.now());
+    setModifiedAt(OffsetDateTime.now());
+  }
+  
+  @PreUpdate
+  public void onUpdate() {
+    setModifiedAt(OffsetDateTime.now());
+  }
+  
+}
@@ -0,0 +1,14 @@
+package fi.metatavu.dcfb.server.persistence.model;
+
+/**
+ * Enumeration describing processing status of a received Stripe webhook event
+ */
+public enum StripeWebhookEventStatus {
+
+  QUEUED,
+  
+  PROCESSED,
+  
+  FAILED
+  
+}
@@ -1,9 +1,11 @@
 package fi.metatavu.dcfb.server.rest;
 
+import java.io.IOException;
 import java.security.Principal;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -19,6 +21,8 @@ import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Response;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.slugify.Slugify;
 
 import org.apache.commons.lang3.EnumUtils;
@@ -42,6 +46,8 @@ import fi.metatavu.dcfb.server.rest.model.InternalServerError;
 import fi.metatavu.dcfb.server.rest.model.LocalizedValue;
 import fi.metatavu.dcfb.server.rest.model.NotFound;
 import fi.metatavu.dcfb.server.rest.model.NotImplemented;
+import fi.metatavu.dcfb.server.search.searchers.SearchCursor;
+import fi.metatavu.dcfb.server.search.searchers.SearchResult;
 
 /**
  * Abstract base class for all API services
@@ -55,6 +61,12 @@ public abstract class AbstractApi {
 
   private static final String REALM_ADMIN = "admin";
   private static final String REALM_USER = "user";
+  private static final String PAGE_TOKEN_PARAMETER = "pageToken";
+  private static final String NEXT_PAGE_TOKEN_HEADER = "Next-Page-Token";
+  private static final String INVALID_PAGE_TOKEN = "Invalid page token";
+  private static final String PAGE_TOKEN_SORT_KEY = "sort";
+  private static final String PAGE_TOKEN_SORT_VALUES = "values";
+  private static final ObjectMapper PAGE_TOKEN_MAPPER = new ObjectMapper();
 
   @Inject
   private Logger logger;
@@ -83,6 +95,17 @@ public abstract class AbstractApi {
     return localizedValueController.setEntryValues(entry, getValues(localizedValues));
   }
   
+  /**
+   * Updates localized entry with given values
+   * 
+   * @param entry entry to be updated
+   * @param localizedValues localized values
+   * @return whether any value was changed
+   */
+  protected boolean updateLocalizedEntryValues(LocalizedEntry entry, List<LocalizedValue> localizedValues) {
+    return localizedValueController.updateEntryValues(entry, getValues(localizedValues));
+  }
+  
   /**
    * Validates localized list
    * 
@@ -196,6 +219,48 @@ public abstract class AbstractApi {
     return ResteasyProviderFactory.getContextData(HttpServletRequest.class);
   }
   
+  /**
+   * Returns search cursor from the page token query parameter. 
+   * 
+   * Presence of the parameter switches list into cursor based pagination. Empty token points to the first page 
+   * and consecutive pages are pointed by tokens returned in the Next-Page-Token header. Tokens carry a key 
+   * of the sorts they were created with, so a token can only be used with the same sorts.
+   * 
+   * @return search cursor or null if page token parameter is not present
+   * @throws IllegalArgumentException when page token is invalid
+   */
+  protected SearchCursor getPageTokenCursor() {
+    String pageToken = getHttpServletRequest().getParameter(PAGE_TOKEN_PARAMETER);
+    if (pageToken == null) {
+      return null;
+    }
+    
+    if (StringUtils.isBlank(pageToken)) {
+      return SearchCursor.first();
+    }
+    
+    try {
+      Map<?, ?> token = PAGE_TOKEN_MAPPER.readValue(Base64.getUrlDecoder().decode(pageToken), Map.class);
+      Object sortKey = token != null ? token.get(PAGE_TOKEN_SORT_KEY) : null;
+      Object sortValues = token != null ? token.get(PAGE_TOKEN_SORT_VALUES) : null;
+      
+      if (!(sortKey instanceof String) || !(sortValues instanceof List) || ((List<?>) sortValues).isEmpty()) {
+        throw new IllegalArgumentException(INVALID_PAGE_TOKEN);
+      }
+      
+      boolean scalarValues = ((List<?>) sortValues).stream()
+        .allMatch(value -> value instanceof String || value instanceof Number);
+      
+      if (!scalarValues) {
+        throw new IllegalArgumentException(INVALID_PAGE_TOKEN);
+      }
+      
+      return new SearchCursor((String) sortKey, ((List<?>) sortValues).toArray());
+    } catch (IOException e) {
+      throw new IllegalArgumentException(INVALID_PAGE_TOKEN, e);
+    }
+  }
+  
   /**
    * Returns logged user id
    * 
@@ -239,6 +304,30 @@ public abstract class AbstractApi {
       .build();
   }
   
+  /**
+   * Constructs ok response for a search result. 
+   * 
+   * When search result has a cursor to the next page, the cursor is returned as an opaque token in Next-Page-Token header
+   * 
+   * @param entity payload
+   * @param searchResult search result
+   * @return response
+   * @throws JsonProcessingException when page token serialization fails
+   */
+  protected Response createOk(Object entity, SearchResult<?> searchResult) throws JsonProcessingException {
+    Response.ResponseBuilder responseBuilder = Response
+      .status(Response.Status.OK)
+      .entity(entity)
+      .header("Total-Results", searchResult.getTotalHits());
+    
+    SearchCursor nextCursor = searchResult.getNextCursor();
+    if (nextCursor != null) {
+      responseBuilder.header(NEXT_PAGE_TOKEN_HEADER, createPageToken(nextCursor));
+    }
+    
+    return responseBuilder.build();
+  }
+  
   /**
    * Constructs no content response
    * 
@@ -480,6 +569,20 @@ public abstract class AbstractApi {
     return null;
   }
 
+  /**
+   * Creates an opaque page token from a search cursor
+   * 
+   * @param cursor search cursor
+   * @return page token
+   * @throws JsonProcessingException when serialization fails
+   */
+  private String createPageToken(SearchCursor cursor) throws JsonProcessingException {
+    Map<String, Object> token = new HashMap<>();
+    token.put(PAGE_TOKEN_SORT_KEY, cursor.getSortKey());
+    token.put(PAGE_TOKEN_SORT_VALUES, cursor.getSortValues());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(PAGE_TOKEN_MAPPER.writeValueAsBytes(token));
+  }
+
   /**
    * Returns keycloak security context from request or null if not available
    */
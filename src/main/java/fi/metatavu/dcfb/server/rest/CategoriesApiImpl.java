@@ -18,6 +18,8 @@ import fi.metatavu.dcfb.server.persistence.model.LocalizedEntry;
 import fi.metatavu.dcfb.server.rest.model.CategoryListSort;
 import fi.metatavu.dcfb.server.rest.model.Meta;
 import fi.metatavu.dcfb.server.rest.translate.CategoryTranslator;
+import fi.metatavu.dcfb.server.search.searchers.InvalidSearchCursorException;
+import fi.metatavu.dcfb.server.search.searchers.SearchCursor;
 import fi.metatavu.dcfb.server.search.searchers.SearchResult;
 
 /**
@@ -94,9 +96,21 @@ public class CategoriesApiImpl extends AbstractApi implements CategoriesApi {
       return createBadRequest(e.getMessage());
     }
 
-    SearchResult<Category> searchResult = categoryController.searchCategories(parent, slug, search, firstResult, maxResults, sorts);
+    SearchCursor cursor = null;
+    try {
+      cursor = getPageTokenCursor();
+    } catch (IllegalArgumentException e) {
+      return createBadRequest(e.getMessage());
+    }
+
+    SearchResult<Category> searchResult = null;
+    try {
+      searchResult = categoryController.searchCategories(parent, slug, search, firstResult, cursor, maxResults, sorts);
+    } catch (InvalidSearchCursorException e) {
+      return createBadRequest(e.getMessage());
+    }
    
-    return createOk(categoryTranslator.translateCategories(searchResult.getResult()), searchResult.getTotalHits());
+    return createOk(categoryTranslator.translateCategories(searchResult.getResult()), searchResult);
   }
 
   @Override
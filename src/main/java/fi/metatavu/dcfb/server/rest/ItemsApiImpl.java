@@ -4,7 +4,6 @@ import java.time.OffsetDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Currency;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -18,15 +17,13 @@ import javax.inject.Inject;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.lang3.StringUtils;
-import org.keycloak.authorization.client.AuthzClient;
-import org.keycloak.representations.idm.authorization.ResourceRepresentation;
-import org.keycloak.representations.idm.authorization.ScopeRepresentation;
 import org.slf4j.Logger;
 
 import fi.metatavu.dcfb.server.categories.CategoryController;
 import fi.metatavu.dcfb.server.items.ItemController;
 import fi.metatavu.dcfb.server.keycloak.KeycloakAdminController;
 import fi.metatavu.dcfb.server.keycloak.KeycloakConsts;
+import fi.metatavu.dcfb.server.keycloak.ResourceSyncController;
 import fi.metatavu.dcfb.server.locations.LocationController;
 import fi.metatavu.dcfb.server.persistence.model.Category;
 import fi.metatavu.dcfb.server.persistence.model.ItemUser;
@@ -40,6 +37,8 @@ import fi.metatavu.dcfb.server.rest.model.ItemReservation;
 import fi.metatavu.dcfb.server.rest.model.Meta;
 import fi.metatavu.dcfb.server.rest.model.Price;
 import fi.metatavu.dcfb.server.rest.translate.ItemTranslator;
+import fi.metatavu.dcfb.server.search.searchers.InvalidSearchCursorException;
+import fi.metatavu.dcfb.server.search.searchers.SearchCursor;
 import fi.metatavu.dcfb.server.search.searchers.SearchResult;
 
 /**
@@ -51,19 +50,10 @@ import fi.metatavu.dcfb.server.search.searchers.SearchResult;
 @Stateful
 public class ItemsApiImpl extends AbstractApi implements ItemsApi {
 
-  public static final String SCOPE_ITEM_VIEW = "item:view";
+  private static final String RESOURCE_SYNC_STATUS_HEADER = "Resource-Sync-Status";
 
-  public static final String SCOPE_ITEM_MANAGE = "item:manage";
-
-  public static final String ITEM_RESOURCE_TYPE = "urn:dcfbapi:resources:item";
-
-  private static final String RESOURCE_VISIBILITY_ATTR = "visibility";
-
-  private static final String RESOURCE_VISIBILITY_USERS_ATTR = "visibleTo";
-
-  private static final String RESOURCE_VISIBILITY_PUBLIC = "public";
-
-  private static final String RESOURCE_VISIBILITY_PRIVATE = "private";
+  @Inject
+  private ResourceSyncController resourceSyncController;
   
   @Inject
   private KeycloakAdminController keycloakAdminController;
@@ -204,11 +194,8 @@ public class ItemsApiImpl extends AbstractApi implements ItemsApi {
         modifier);
 
     createImages(payload, item);
-    List<ItemUser> itemUsers = createItemUsers(payload, item);
-    ResourceRepresentation resource = createProtectedResource(item, itemUsers);
-    if (resource != null) {
-      itemController.setResourceId(item, UUID.fromString(resource.getId()), modifier);
-    }
+    createItemUsers(payload, item);
+    resourceSyncController.requestCreate(item, modifier);
     setItemMetas(item, payload.getMeta());
     return createOk(itemTranslator.translateItem(item));
   }
@@ -238,12 +225,15 @@ public class ItemsApiImpl extends AbstractApi implements ItemsApi {
       return createNotFound(NOT_FOUND_MESSAGE);
     }
     
-    long itemsLeft = item.getAmount() - (item.getSoldAmount() + itemController.countReservedAmountByItem(item));
-    if (itemsLeft < payload.getAmount()) {
-      return createBadRequest("Not enough items left in the stock");
+    if (payload.getAmount() == null || payload.getAmount() <= 0) {
+      return createBadRequest("Reservation amount must be positive");
     }
     
     fi.metatavu.dcfb.server.persistence.model.ItemReservation itemReservation = itemController.createResevation(item, payload.getAmount());
+    if (itemReservation == null) {
+      return createBadRequest("Not enough items left in the stock");
+    }
+    
     return createOk(itemTranslator.translateItemReservation(itemReservation));
   }
   
@@ -282,8 +272,8 @@ public class ItemsApiImpl extends AbstractApi implements ItemsApi {
       return createNotFound(NOT_FOUND_MESSAGE);
     }
     
+    resourceSyncController.requestDelete(item);
     itemController.deleteItem(item);
-    deleteProtectedResource(item);
 
     return createNoContent();
   }
@@ -296,7 +286,11 @@ public class ItemsApiImpl extends AbstractApi implements ItemsApi {
       return createNotFound(NOT_FOUND_MESSAGE);
     }
 
-    return createOk(itemTranslator.translateItem(item));
+    return Response
+      .status(Response.Status.OK)
+      .entity(itemTranslator.translateItem(item))
+      .header(RESOURCE_SYNC_STATUS_HEADER, resourceSyncController.getSyncStatus(item))
+      .build();
   }
   
   @Override
@@ -352,12 +346,25 @@ public class ItemsApiImpl extends AbstractApi implements ItemsApi {
       logger.warn("Failed to parse enum parameters", e);
       return createBadRequest(e.getMessage());
     }
+    
+    SearchCursor cursor = null;
+    try {
+      cursor = getPageTokenCursor();
+    } catch (IllegalArgumentException e) {
+      logger.warn("Failed to parse page token", e);
+      return createBadRequest(e.getMessage());
+    }
 
-    SearchResult<fi.metatavu.dcfb.server.persistence.model.Item> searchResult = itemController.searchItems(nearLat, nearLon, 
-      userIds, categories, locations, search, getLoggerUserId(), includeExhausted != null ? includeExhausted.booleanValue() : false, 
-      firstResult, maxResults, sorts);
+    SearchResult<fi.metatavu.dcfb.server.persistence.model.Item> searchResult = null;
+    try {
+      searchResult = itemController.searchItems(nearLat, nearLon, userIds, categories, locations, search, getLoggerUserId(), 
+        includeExhausted != null ? includeExhausted.booleanValue() : false, firstResult, cursor, maxResults, sorts);
+    } catch (InvalidSearchCursorException e) {
+      logger.warn("Page token does not match the search", e);
+      return createBadRequest(e.getMessage());
+    }
 
-    return createOk(itemTranslator.translateItems(searchResult.getResult()), searchResult.getTotalHits());
+    return createOk(itemTranslator.translateItems(searchResult.getResult()), searchResult);
   }
 
   @Override
@@ -394,8 +401,10 @@ Currency priceCurrency = getPriceCurrency(payload.getUnitPrice());
       return createNotFound(NOT_FOUND_MESSAGE);
     }
     
-    LocalizedEntry title = updateLocalizedEntry(item.getTitle(), payload.getTitle());
-    LocalizedEntry description = updateLocalizedEntry(item.getDescription(), payload.getDescription());
+    boolean titleChanged = updateLocalizedEntryValues(item.getTitle(), payload.getTitle());
+    boolean descriptionChanged = updateLocalizedEntryValues(item.getDescription(), payload.getDescription());
+    LocalizedEntry title = item.getTitle();
+    LocalizedEntry description = item.getDescription();
     String slug = payload.getSlug();
     OffsetDateTime expiresAt = payload.getExpiresAt();
     Long amount = payload.getAmount();
@@ -427,6 +436,8 @@ Currency priceCurrency = getPriceCurrency(payload.getUnitPrice());
       return createBadRequest(String.format("Invalid location %s", payload.getLocationId()));
     }
     
+    boolean visibilityLimitedChanged = item.getVisibilityLimited() != visibilityLimited;
+    
     item = itemController.updateItem(item, 
         title, 
         description, 
@@ -455,11 +466,17 @@ Currency priceCurrency = getPriceCurrency(payload.getUnitPrice());
         sellerId,
         modifier);
     
-    itemController.deleteItemImages(item);
-    itemController.deleteItemUsers(item);
-    List<ItemUser> itemUsers = createItemUsers(payload, item);
-    updateProtectedResource(item, itemUsers);
-    createImages(payload, item);
+    updateImages(payload, item);
+    boolean usersChanged = itemController.setItemUsers(item, payload.getVisibleToUsers() != null ? payload.getVisibleToUsers() : Collections.emptyList());
+    
+    if (visibilityLimitedChanged || usersChanged) {
+      resourceSyncController.requestUpdate(item);
+    }
+    
+    if (titleChanged || descriptionChanged || usersChanged) {
+      itemController.requestIndex(item);
+    }
+    
     setItemMetas(item, payload.getMeta());
     
     return createOk(itemTranslator.translateItem(item));
@@ -477,6 +494,29 @@ Currency priceCurrency = getPriceCurrency(payload.getUnitPrice());
     }
   }
 
+  /**
+   * Replaces item images with images from REST request. Images are left untouched when they have not changed.
+   * 
+   * Image order is not stored, so images are compared regardless of their order
+   * 
+   * @param payload REST request
+   * @param item item
+   */
+  private void updateImages(Item payload, fi.metatavu.dcfb.server.persistence.model.Item item) {
+    List<Image> images = payload.getImages() != null ? payload.getImages() : Collections.emptyList();
+    
+    Map<List<String>, Long> requestedImages = images.stream()
+      .collect(Collectors.groupingBy(image -> Arrays.asList(image.getUrl(), image.getType()), Collectors.counting()));
+    
+    Map<List<String>, Long> existingImages = itemController.listItemImages(item).stream()
+      .collect(Collectors.groupingBy(itemImage -> Arrays.asList(itemImage.getUrl(), itemImage.getContentType()), Collectors.counting()));
+    
+    if (!requestedImages.equals(existingImages)) {
+      itemController.deleteItemImages(item);
+      createImages(payload, item);
+    }
+  }
+
   /**
    * Creates item image from REST object
    * 
@@ -526,84 +566,4 @@ Currency priceCurrency = getPriceCurrency(payload.getUnitPrice());
     return item;
   }
 
-  /**
-   * Creates protected resource to keycloak
-   * 
-   * @param item Item to create the resource for
-   * @param visibleToUsers list of users resource is visible to
-   * 
-   * @return create resource
-   */
-  private ResourceRepresentation createProtectedResource(fi.metatavu.dcfb.server.persistence.model.Item item, List<ItemUser> visibleToUsers) {
-    HashSet<ScopeRepresentation> scopes = new HashSet<>();
-    scopes.add(new ScopeRepresentation(SCOPE_ITEM_MANAGE));
-    scopes.add(new ScopeRepresentation(SCOPE_ITEM_VIEW));
-
-    ResourceRepresentation itemResource = new ResourceRepresentation(item.getSlug(), scopes, String.format("/v1/items/%s", item.getId()), ITEM_RESOURCE_TYPE);
-    itemResource.setOwner(getLoggerUserId().toString());
-    itemResource.setOwnerManagedAccess(true);
-
-    itemResource.setAttributes(createResourceAttributes(item.getVisibilityLimited(), visibleToUsers.stream().map(ItemUser::getUserId).collect(Collectors.toList())));
-
-    AuthzClient client = getAuthzClient();
-    if (client == null) {
-      logger.warn("Error getting authorization client, cannot create resource");
-      return null;
-    }
-
-    return getAuthzClient().protection().resource().create(itemResource);
-  }
-
-  /**
-   * Updates protected resource to keycloak
-   * 
-   * @param item Item to create the resource for
-   * @param visibleToUsers list of users resource is visible to
-   */
-  private void updateProtectedResource(fi.metatavu.dcfb.server.persistence.model.Item item, List<ItemUser> visibleToUsers) {
-    UUID resourceId = item.getResourceId();
-    if (resourceId == null) {
-      return;
-    }
-    
-    AuthzClient client = getAuthzClient();
-    ResourceRepresentation resource = client.protection().resource().findById(resourceId.toString());
-    if (resource == null) {
-      return;
-    }
-
-    resource.setAttributes(createResourceAttributes(item.getVisibilityLimited(), visibleToUsers.stream().map(ItemUser::getUserId).collect(Collectors.toList())));
-    client.protection().resource().update(resource);
-  }
-
-  /**
-   * Deletes protected resource
-   * 
-   * @param item Item the resource is connected to
-   */
-  private void deleteProtectedResource(fi.metatavu.dcfb.server.persistence.model.Item item) {
-    UUID resourceId = item.getResourceId();
-    if (resourceId == null) {
-      return;
-    }
-
-    getAuthzClient().protection().resource().delete(resourceId.toString());
-  }
-
-  /**
-   * Creates attributes for protected resource
-   * 
-   * @param visibilityLimited is item visibility limited
-   * @param visibleToUsers list of users resource is visible to
-   * 
-   * @return resource attributes
-   */
-  private Map<String, List<String>> createResourceAttributes(boolean visibilityLimited, List<UUID> visibleToUsers) {
-    HashMap<String, List<String>> attributes = new HashMap<>();
-    String visibility = visibilityLimited ? RESOURCE_VISIBILITY_PRIVATE : RESOURCE_VISIBILITY_PUBLIC;
-    attributes.put(RESOURCE_VISIBILITY_ATTR, Arrays.asList(visibility));
-    attributes.put(RESOURCE_VISIBILITY_USERS_ATTR, visibleToUsers.stream().map(UUID::toString).collect(Collectors.toList()));
-    return attributes;
-  }
-
 }
@@ -20,6 +20,8 @@ import fi.metatavu.dcfb.server.rest.model.Coordinate;
 import fi.metatavu.dcfb.server.rest.model.Location;
 import fi.metatavu.dcfb.server.rest.model.LocationListSort;
 import fi.metatavu.dcfb.server.rest.translate.LocationTranslator;
+import fi.metatavu.dcfb.server.search.searchers.InvalidSearchCursorException;
+import fi.metatavu.dcfb.server.search.searchers.SearchCursor;
 import fi.metatavu.dcfb.server.search.searchers.SearchResult;
 
 /**
@@ -120,9 +122,21 @@ public class LocationsApiImpl extends AbstractApi implements LocationsApi {
       return createBadRequest(e.getMessage());
     }
 
-    SearchResult<fi.metatavu.dcfb.server.persistence.model.Location> searchResult = locationController.searchLocations(slug, search, firstResult, maxResults, sorts);
+    SearchCursor cursor = null;
+    try {
+      cursor = getPageTokenCursor();
+    } catch (IllegalArgumentException e) {
+      return createBadRequest(e.getMessage());
+    }
+
+    SearchResult<fi.metatavu.dcfb.server.persistence.model.Location> searchResult = null;
+    try {
+      searchResult = locationController.searchLocations(slug, search, firstResult, cursor, maxResults, sorts);
+    } catch (InvalidSearchCursorException e) {
+      return createBadRequest(e.getMessage());
+    }
 
-    return createOk(locationTranslator.translateLocations(searchResult.getResult()), searchResult.getTotalHits());
+    return createOk(locationTranslator.translateLocations(searchResult.getResult()), searchResult);
   }
 
   @Override
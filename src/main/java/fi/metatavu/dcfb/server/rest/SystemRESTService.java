@@ -1,11 +1,13 @@
 package fi.metatavu.dcfb.server.rest;
 
 import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.PersistenceUnit;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
@@ -13,6 +15,14 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import fi.metatavu.dcfb.server.categories.CategoryController;
+import fi.metatavu.dcfb.server.email.MailQueueController;
+import fi.metatavu.dcfb.server.localization.LocalizedValueController;
+import fi.metatavu.dcfb.server.search.io.IndexUpdater;
+import fi.metatavu.dcfb.server.search.reindex.ReindexJob;
+import fi.metatavu.dcfb.server.search.reindex.ReindexStatus;
+import fi.metatavu.dcfb.server.settings.SystemSettingController;
+
 /**
  * System REST Services
  * 
@@ -23,10 +33,28 @@ import javax.ws.rs.core.Response.Status;
 @RequestScoped
 @Produces (MediaType.APPLICATION_JSON)
 @Consumes (MediaType.APPLICATION_JSON)
-public class SystemRESTService {
+public class SystemRESTService extends AbstractApi {
   
   @PersistenceUnit
   private EntityManagerFactory entityManagerFactory;
+  
+  @Inject
+  private IndexUpdater indexUpdater;
+  
+  @Inject
+  private ReindexJob reindexJob;
+  
+  @Inject
+  private SystemSettingController systemSettingController;
+  
+  @Inject
+  private MailQueueController mailQueueController;
+  
+  @Inject
+  private LocalizedValueController localizedValueController;
+  
+  @Inject
+  private CategoryController categoryController;
 
   /**
    * Returns pong
@@ -41,7 +69,7 @@ public class SystemRESTService {
   }
 
   /**
-   * Flushes JPA entity cache
+   * Flushes JPA entity cache, system setting cache, localized value cache and category tree
    * 
    * @return "ok"
    */
@@ -51,9 +79,107 @@ public class SystemRESTService {
   public Response flushCaches() {
     if ("TEST".equals(System.getProperty("runmode"))) {
       entityManagerFactory.getCache().evictAll();
+      systemSettingController.invalidateCache();
+      localizedValueController.invalidateCache();
+      categoryController.invalidateCategoryTree();
       return Response.ok("ok").build();
     }
     
     return Response.status(Status.FORBIDDEN).build();
   }
+
+  /**
+   * Returns statistics of the bulk indexing pipeline. Only allowed for administrators
+   * 
+   * @return statistics of the bulk indexing pipeline
+   */
+  @GET
+  @Path ("/search/statistics")
+  public Response getSearchStatistics() {
+    if (!isRealmAdmin()) {
+      return createForbidden(UNAUTHORIZED);
+    }
+    
+    return Response.ok(indexUpdater.getStatistics()).build();
+  }
+
+  /**
+   * Returns statistics of the system setting cache. Only allowed for administrators
+   * 
+   * @return statistics of the system setting cache
+   */
+  @GET
+  @Path ("/settings/cache/statistics")
+  public Response getSettingCacheStatistics() {
+    if (!isRealmAdmin()) {
+      return createForbidden(UNAUTHORIZED);
+    }
+    
+    return Response.ok(systemSettingController.getCacheStatistics()).build();
+  }
+
+  /**
+   * Returns statistics of the localized value cache. Only allowed for administrators
+   * 
+   * @return statistics of the localized value cache
+   */
+  @GET
+  @Path ("/localization/cache/statistics")
+  public Response getLocalizedValueCacheStatistics() {
+    if (!isRealmAdmin()) {
+      return createForbidden(UNAUTHORIZED);
+    }
+    
+    return Response.ok(localizedValueController.getCacheStatistics()).build();
+  }
+
+  /**
+   * Returns statistics of the mail delivery queue. Only allowed for administrators
+   * 
+   * @return statistics of the mail delivery queue
+   */
+  @GET
+  @Path ("/mail/statistics")
+  public Response getMailQueueStatistics() {
+    if (!isRealmAdmin()) {
+      return createForbidden(UNAUTHORIZED);
+    }
+    
+    return Response.ok(mailQueueController.getStatistics()).build();
+  }
+
+  /**
+   * Starts rebuilding the search index. Only allowed for administrators
+   * 
+   * @return status of the started reindex job
+   */
+  @POST
+  @Path ("/search/reindex")
+  public Response startReindex() {
+    if (!isRealmAdmin()) {
+      return createForbidden(UNAUTHORIZED);
+    }
+    
+    ReindexStatus status = reindexJob.start();
+    if (status == null) {
+      return Response.status(Status.CONFLICT).entity(reindexJob.getStatus()).build();
+    }
+    
+    return Response.status(Status.ACCEPTED).entity(status).build();
+  }
+
+  /**
+   * Returns status of latest search index rebuild. Only allowed for administrators
+   * 
+   * @return status of latest search index rebuild
+   */
+  @GET
+  @Path ("/search/reindex")
+  public Response getReindexStatus() {
+    if (!isRealmAdmin()) {
+      return createForbidden(UNAUTHORIZED);
+    }
+    
+    return Response.ok(reindexJob.getStatus()).build();
+  }
 }
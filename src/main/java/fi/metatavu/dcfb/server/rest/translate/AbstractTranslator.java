@@ -1,12 +1,21 @@
 package fi.metatavu.dcfb.server.rest.translate;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
+import fi.metatavu.dcfb.server.localization.LocalizedEntryValues;
 import fi.metatavu.dcfb.server.localization.LocalizedValueController;
 import fi.metatavu.dcfb.server.persistence.model.LocalizedEntry;
+import fi.metatavu.dcfb.server.persistence.model.LocalizedType;
 import fi.metatavu.dcfb.server.rest.model.LocalizedValue;
 
 /**
@@ -26,15 +35,60 @@ public abstract class AbstractTranslator {
    * @return list of REST localized values
    */
   protected List<LocalizedValue> translatelocalizedValue(LocalizedEntry entry) {
-    return localizedValueController.listLocalizedValues(entry).stream().map(localizedValues -> {
-      LocalizedValue result = new LocalizedValue();
-      
-      result.setLanguage(localizedValues.getLocale().getLanguage());
-      result.setType(localizedValues.getType().toString());
-      result.setValue(localizedValues.getValue());
-      
-      return result;
-    }).collect(Collectors.toList());
+    return translateLocalizedValues(localizedValueController.getEntryValues(entry));
+  }
+  
+  /**
+   * Translates values of multiple JPA localized entries. Entries missing from the cache are loaded with a single query
+   * 
+   * @param entries JPA localized entries
+   * @return map of REST localized values by entry id. Entries without values are not included
+   */
+  protected Map<UUID, List<LocalizedValue>> translateLocalizedValues(Collection<LocalizedEntry> entries) {
+    List<LocalizedEntry> existingEntries = entries.stream()
+      .filter(Objects::nonNull)
+      .distinct()
+      .collect(Collectors.toList());
+    
+    return localizedValueController.getEntryValues(existingEntries).entrySet().stream()
+      .filter(entry -> !entry.getValue().isEmpty())
+      .collect(Collectors.toMap(Entry::getKey, entry -> translateLocalizedValues(entry.getValue())));
+  }
+  
+  /**
+   * Translates values of a localized entry into list of REST localized values
+   * 
+   * @param entryValues values of a localized entry
+   * @return list of REST localized values
+   */
+  private List<LocalizedValue> translateLocalizedValues(LocalizedEntryValues entryValues) {
+    List<LocalizedValue> result = new ArrayList<>();
+    
+    for (Entry<Locale, Map<LocalizedType, String>> localeEntry : entryValues.getValues().entrySet()) {
+      for (Entry<LocalizedType, String> valueEntry : localeEntry.getValue().entrySet()) {
+        result.add(translateLocalizedValue(localeEntry.getKey(), valueEntry.getKey(), valueEntry.getValue()));
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Translates localized value into REST localized value
+   * 
+   * @param locale locale
+   * @param type type
+   * @param value value
+   * @return REST localized value
+   */
+  private LocalizedValue translateLocalizedValue(Locale locale, LocalizedType type, String value) {
+    LocalizedValue result = new LocalizedValue();
+    
+    result.setLanguage(locale.getLanguage());
+    result.setType(type.toString());
+    result.setValue(value);
+    
+    return result;
   }
   
 }
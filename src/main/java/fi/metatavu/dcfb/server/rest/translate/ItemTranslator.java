@@ -1,7 +1,12 @@
 package fi.metatavu.dcfb.server.rest.translate;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
@@ -10,13 +15,16 @@ import org.apache.commons.lang3.EnumUtils;
 import fi.metatavu.dcfb.server.items.ItemController;
 import fi.metatavu.dcfb.server.persistence.model.Category;
 import fi.metatavu.dcfb.server.persistence.model.ItemImage;
+import fi.metatavu.dcfb.server.persistence.model.ItemMeta;
 import fi.metatavu.dcfb.server.persistence.model.ItemReservation;
 import fi.metatavu.dcfb.server.persistence.model.ItemUser;
+import fi.metatavu.dcfb.server.persistence.model.LocalizedEntry;
 import fi.metatavu.dcfb.server.persistence.model.Location;
 import fi.metatavu.dcfb.server.rest.model.Image;
 import fi.metatavu.dcfb.server.rest.model.Item;
 import fi.metatavu.dcfb.server.rest.model.Item.TypeOfBusinessEnum;
 import fi.metatavu.dcfb.server.rest.model.ItemPaymentMethods;
+import fi.metatavu.dcfb.server.rest.model.LocalizedValue;
 import fi.metatavu.dcfb.server.rest.model.Meta;
 import fi.metatavu.dcfb.server.rest.model.Price;
 
@@ -42,6 +50,69 @@ public class ItemTranslator extends AbstractTranslator {
       return null;
     }
     
+    return translateItems(Collections.singletonList(item)).get(0);
+  }
+  
+  /**
+   * Translates JPA item reservation object into REST item reservation object
+   * 
+   * @param item JPA item reservation object
+   * @return REST item reservation
+   */
+  public fi.metatavu.dcfb.server.rest.model.ItemReservation translateItemReservation(ItemReservation itemReservation) {
+    if (itemReservation == null) {
+      return null;
+    }
+    
+    fi.metatavu.dcfb.server.rest.model.ItemReservation result = new fi.metatavu.dcfb.server.rest.model.ItemReservation();
+    result.setAmount(itemReservation.getAmount());
+    result.setId(itemReservation.getId());
+    
+    return result;
+  }
+  
+  /**
+   * Translates list of JPA items into REST items
+   * 
+   * @param items JPA items
+   * @return REST items
+   */
+  public List<Item> translateItems(List<fi.metatavu.dcfb.server.persistence.model.Item> items) {
+    if (items.isEmpty()) {
+      return Collections.emptyList();
+    }
+    
+    Map<UUID, List<Image>> images = itemController.listItemImages(items).stream()
+      .collect(Collectors.groupingBy(itemImage -> itemImage.getItem().getId(), Collectors.mapping(this::translateItemImage, Collectors.toList())));
+    
+    Map<UUID, List<UUID>> users = itemController.listItemUsers(items).stream()
+      .collect(Collectors.groupingBy(itemUser -> itemUser.getItem().getId(), Collectors.mapping(ItemUser::getUserId, Collectors.toList())));
+    
+    Map<UUID, List<Meta>> metas = itemController.listMetas(items).stream()
+      .collect(Collectors.groupingBy(itemMeta -> itemMeta.getItem().getId(), Collectors.mapping(this::translateItemMeta, Collectors.toList())));
+    
+    Map<UUID, List<LocalizedValue>> localizedValues = translateLocalizedValues(items.stream()
+      .flatMap(item -> Stream.of(item.getTitle(), item.getDescription()))
+      .collect(Collectors.toList()));
+    
+    return items.stream().map(item -> {
+      Item result = translateItem(item, localizedValues);
+      result.setImages(images.getOrDefault(item.getId(), Collections.emptyList()));
+      result.setVisibleToUsers(users.getOrDefault(item.getId(), Collections.emptyList()));
+      result.setMeta(metas.getOrDefault(item.getId(), Collections.emptyList()));
+      result.setReservedAmount(item.getReservedAmount());
+      return result;
+    }).collect(Collectors.toList());
+  }
+
+  /**
+   * Translates JPA item object into REST item object without related collections
+   * 
+   * @param item JPA item object
+   * @param localizedValues prefetched localized values by entry id
+   * @return REST item
+   */
+  private Item translateItem(fi.metatavu.dcfb.server.persistence.model.Item item, Map<UUID, List<LocalizedValue>> localizedValues) {
     Category category = item.getCategory();
     Location location = item.getLocation();
     Price unitPrice = new Price();
@@ -63,20 +134,17 @@ public class ItemTranslator extends AbstractTranslator {
     result.setCategoryId(category != null ? category.getId() : null);
     result.setLocationId(location != null ? location.getId() : null);
     result.setCreatedAt(item.getCreatedAt());
-    result.setDescription(translatelocalizedValue(item.getDescription()));
+    result.setDescription(getLocalizedValues(localizedValues, item.getDescription()));
     result.setExpiresAt(item.getExpiresAt());
     result.setId(item.getId());
-    result.setImages(getItemImages(item));
     result.setModifiedAt(item.getModifiedAt());
     result.setSlug(item.getSlug());
-    result.setTitle(translatelocalizedValue(item.getTitle()));
+    result.setTitle(getLocalizedValues(localizedValues, item.getTitle()));
     result.setUnit(item.getUnit());
     result.setUnitPrice(unitPrice);
     result.setVisibilityLimited(item.getVisibilityLimited());
-    result.setVisibleToUsers(itemController.listItemUsers(item).stream().map(ItemUser::getUserId).collect(Collectors.toList()));
     result.setSellerId(item.getSellerId());
     result.setSoldAmount(item.getSoldAmount());
-    result.setReservedAmount(itemController.countReservedAmountByItem(item));
     result.setResourceId(item.getResourceId());
     result.setDeliveryTime(item.getDeliveryTime());
     result.setContactEmail(item.getContactEmail());
@@ -89,53 +157,36 @@ public class ItemTranslator extends AbstractTranslator {
     result.setBusinessName(businessName);
     result.setPaymentMethods(paymentMethods);
     result.setTypeOfBusiness(EnumUtils.getEnum(TypeOfBusinessEnum.class, item.getTypeOfBusiness()));
-    
-    result.setMeta(itemController.listMetas(item).stream().map(itemMeta -> {
-      Meta meta = new Meta();
-      meta.setKey(itemMeta.getKey());
-      meta.setValue(itemMeta.getValue());
-      return meta;
-    }).collect(Collectors.toList()));
 
     return result;
   }
   
   /**
-   * Translates JPA item reservation object into REST item reservation object
+   * Returns prefetched localized values of an entry
    * 
-   * @param item JPA item reservation object
-   * @return REST item reservation
+   * @param localizedValues prefetched localized values by entry id
+   * @param entry entry
+   * @return localized values of the entry
    */
-  public fi.metatavu.dcfb.server.rest.model.ItemReservation translateItemReservation(ItemReservation itemReservation) {
-    if (itemReservation == null) {
-      return null;
+  private List<LocalizedValue> getLocalizedValues(Map<UUID, List<LocalizedValue>> localizedValues, LocalizedEntry entry) {
+    if (entry == null) {
+      return Collections.emptyList();
     }
     
-    fi.metatavu.dcfb.server.rest.model.ItemReservation result = new fi.metatavu.dcfb.server.rest.model.ItemReservation();
-    result.setAmount(itemReservation.getAmount());
-    result.setId(itemReservation.getId());
-    
-    return result;
+    return localizedValues.getOrDefault(entry.getId(), Collections.emptyList());
   }
   
   /**
-   * Translates list of JPA items into REST items
+   * Translates JPA item meta into REST meta
    * 
-   * @param items JPA items
-   * @return REST items
+   * @param itemMeta JPA item meta
+   * @return REST meta
    */
-  public List<Item> translateItems(List<fi.metatavu.dcfb.server.persistence.model.Item> items) {
-    return items.stream().map(this::translateItem).collect(Collectors.toList());
-  }
-
-  /**
-   * Returns translated list of item images
-   * 
-   * @param item item
-   * @return translated images
-   */
-  private List<Image> getItemImages(fi.metatavu.dcfb.server.persistence.model.Item item) {
-    return itemController.listItemImages(item).stream().map(this::translateItemImage).collect(Collectors.toList());
+  private Meta translateItemMeta(ItemMeta itemMeta) {
+    Meta result = new Meta();
+    result.setKey(itemMeta.getKey());
+    result.setValue(itemMeta.getValue());
+    return result;
   }
   
   /**
@@ -12,5 +12,7 @@ public class SearchConsts {
   public static final String ELASTIC_HOSTS = "elastic-hosts";
   public static final String ELASTIC_CLUSTER_NAME = "elastic-cluster-name";
   public static final String ELASTIC_INDEX = "elastic-index";
+  public static final String ELASTIC_BULK_SIZE = "elastic-bulk-size";
+  public static final String ELASTIC_BULK_MAX_ATTEMPTS = "elastic-bulk-max-attempts";
   
 }
@@ -3,10 +3,20 @@ package fi.metatavu.dcfb.server.search.handlers;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
+import javax.annotation.Resource;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.transaction.Transactional;
+import javax.transaction.Transactional.TxType;
 
 import org.slf4j.Logger;
 
@@ -14,23 +24,48 @@ import fi.metatavu.dcfb.server.persistence.model.Location;
 import fi.metatavu.dcfb.server.search.index.GeoPoint;
 import fi.metatavu.dcfb.server.search.index.Indexable;
 import fi.metatavu.dcfb.server.search.io.IndexUpdater;
-
+import fi.metatavu.dcfb.server.search.io.RefreshIndexableEvent;
 import fi.metatavu.dcfb.server.search.io.RegisterIndexableEvent;
 
 /**
  * Abstract base class for index handlers
  */
 public abstract class AbstractIndexableHandler<T, I extends Indexable> {
+  
+  private static final String PENDING_RESOURCE = "dcfb-pending";
+  private static final String PENDING_INDEX_OPERATION = "index";
 
   @Inject
   private Logger logger;
 
   @Inject
   private IndexUpdater indexUpdater;
+  
+  @Resource
+  private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
 
   public void onRegisterIndexableEvent(@Observes RegisterIndexableEvent event) {
     event.registerIndexable(getIndexableClass());
   }
+
+  /**
+   * Recreates an indexable for a retried document from the current state of the entity. 
+   * 
+   * Entity is read in a new transaction
+   * 
+   * @param event refresh event
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public void onRefreshIndexableEvent(@Observes RefreshIndexableEvent event) {
+    if (!getType().equals(event.getType())) {
+      return;
+    }
+    
+    T entity = findEntity(UUID.fromString(event.getId()));
+    if (entity != null) {
+      event.setIndexable(createIndexable(entity));
+    }
+  }
   
   /**
    * Indexes an entity
@@ -46,10 +81,54 @@ public abstract class AbstractIndexableHandler<T, I extends Indexable> {
     }
   }
 
+  /**
+   * Requests entity to be indexed after current transaction has been committed.
+   * 
+   * Requests for same entity are coalesced so that the entity is indexed only once per transaction 
+   * 
+   * @param id entity id
+   */
+  public void requestIndex(UUID id) {
+    if (markIndexPending(id)) {
+      fireIndexEvent(id);
+    }
+  }
+
+  /**
+   * Partially updates fields of an indexed entity
+   * 
+   * @param id entity id
+   * @param fields updated fields
+   */
+  protected void updateFields(UUID id, Map<String, Object> fields) {
+    indexUpdater.update(getType(), id.toString(), fields);
+  }
+
   public void deleteIndexable(UUID id) {
     indexUpdater.remove(getType(), id.toString());
   }
   
+  /**
+   * Creates indexables for a chunk of entities ordered by id. Chunk is read in a new transaction
+   * 
+   * @param afterId id after which entities are read or null to start from the beginning
+   * @param maxResults max number of entities in chunk
+   * @return chunk of indexables
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public IndexableChunk<I> createIndexables(UUID afterId, int maxResults) {
+    List<T> entities = listEntities(afterId, maxResults);
+    
+    List<I> indexables = entities.stream()
+      .map(this::createIndexable)
+      .filter(Objects::nonNull)
+      .collect(Collectors.toList());
+    
+    UUID lastId = entities.size() < maxResults ? null : getEntityId(entities.get(entities.size() - 1));
+    
+    return new IndexableChunk<>(getType(), indexables, lastId);
+  }
+  
   /**
    * Creates an indexable from entity
    * 
@@ -64,6 +143,38 @@ public abstract class AbstractIndexableHandler<T, I extends Indexable> {
    * @return elastic search type
    */
   protected abstract String getType();
+  
+  /**
+   * Lists entities ordered by id
+   * 
+   * @param afterId id after which entities are listed or null to start from the beginning
+   * @param maxResults max results
+   * @return entities
+   */
+  protected abstract List<T> listEntities(UUID afterId, int maxResults);
+  
+  /**
+   * Finds an entity by id
+   * 
+   * @param id id
+   * @return entity or null if not found
+   */
+  protected abstract T findEntity(UUID id);
+  
+  /**
+   * Returns id of an entity
+   * 
+   * @param entity entity
+   * @return id
+   */
+  protected abstract UUID getEntityId(T entity);
+  
+  /**
+   * Fires an index event for an entity
+   * 
+   * @param id entity id
+   */
+  protected abstract void fireIndexEvent(UUID id);
 
   /**
    * Creates GeoPoint for a Location object
@@ -86,6 +197,39 @@ public abstract class AbstractIndexableHandler<T, I extends Indexable> {
     return new GeoPoint(latitude, longitude);
   }
 
+  /**
+   * Returns ids of entities pending for given operation within current transaction. 
+   * 
+   * @param operation operation name
+   * @return mutable set of pending entity ids or null if there is no active transaction
+   */
+  @SuppressWarnings("unchecked")
+  protected Set<UUID> getPendingIds(String operation) {
+    if (transactionSynchronizationRegistry.getTransactionKey() == null) {
+      return null;
+    }
+    
+    String resourceKey = String.format("%s-%s-%s", PENDING_RESOURCE, getType(), operation);
+    Set<UUID> result = (Set<UUID>) transactionSynchronizationRegistry.getResource(resourceKey);
+    if (result == null) {
+      result = new HashSet<>();
+      transactionSynchronizationRegistry.putResource(resourceKey, result);
+    }
+    
+    return result;
+  }
+
+  /**
+   * Marks entity as pending for indexing within current transaction. 
+   * 
+   * @param id entity id
+   * @return true if entity was not yet pending within the transaction or if there is no active transaction
+   */
+  private boolean markIndexPending(UUID id) {
+    Set<UUID> pendingIds = getPendingIds(PENDING_INDEX_OPERATION);
+    return pendingIds == null || pendingIds.add(id);
+  }
+
   /**
    * Resolves indexable class from generic type arguments
    * 
@@ -48,7 +48,7 @@ public class CategoryIndexHandler extends AbstractIndexableHandler<Category, Ind
   @PostUpdate
   @PostPersist
   public void onCategoryUpdate(Category persistedEntity) {
-    categoryIndexEvent.fire(new CategoryIndexEvent(persistedEntity.getId()));
+    requestIndex(persistedEntity.getId());
   }
   
   /**
@@ -66,6 +66,26 @@ public class CategoryIndexHandler extends AbstractIndexableHandler<Category, Ind
     }
   }
 
+  @Override
+  protected List<Category> listEntities(UUID afterId, int maxResults) {
+    return categoryController.listCategoriesAfter(afterId, maxResults);
+  }
+
+  @Override
+  protected Category findEntity(UUID id) {
+    return categoryController.findCategory(id);
+  }
+
+  @Override
+  protected UUID getEntityId(Category entity) {
+    return entity.getId();
+  }
+
+  @Override
+  protected void fireIndexEvent(UUID id) {
+    categoryIndexEvent.fire(new CategoryIndexEvent(id));
+  }
+
   @Override
   protected String getType() {
     return IndexableCategory.TYPE;
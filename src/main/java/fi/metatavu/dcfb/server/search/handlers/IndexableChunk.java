@@ -0,0 +1,51 @@
+package fi.metatavu.dcfb.server.search.handlers;
+
+import java.util.List;
+import java.util.UUID;
+
+import fi.metatavu.dcfb.server.search.index.Indexable;
+
+/**
+ * Chunk of indexables read in entity id order
+ * 
+ * @param <I> indexable type
+ */
+public class IndexableChunk<I extends Indexable> {
+
+  private String type;
+
+  private List<I> indexables;
+
+  private UUID lastId;
+
+  /**
+   * Constructor
+   * 
+   * @param type elastic search type
+   * @param indexables indexables
+   * @param lastId id of last entity in chunk or null if there are no more entities
+   */
+  public IndexableChunk(String type, List<I> indexables, UUID lastId) {
+    this.type = type;
+    this.indexables = indexables;
+    this.lastId = lastId;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public List<I> getIndexables() {
+    return indexables;
+  }
+
+  /**
+   * Returns id of last entity in the chunk. 
+   * 
+   * @return id of last entity in chunk or null if there are no more entities
+   */
+  public UUID getLastId() {
+    return lastId;
+  }
+
+}
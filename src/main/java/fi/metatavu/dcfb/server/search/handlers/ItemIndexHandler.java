@@ -1,8 +1,11 @@
 package fi.metatavu.dcfb.server.search.handlers;
 
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -12,14 +15,15 @@ import javax.enterprise.event.Observes;
 import javax.enterprise.event.TransactionPhase;
 import javax.inject.Inject;
 import javax.persistence.PostPersist;
-import javax.persistence.PostUpdate;
 import javax.transaction.Transactional;
 import javax.transaction.Transactional.TxType;
 
 import org.slf4j.Logger;
 
+import fi.metatavu.dcfb.server.categories.CategoryController;
 import fi.metatavu.dcfb.server.items.ItemController;
 import fi.metatavu.dcfb.server.localization.LocalizedValueController;
+import fi.metatavu.dcfb.server.persistence.model.Category;
 import fi.metatavu.dcfb.server.persistence.model.Item;
 import fi.metatavu.dcfb.server.search.index.GeoPoint;
 import fi.metatavu.dcfb.server.search.index.IndexableItem;
@@ -30,27 +34,40 @@ import fi.metatavu.dcfb.server.search.index.IndexableItem;
 @ApplicationScoped
 public class ItemIndexHandler extends AbstractIndexableHandler<Item, IndexableItem> {
 
+  private static final String PENDING_STOCK_OPERATION = "stock";
+
   @Inject
   private Logger logger;
 
   @Inject
   private ItemController itemController;
 
+  @Inject
+  private CategoryController categoryController;
+
   @Inject
   private LocalizedValueController localizedValueController;
 
   @Inject
   private Event<ItemIndexEvent> itemIndexEvent;
+
+  @Inject
+  private Event<ItemStockEvent> itemStockEvent;
+
+  @Inject
+  private Event<ItemModifiedEvent> itemModifiedEvent;
   
   /**
-   * Item update event  listener
+   * Item persist event listener. 
+   * 
+   * Updated items are not reindexed by an entity listener, because most of the item fields are not 
+   * indexed. ItemController requests reindex when indexed fields of an item change.
    * 
    * @param persistedEntity persisted JPA entity
    */
-  @PostUpdate
   @PostPersist
-  public void onItemUpdate(Item persistedEntity) {
-    itemIndexEvent.fire(new ItemIndexEvent(persistedEntity.getId()));
+  public void onItemPersist(Item persistedEntity) {
+    requestIndex(persistedEntity.getId());
   }
   
   /**
@@ -68,6 +85,97 @@ public class ItemIndexHandler extends AbstractIndexableHandler<Item, IndexableIt
     }
   }
 
+  /**
+   * Requests stock of an item to be updated into the index after current transaction has been committed.
+   * 
+   * Only the amount of items left is updated, so this is considerably cheaper than reindexing the item. 
+   * Requests within a transaction are collected into a single event.
+   * 
+   * @param itemId item id
+   */
+  public void requestStockUpdate(UUID itemId) {
+    Set<UUID> pendingIds = getPendingIds(PENDING_STOCK_OPERATION);
+    if (pendingIds == null) {
+      itemStockEvent.fire(new ItemStockEvent(Collections.singleton(itemId)));
+    } else if (pendingIds.isEmpty()) {
+      pendingIds.add(itemId);
+      itemStockEvent.fire(new ItemStockEvent(pendingIds));
+    } else {
+      pendingIds.add(itemId);
+    }
+  }
+  
+  /**
+   * Item stock event listener
+   * 
+   * @param event stock event
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public void onItemStock(@Observes (during = TransactionPhase.AFTER_SUCCESS) ItemStockEvent event) {
+    itemController.getItemsLeft(event.getItemIds()).forEach((itemId, itemsLeft) -> 
+      updateFields(itemId, Collections.singletonMap(IndexableItem.ITEMS_LEFT, itemsLeft))
+    );
+  }
+
+  /**
+   * Requests modification time of an item to be updated into the index after current transaction has been committed.
+   * 
+   * Used when only fields that are not indexed have been changed, so the item does not need to be reindexed.
+   * 
+   * @param itemId item id
+   */
+  public void requestModifiedAtUpdate(UUID itemId) {
+    itemModifiedEvent.fire(new ItemModifiedEvent(itemId));
+  }
+  
+  /**
+   * Item modified event listener
+   * 
+   * @param event modified event
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public void onItemModified(@Observes (during = TransactionPhase.AFTER_SUCCESS) ItemModifiedEvent event) {
+    Item item = itemController.findItem(event.getId());
+    if (item != null) {
+      updateFields(item.getId(), Collections.singletonMap(IndexableItem.MODIFIED_AT_FIELD, item.getModifiedAt()));
+    }
+  }
+
+  /**
+   * Indexes a chunk of items that belong to given categories. Chunk is read in a new transaction
+   * 
+   * @param categoryIds category ids
+   * @param afterId id after which items are read or null to start from the beginning
+   * @param maxResults max number of items in chunk
+   * @return id of last indexed item or null if there are no more items to index
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public UUID indexItemsByCategories(List<UUID> categoryIds, UUID afterId, int maxResults) {
+    List<Item> items = itemController.listItemsByCategoriesAfter(categoryIds, afterId, maxResults);
+    items.forEach(this::index);
+    return items.size() < maxResults ? null : items.get(items.size() - 1).getId();
+  }
+
+  @Override
+  protected List<Item> listEntities(UUID afterId, int maxResults) {
+    return itemController.listItemsAfter(afterId, maxResults);
+  }
+
+  @Override
+  protected Item findEntity(UUID id) {
+    return itemController.findItem(id);
+  }
+
+  @Override
+  protected UUID getEntityId(Item entity) {
+    return entity.getId();
+  }
+
+  @Override
+  protected void fireIndexEvent(UUID id) {
+    itemIndexEvent.fire(new ItemIndexEvent(id));
+  }
+
   @Override
   protected String getType() {
     return IndexableItem.TYPE;
@@ -98,14 +206,14 @@ public class ItemIndexHandler extends AbstractIndexableHandler<Item, IndexableIt
 
     String sellerId = item.getSellerId().toString();
     UUID categoryId = item.getCategory() != null ? item.getCategory().getId() : null;
+    List<String> categoryPath = createCategoryPath(item.getCategory());
     UUID locationId = item.getLocation() != null ? item.getLocation().getId() : null;
     String slug = item.getSlug();
     OffsetDateTime createdAt = item.getCreatedAt();
     OffsetDateTime modifiedAt = item.getModifiedAt();
     OffsetDateTime expiresAt = item.getExpiresAt();
     GeoPoint geoPoint = createGeoPoint(item.getLocation());
-    Long reservedItemCount = itemController.countReservedAmountByItem(item);
-    Long itemsLeft = item.getAmount() - (reservedItemCount + item.getSoldAmount());
+    Long itemsLeft = item.getAmount() - (item.getReservedAmount() + item.getSoldAmount());
     
     return new IndexableItem(item.getId(),
         sellerId,
@@ -117,6 +225,7 @@ public class ItemIndexHandler extends AbstractIndexableHandler<Item, IndexableIt
         descriptionSv, 
         descriptionEn, 
         categoryId,
+        categoryPath,
         locationId,
         slug,
         allowedUserIds,
@@ -126,4 +235,22 @@ public class ItemIndexHandler extends AbstractIndexableHandler<Item, IndexableIt
         modifiedAt, 
         expiresAt);
   }
+
+  /**
+   * Creates category path for an item. Path contains id of the category and ids of all its ancestors
+   * 
+   * @param category category or null
+   * @return category path
+   */
+  private List<String> createCategoryPath(Category category) {
+    if (category == null) {
+      return Collections.emptyList();
+    }
+    
+    List<String> result = new ArrayList<>();
+    result.add(category.getId().toString());
+    categoryController.listAncestorIds(category).forEach(ancestorId -> result.add(ancestorId.toString()));
+    return result;
+  }
+  
 }
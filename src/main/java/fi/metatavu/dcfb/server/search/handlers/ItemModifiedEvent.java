@@ -0,0 +1,31 @@
+package fi.metatavu.dcfb.server.search.handlers;
+
+import java.util.UUID;
+
+/**
+ * Event for updating modification time of an item into the search index
+ */
+public class ItemModifiedEvent {
+  
+  private UUID id;
+  
+  /**
+   * Constructor
+   * 
+   * @param id item id
+   */
+  public ItemModifiedEvent(UUID id) {
+    super();
+    this.id = id;
+  }
+
+  /**
+   * Returns item id
+   * 
+   * @return item id
+   */
+  public UUID getId() {
+    return id;
+  }
+
+}
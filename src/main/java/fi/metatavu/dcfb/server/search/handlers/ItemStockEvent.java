@@ -0,0 +1,34 @@
+package fi.metatavu.dcfb.server.search.handlers;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Event for updating stock of items into the search index.
+ * 
+ * Event is fired once per transaction and item ids are collected into it until the transaction is committed 
+ */
+public class ItemStockEvent {
+  
+  private Set<UUID> itemIds;
+  
+  /**
+   * Constructor
+   * 
+   * @param itemIds item ids
+   */
+  public ItemStockEvent(Set<UUID> itemIds) {
+    super();
+    this.itemIds = itemIds;
+  }
+
+  /**
+   * Returns item ids
+   * 
+   * @return item ids
+   */
+  public Set<UUID> getItemIds() {
+    return itemIds;
+  }
+
+}
@@ -49,7 +49,7 @@ public class LocationIndexHandler extends AbstractIndexableHandler<Location, Ind
   @PostUpdate
   @PostPersist
   public void onLocationUpdate(Location persistedEntity) {
-    locationIndexEvent.fire(new LocationIndexEvent(persistedEntity.getId()));
+    requestIndex(persistedEntity.getId());
   }
   
   /**
@@ -67,6 +67,26 @@ public class LocationIndexHandler extends AbstractIndexableHandler<Location, Ind
     }
   }
 
+  @Override
+  protected List<Location> listEntities(UUID afterId, int maxResults) {
+    return locationController.listLocationsAfter(afterId, maxResults);
+  }
+
+  @Override
+  protected Location findEntity(UUID id) {
+    return locationController.findLocation(id);
+  }
+
+  @Override
+  protected UUID getEntityId(Location entity) {
+    return entity.getId();
+  }
+
+  @Override
+  protected void fireIndexEvent(UUID id) {
+    locationIndexEvent.fire(new LocationIndexEvent(id));
+  }
+
   @Override
   protected String getType() {
     return IndexableLocation.TYPE;
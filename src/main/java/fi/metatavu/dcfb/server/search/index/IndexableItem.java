@@ -15,6 +15,7 @@ public class IndexableItem extends AbstractIndexable {
   public static final String VISIBILITY_LIMITED_FIELD = "visibilityLimited";
   public static final String ALLOWED_USER_IDS_FIELD = "allowedUserIds";
   public static final String CATEGORY_ID_FIELD = "categoryId";
+  public static final String CATEGORY_PATH_FIELD = "categoryPath";
   public static final String LOCATION_ID_FIELD = "locationId";
   public static final String CREATED_AT_FIELD = "createdAt";
   public static final String MODIFIED_AT_FIELD = "modifiedAt";
@@ -43,6 +44,9 @@ public class IndexableItem extends AbstractIndexable {
   @Field(type="keyword", store = true)
   private UUID categoryId;
 
+  @Field(type="keyword", store = true)
+  private List<String> categoryPath;
+
   @Field(type="keyword", store = true)
   private UUID locationId;
 
@@ -80,8 +84,8 @@ public class IndexableItem extends AbstractIndexable {
   
   @SuppressWarnings ("squid:S00107")
   public IndexableItem(UUID id, String sellerId, GeoPoint geoPoint, List<String> titleFi, List<String> titleSv, List<String> titleEn, 
-      List<String> descriptionFi, List<String> descriptionSv, List<String> descriptionEn,  UUID categoryId, UUID locationId, 
-      String slug, List<String> allowedUserIds, boolean visibilityLimited, Long itemsLeft, 
+      List<String> descriptionFi, List<String> descriptionSv, List<String> descriptionEn,  UUID categoryId, List<String> categoryPath, 
+      UUID locationId, String slug, List<String> allowedUserIds, boolean visibilityLimited, Long itemsLeft, 
       OffsetDateTime createdAt, OffsetDateTime modifiedAt, OffsetDateTime expiresAt) {
     super(id);
     this.sellerId = sellerId;
@@ -93,6 +97,7 @@ public class IndexableItem extends AbstractIndexable {
     this.descriptionSv = descriptionSv;
     this.descriptionEn = descriptionEn;
     this.categoryId = categoryId;
+    this.categoryPath = categoryPath;
     this.locationId = locationId;
     this.slug = slug;
     this.createdAt = createdAt;
@@ -167,6 +172,22 @@ public class IndexableItem extends AbstractIndexable {
     this.categoryId = categoryId;
   }
 
+  /**
+   * Returns ids of item's category and all its ancestor categories
+   * 
+   * @return ids of item's category and all its ancestor categories
+   */
+  public List<String> getCategoryPath() {
+    return categoryPath;
+  }
+
+  /**
+   * @param categoryPath ids of item's category and all its ancestor categories
+   */
+  public void setCategoryPath(List<String> categoryPath) {
+    this.categoryPath = categoryPath;
+  }
+
   /**
    * @return the locationId
    */
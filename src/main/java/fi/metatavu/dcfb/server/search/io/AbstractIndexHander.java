@@ -10,6 +10,7 @@ import javax.inject.Inject;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.action.admin.indices.alias.Alias;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
@@ -17,9 +18,6 @@ import org.elasticsearch.transport.client.PreBuiltTransportClient;
 import org.slf4j.Logger;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import fi.metatavu.dcfb.server.search.SearchConsts;
 import fi.metatavu.dcfb.server.search.index.Indexable;
@@ -41,6 +39,9 @@ public abstract class AbstractIndexHander {
   
   @Inject
   private Logger logger;
+
+  @Inject
+  private IndexableSerializer indexableSerializer;
   
   private String index;
   
@@ -64,6 +65,7 @@ public abstract class AbstractIndexHander {
   @PreDestroy
   public void deinit() {
     if (client != null) {
+      teardown();
       closeClient(client);
     }
   }
@@ -80,6 +82,13 @@ public abstract class AbstractIndexHander {
    */
   public abstract void setup();
   
+  /**
+   * Teardown method. Called before the client is closed
+   */
+  public void teardown() {
+    // Nothing to tear down by default
+  }
+  
   /**
    * Returns elastic search client
    * 
@@ -89,6 +98,15 @@ public abstract class AbstractIndexHander {
     return client;
   }
   
+  /**
+   * Returns shared serializer for index documents
+   * 
+   * @return serializer
+   */
+  protected IndexableSerializer getSerializer() {
+    return indexableSerializer;
+  }
+  
   /**
    * Serializes indexable
    * 
@@ -96,11 +114,8 @@ public abstract class AbstractIndexHander {
    * @return serialized indeable
    */
   protected byte[] serialize(Indexable indexable) {
-    ObjectMapper objectMapper = new ObjectMapper();
     try {
-      objectMapper.registerModule(new JavaTimeModule());
-      objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-      return objectMapper.writeValueAsBytes(indexable);
+      return indexableSerializer.writeValueAsBytes(indexable);
     } catch (JsonProcessingException e) {
       logger.error("Failed to serialize indexable object", e);
     }
@@ -109,7 +124,9 @@ public abstract class AbstractIndexHander {
   }
   
   /**
-   * Returns index
+   * Returns index. 
+   * 
+   * Index name is an alias that points to a versioned index 
    * 
    * returns index
    */
@@ -117,6 +134,26 @@ public abstract class AbstractIndexHander {
     return index;
   }
   
+  /**
+   * Creates new versioned index. Created index is not attached into the index alias 
+   * 
+   * @param settings index settings
+   * @return name of created index
+   */
+  protected String createVersionedIndex(Settings settings) {
+    String versionedIndex = getVersionedIndexName();
+    
+    getClient()
+      .admin()
+      .indices()
+      .prepareCreate(versionedIndex)
+      .setSettings(settings)
+      .execute()
+      .actionGet();
+    
+    return versionedIndex;
+  }
+  
   /**
    * Creates initialized transport client
    * 
@@ -223,7 +260,7 @@ public abstract class AbstractIndexHander {
   }
 
   /**
-   * Creates an index
+   * Creates a versioned index and attaches index alias into it
    * 
    * @param transportClient transport client
    */
@@ -231,8 +268,18 @@ public abstract class AbstractIndexHander {
     transportClient
       .admin()
       .indices()
-      .prepareCreate(getIndex())
+      .prepareCreate(getVersionedIndexName())
+      .addAlias(new Alias(getIndex()))
       .execute()
       .actionGet();
   }
+  
+  /**
+   * Returns a new versioned index name
+   * 
+   * @return versioned index name
+   */
+  private String getVersionedIndexName() {
+    return String.format("%s-%d", getIndex(), System.currentTimeMillis());
+  }
 }
@@ -0,0 +1,149 @@
+package fi.metatavu.dcfb.server.search.io;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * In-memory queue for pending index operations.
+ *
+ * Queue keeps track of the latest operation for each document so that
+ * stale operations (e.g. a failed attempt that has been superseded by a
+ * newer update) are never written over newer ones. Partial updates are 
+ * also superseded by newer full document operations. Retried full documents 
+ * are recreated from the entity before they are written (see IndexUpdater), 
+ * so they never carry fields older than partial updates written meanwhile.
+ */
+@ApplicationScoped
+public class BulkIndexQueue {
+
+  private final Queue<IndexOperation> pending = new ConcurrentLinkedQueue<>();
+
+  private final Queue<IndexOperation> retries = new ConcurrentLinkedQueue<>();
+
+  private final ConcurrentHashMap<String, Long> latestSequences = new ConcurrentHashMap<>();
+
+  private final AtomicLong sequence = new AtomicLong(0);
+
+  private final AtomicInteger depth = new AtomicInteger(0);
+
+  /**
+   * Adds an operation into the queue
+   *
+   * @param operation operation
+   * @return queue depth after the operation was added
+   */
+  public int offer(IndexOperation operation) {
+    long operationSequence = sequence.incrementAndGet();
+    operation.setSequence(operationSequence);
+    latestSequences.merge(operation.getKey(), operationSequence, Math::max);
+    pending.add(operation);
+    return depth.incrementAndGet();
+  }
+
+  /**
+   * Returns an operation back into the queue to be retried later
+   *
+   * @param operation operation
+   * @param delay delay in milliseconds
+   */
+  public void retry(IndexOperation operation, long delay) {
+    if (isSuperseded(operation)) {
+      return;
+    }
+
+    operation.markFailed(delay);
+    retries.add(operation);
+    depth.incrementAndGet();
+  }
+
+  /**
+   * Marks operation as completed (either succeeded or permanently failed)
+   *
+   * @param operation operation
+   */
+  public void complete(IndexOperation operation) {
+    latestSequences.remove(operation.getKey(), operation.getSequence());
+  }
+
+  /**
+   * Drains at most maxOperations due operations from the queue.
+   *
+   * Operations that have been superseded by newer operations for the same document are discarded.
+   *
+   * @param maxOperations max number of operations
+   * @return drained operations
+   */
+  public List<IndexOperation> drain(int maxOperations) {
+    List<IndexOperation> result = new ArrayList<>();
+    long now = System.currentTimeMillis();
+
+    Iterator<IndexOperation> retryIterator = retries.iterator();
+    while (retryIterator.hasNext() && result.size() < maxOperations) {
+      IndexOperation operation = retryIterator.next();
+      if (operation.getNotBefore() <= now && retries.remove(operation)) {
+        depth.decrementAndGet();
+        if (!isSuperseded(operation)) {
+          result.add(operation);
+        }
+      }
+    }
+
+    while (result.size() < maxOperations) {
+      IndexOperation operation = pending.poll();
+      if (operation == null) {
+        break;
+      }
+
+      depth.decrementAndGet();
+      if (!isSuperseded(operation)) {
+        result.add(operation);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns number of queued operations
+   *
+   * @return number of queued operations
+   */
+  public int getDepth() {
+    return depth.get();
+  }
+
+  /**
+   * Returns whether operation has been superseded by a newer operation for the same document
+   *
+   * @param operation operation
+   * @return whether operation has been superseded
+   */
+  private boolean isSuperseded(IndexOperation operation) {
+    if (isSuperseded(operation.getKey(), operation.getSequence())) {
+      return true;
+    }
+    
+    return operation.getOperationType() == IndexOperationType.UPDATE && isSuperseded(operation.getDocumentKey(), operation.getSequence());
+  }
+
+  /**
+   * Returns whether there is a newer operation with given key than given sequence number
+   *
+   * @param key operation key
+   * @param operationSequence operation sequence number
+   * @return whether there is a newer operation with given key
+   */
+  private boolean isSuperseded(String key, long operationSequence) {
+    Long latest = latestSequences.get(key);
+    return latest != null && latest > operationSequence;
+  }
+
+}
@@ -0,0 +1,72 @@
+package fi.metatavu.dcfb.server.search.io;
+
+/**
+ * Snapshot of bulk indexing pipeline statistics
+ */
+public class BulkIndexStatistics {
+
+  private int queueDepth;
+
+  private long flushCount;
+
+  private long lastFlushLatency;
+
+  private long averageFlushLatency;
+
+  private long indexedCount;
+
+  private long retriedCount;
+
+  private long failedCount;
+
+  /**
+   * Constructor
+   *
+   * @param queueDepth number of queued operations
+   * @param flushCount number of executed bulk requests
+   * @param lastFlushLatency latency of latest bulk request in milliseconds
+   * @param averageFlushLatency average latency of bulk requests in milliseconds
+   * @param indexedCount number of successfully written operations
+   * @param retriedCount number of retried operations
+   * @param failedCount number of permanently failed operations
+   */
+  @SuppressWarnings ("squid:S00107")
+  public BulkIndexStatistics(int queueDepth, long flushCount, long lastFlushLatency, long averageFlushLatency, long indexedCount, long retriedCount, long failedCount) {
+    this.queueDepth = queueDepth;
+    this.flushCount = flushCount;
+    this.lastFlushLatency = lastFlushLatency;
+    this.averageFlushLatency = averageFlushLatency;
+    this.indexedCount = indexedCount;
+    this.retriedCount = retriedCount;
+    this.failedCount = failedCount;
+  }
+
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  public long getFlushCount() {
+    return flushCount;
+  }
+
+  public long getLastFlushLatency() {
+    return lastFlushLatency;
+  }
+
+  public long getAverageFlushLatency() {
+    return averageFlushLatency;
+  }
+
+  public long getIndexedCount() {
+    return indexedCount;
+  }
+
+  public long getRetriedCount() {
+    return retriedCount;
+  }
+
+  public long getFailedCount() {
+    return failedCount;
+  }
+
+}
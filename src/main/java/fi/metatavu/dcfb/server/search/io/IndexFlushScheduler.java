@@ -0,0 +1,25 @@
+package fi.metatavu.dcfb.server.search.io;
+
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Scheduler that periodically flushes queued index operations into the index
+ */
+@Startup
+@Singleton
+@ApplicationScoped
+public class IndexFlushScheduler {
+  
+  @Inject
+  private IndexUpdater indexUpdater;
+
+  @Schedule(hour = "*", minute = "*", second = "*", persistent = false, info = "Every second")
+  public void flush() {
+    indexUpdater.flush();
+  }
+  
+}
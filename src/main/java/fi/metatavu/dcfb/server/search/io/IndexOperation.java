@@ -0,0 +1,168 @@
+package fi.metatavu.dcfb.server.search.io;
+
+/**
+ * Queued index operation
+ */
+public class IndexOperation {
+
+  private final IndexOperationType operationType;
+
+  private final String type;
+
+  private final String id;
+
+  private byte[] source;
+
+  private long sequence;
+
+  private int attempts;
+
+  private long notBefore;
+
+  /**
+   * Constructor
+   *
+   * @param operationType operation type
+   * @param type document type
+   * @param id document id
+   * @param source document source, partial document for update operations or null for delete operations
+   */
+  public IndexOperation(IndexOperationType operationType, String type, String id, byte[] source) {
+    this.operationType = operationType;
+    this.type = type;
+    this.id = id;
+    this.source = source;
+    this.attempts = 0;
+    this.notBefore = 0;
+  }
+
+  /**
+   * Returns operation type
+   *
+   * @return operation type
+   */
+  public IndexOperationType getOperationType() {
+    return operationType;
+  }
+
+  /**
+   * Returns document type
+   *
+   * @return document type
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * Returns document id
+   *
+   * @return document id
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Returns document source
+   *
+   * @return document source
+   */
+  public byte[] getSource() {
+    return source;
+  }
+
+  /**
+   * Replaces document source. 
+   * 
+   * Used when a retried full document is recreated from the current state of the entity
+   *
+   * @param source document source
+   */
+  void setSource(byte[] source) {
+    this.source = source;
+  }
+
+  /**
+   * Returns key that identifies the document this operation targets
+   *
+   * @return document key
+   */
+  public String getDocumentKey() {
+    return getDocumentKey(type, id);
+  }
+
+  /**
+   * Returns key that identifies a document
+   *
+   * @param type document type
+   * @param id document id
+   * @return document key
+   */
+  static String getDocumentKey(String type, String id) {
+    return String.format("%s/%s", type, id);
+  }
+
+  /**
+   * Returns key of the operation.
+   *
+   * Operations with same key supersede each other. Partial updates have a key of their own, 
+   * so that they only supersede other partial updates but are superseded by full document operations.
+   *
+   * @return key
+   */
+  public String getKey() {
+    if (operationType == IndexOperationType.UPDATE) {
+      return String.format("%s#update", getDocumentKey());
+    }
+    
+    return getDocumentKey();
+  }
+
+  /**
+   * Returns queue sequence number
+   *
+   * @return queue sequence number
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Sets queue sequence number
+   *
+   * @param sequence queue sequence number
+   */
+  void setSequence(long sequence) {
+    this.sequence = sequence;
+  }
+
+  /**
+   * Returns number of failed attempts
+   *
+   * @return number of failed attempts
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * Returns time in milliseconds before which the operation should not be retried
+   *
+   * @return time in milliseconds
+   */
+  public long getNotBefore() {
+    return notBefore;
+  }
+
+  /**
+   * Marks operation as failed and schedules next attempt after given delay
+   *
+   * @param delay delay in milliseconds
+   */
+  void markFailed(long delay) {
+    this.attempts++;
+    this.notBefore = System.currentTimeMillis() + delay;
+  }
+
+}
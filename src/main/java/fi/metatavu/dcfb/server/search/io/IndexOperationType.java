@@ -0,0 +1,14 @@
+package fi.metatavu.dcfb.server.search.io;
+
+/**
+ * Enumeration for queued index operation types
+ */
+public enum IndexOperationType {
+
+  INDEX,
+  
+  UPDATE,
+
+  DELETE
+
+}
@@ -6,47 +6,128 @@ import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Resource;
 import javax.ejb.Lock;
 import javax.ejb.LockType;
 import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 
 import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
 import org.slf4j.Logger;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import fi.metatavu.dcfb.server.search.SearchConsts;
 import fi.metatavu.dcfb.server.search.index.Indexable;
+import fi.metatavu.dcfb.server.settings.SystemSettingController;
 
 /**
- * Updater for Elastic Search index 
+ * Updater for Elastic Search index.
+ * 
+ * Index operations are queued and written into the index in bulk requests either 
+ * by the periodic flush or when the queue grows over the bulk size.
  */
 @ApplicationScoped
 @Singleton
 public class IndexUpdater extends AbstractIndexHander {
   
+  private static final int DEFAULT_BULK_SIZE = 500;
+  private static final int DEFAULT_BULK_MAX_ATTEMPTS = 8;
+  private static final long RETRY_BASE_DELAY = 500l;
+  private static final long RETRY_MAX_DELAY = 60000l;
+  private static final String REFRESH_INTERVAL_SETTING = "index.refresh_interval";
+  private static final String NUMBER_OF_REPLICAS_SETTING = "index.number_of_replicas";
+  private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+  private static final int DEFAULT_NUMBER_OF_REPLICAS = 1;
+  
   @Inject
   private Logger logger;
 
+  @Inject
+  private SystemSettingController systemSettingController;
+
+  @Inject
+  private BulkIndexQueue bulkIndexQueue;
+
   @Inject
   private Event<RegisterIndexableEvent> registerIndexableEvent;
+
+  @Inject
+  private Event<RefreshIndexableEvent> refreshIndexableEvent;
+  
+  @Resource
+  private ManagedExecutorService executorService;
+  
+  private int bulkSize;
+  
+  private int bulkMaxAttempts;
+  
+  private volatile String rebuildIndex;
+  
+  private final Queue<IndexOperation> rebuildDeletes = new ConcurrentLinkedQueue<>();
+  
+  private final Map<String, Map<String, Map<String, Object>>> typeMappings = new HashMap<>();
+  
+  private final AtomicBoolean flushing = new AtomicBoolean(false);
+  
+  private final AtomicLong flushCount = new AtomicLong(0);
+  
+  private final AtomicLong flushLatencyTotal = new AtomicLong(0);
+  
+  private final AtomicLong lastFlushLatency = new AtomicLong(0);
+  
+  private final AtomicLong indexedCount = new AtomicLong(0);
+  
+  private final AtomicLong retriedCount = new AtomicLong(0);
+  
+  private final AtomicLong failedCount = new AtomicLong(0);
  
   /**
    * Initializes indexables
    */
   @Override
   public void setup() {
+    bulkSize = systemSettingController.getSettingValueInteger(SearchConsts.ELASTIC_BULK_SIZE, DEFAULT_BULK_SIZE);
+    bulkMaxAttempts = systemSettingController.getSettingValueInteger(SearchConsts.ELASTIC_BULK_MAX_ATTEMPTS, DEFAULT_BULK_MAX_ATTEMPTS);
+    
     RegisterIndexableEvent event = new RegisterIndexableEvent();
     registerIndexableEvent.fire(event);
     event.getIndexables().stream().forEach(this::registerIndexable);
   }
+  
+  /**
+   * Writes remaining queued operations before the client is closed
+   */
+  @Override
+  public void teardown() {
+    flush();
+  }
 
   /**
    * Indexes an indexable
@@ -64,10 +145,31 @@ public class IndexUpdater extends AbstractIndexHander {
       return;
     }
     
-    getClient().prepareIndex(getIndex(), indexable.getType(), indexable.getId().toString())
-      .setSource(serialize(indexable), XContentType.JSON)
-      .execute()
-      .actionGet();
+    enqueue(new IndexOperation(IndexOperationType.INDEX, indexable.getType(), indexable.getId().toString(), serialize(indexable)));
+  }
+  
+  /**
+   * Partially updates fields of an indexed document. 
+   * 
+   * Pending partial updates of same document are coalesced so that only the latest one is written
+   * 
+   * @param type document type
+   * @param id document id
+   * @param fields updated fields
+   */
+  @Lock (LockType.READ)
+  public void update(String type, String id, Map<String, Object> fields) {
+    if (!isEnabled()) {
+      logger.warn("Could not update entity. Search functions are disabled");
+      return;
+    }
+    
+    byte[] source = serializeFields(fields);
+    if (source == null) {
+      return;
+    }
+    
+    enqueue(new IndexOperation(IndexOperationType.UPDATE, type, id, source));
   }
   
   /**
@@ -81,12 +183,441 @@ public class IndexUpdater extends AbstractIndexHander {
       return;
     }
     
+    IndexOperation operation = new IndexOperation(IndexOperationType.DELETE, type, id, null);
+    if (rebuildIndex != null) {
+      rebuildDeletes.add(operation);
+    }
+    
+    enqueue(operation);
+  }
+  
+  /**
+   * Writes queued operations into the index in bulk requests. 
+   * 
+   * Only one flush is running at a time, concurrent calls return immediately.
+   */
+  @Lock (LockType.READ)
+  public void flush() {
+    if (!isEnabled() || !flushing.compareAndSet(false, true)) {
+      return;
+    }
+    
+    try {
+      List<IndexOperation> operations = bulkIndexQueue.drain(bulkSize);
+      while (!operations.isEmpty()) {
+        List<IndexOperation> refreshedOperations = refreshRetriedDocuments(operations);
+        if (!refreshedOperations.isEmpty()) {
+          executeBulk(refreshedOperations);
+        }
+        
+        if (operations.size() < bulkSize) {
+          break;
+        }
+        
+        operations = bulkIndexQueue.drain(bulkSize);
+      }
+    } finally {
+      flushing.set(false);
+    }
+  }
+  
+  /**
+   * Returns statistics of the bulk indexing pipeline
+   * 
+   * @return statistics of the bulk indexing pipeline
+   */
+  @Lock (LockType.READ)
+  public BulkIndexStatistics getStatistics() {
+    long flushes = flushCount.get();
+    long averageLatency = flushes > 0 ? flushLatencyTotal.get() / flushes : 0l;
+    return new BulkIndexStatistics(bulkIndexQueue.getDepth(), flushes, lastFlushLatency.get(), averageLatency, indexedCount.get(), retriedCount.get(), failedCount.get());
+  }
+  
+  /**
+   * Starts rebuilding the index. 
+   * 
+   * Creates a new versioned index with refresh disabled and all registered type mappings. 
+   * Until the rebuild is completed or aborted, all queued operations are written into 
+   * the new index as well as into the live one. Documents removed during the rebuild 
+   * are recorded, so that they can be removed again from the new index before it is taken into use.
+   * 
+   * @return name of the new index
+   */
+  public String startRebuild() {
+    if (!isEnabled()) {
+      throw new IllegalStateException("Search functions are disabled");
+    }
+    
+    if (rebuildIndex != null) {
+      throw new IllegalStateException(String.format("Index %s is already being rebuilt", rebuildIndex));
+    }
+    
+    Settings settings = Settings.builder()
+      .put(REFRESH_INTERVAL_SETTING, "-1")
+      .put(NUMBER_OF_REPLICAS_SETTING, 0)
+      .build();
+    
+    String result = createVersionedIndex(settings);
+    typeMappings.forEach((type, properties) -> updateTypeMapping(result, type, properties));
+    rebuildDeletes.clear();
+    rebuildIndex = result;
+    
+    return result;
+  }
+  
+  /**
+   * Loads indexables into the index being rebuilt. 
+   * 
+   * Documents are only created, so documents already written by live updates during 
+   * the rebuild are not overwritten by possibly older state. Documents that have been removed 
+   * during the rebuild are skipped.
+   * 
+   * @param targetIndex index being rebuilt
+   * @param indexables indexables
+   * @return number of failed documents
+   */
+  @Lock (LockType.READ)
+  public int bulkLoad(String targetIndex, List<? extends Indexable> indexables) {
+    if (indexables.isEmpty()) {
+      return 0;
+    }
+    
+    Set<String> removedKeys = getRebuildDeleteKeys();
+    BulkRequestBuilder bulkRequest = getClient().prepareBulk();
+    for (Indexable indexable : indexables) {
+      if (removedKeys.contains(IndexOperation.getDocumentKey(indexable.getType(), indexable.getId().toString()))) {
+        continue;
+      }
+      
+      bulkRequest.add(getClient().prepareIndex(targetIndex, indexable.getType(), indexable.getId().toString())
+        .setCreate(true)
+        .setSource(serialize(indexable), XContentType.JSON));
+    }
+    
+    if (bulkRequest.numberOfActions() == 0) {
+      return 0;
+    }
+    
+    int result = 0;
+    BulkResponse response = bulkRequest.execute().actionGet();
+    for (BulkItemResponse itemResponse : response.getItems()) {
+      if (itemResponse.isFailed() && itemResponse.getFailure().getStatus() != RestStatus.CONFLICT) {
+        logger.error("Failed to load {} {} into {}: {}", itemResponse.getType(), itemResponse.getId(), targetIndex, itemResponse.getFailureMessage());
+        result++;
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Completes index rebuild. 
+   * 
+   * Removes documents that have been removed during the rebuild from the rebuilt index, because 
+   * a chunk read before the removal might have been loaded after it. Then restores refresh on the 
+   * rebuilt index, atomically swaps the index alias to point into it and removes the previous index
+   * 
+   * @param targetIndex index being rebuilt
+   */
+  public void completeRebuild(String targetIndex) {
+    flush();
+    reapplyRebuildDeletes(targetIndex);
+    
+    IndicesAdminClient indices = getClient().admin().indices();
+    
+    indices.prepareUpdateSettings(targetIndex)
+      .setSettings(Settings.builder()
+        .put(REFRESH_INTERVAL_SETTING, DEFAULT_REFRESH_INTERVAL)
+        .put(NUMBER_OF_REPLICAS_SETTING, DEFAULT_NUMBER_OF_REPLICAS)
+        .build())
+      .execute()
+      .actionGet();
+    
+    indices.prepareRefresh(targetIndex)
+      .execute()
+      .actionGet();
+    
+    Set<String> aliasedIndices = new HashSet<>();
+    indices.prepareGetAliases(getIndex())
+      .execute()
+      .actionGet()
+      .getAliases()
+      .keysIt()
+      .forEachRemaining(aliasedIndices::add);
+    
+    IndicesAliasesRequestBuilder aliasesRequest = indices.prepareAliases()
+      .addAlias(targetIndex, getIndex());
+    
+    if (aliasedIndices.isEmpty()) {
+      // Index has been created before aliases were taken into use, so the alias replaces the concrete index
+      aliasesRequest.addAliasAction(AliasActions.removeIndex().index(getIndex()));
+    } else {
+      aliasesRequest.removeAlias(aliasedIndices.toArray(new String[0]), getIndex());
+    }
+    
+    aliasesRequest
+      .execute()
+      .actionGet();
+    
+    rebuildIndex = null;
+    rebuildDeletes.clear();
+    
+    if (!aliasedIndices.isEmpty()) {
+      indices.prepareDelete(aliasedIndices.toArray(new String[0]))
+        .execute()
+        .actionGet();
+    }
+  }
+  
+  /**
+   * Aborts index rebuild and removes the partially built index
+   * 
+   * @param targetIndex index being rebuilt
+   */
+  public void abortRebuild(String targetIndex) {
+    rebuildIndex = null;
+    rebuildDeletes.clear();
+    
     getClient()
-      .prepareDelete(getIndex(), type, id)
+      .admin()
+      .indices()
+      .prepareDelete(targetIndex)
       .execute()
       .actionGet();
   }
   
+  /**
+   * Removes documents that have been removed during the rebuild from the rebuilt index
+   * 
+   * @param targetIndex index being rebuilt
+   */
+  private void reapplyRebuildDeletes(String targetIndex) {
+    if (rebuildDeletes.isEmpty()) {
+      return;
+    }
+    
+    BulkRequestBuilder bulkRequest = getClient().prepareBulk();
+    for (IndexOperation operation : rebuildDeletes) {
+      bulkRequest.add(getClient().prepareDelete(targetIndex, operation.getType(), operation.getId()));
+    }
+    
+    BulkResponse response = bulkRequest.execute().actionGet();
+    for (BulkItemResponse itemResponse : response.getItems()) {
+      if (itemResponse.isFailed() && itemResponse.getFailure().getStatus() != RestStatus.NOT_FOUND) {
+        throw new IllegalStateException(String.format("Failed to remove %s %s from %s: %s", itemResponse.getType(), itemResponse.getId(), targetIndex, itemResponse.getFailureMessage()));
+      }
+    }
+  }
+  
+  /**
+   * Returns document keys of documents removed during the rebuild
+   * 
+   * @return document keys
+   */
+  private Set<String> getRebuildDeleteKeys() {
+    Set<String> result = new HashSet<>();
+    for (IndexOperation operation : rebuildDeletes) {
+      result.add(operation.getDocumentKey());
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Adds operation into the queue and triggers a flush when queue has grown over the bulk size
+   * 
+   * @param operation operation
+   */
+  private void enqueue(IndexOperation operation) {
+    int depth = bulkIndexQueue.offer(operation);
+    if (depth >= bulkSize && !flushing.get()) {
+      executorService.execute(this::flush);
+    }
+  }
+  
+  /**
+   * Recreates sources of retried full document operations from the current state of the entities. 
+   * 
+   * Source of an operation is serialized when the operation is queued, so a retried document could 
+   * otherwise overwrite partial updates that have been written while the operation was waiting for a retry. 
+   * Operations of entities that no longer exist are dropped
+   * 
+   * @param operations operations
+   * @return operations to be written
+   */
+  private List<IndexOperation> refreshRetriedDocuments(List<IndexOperation> operations) {
+    List<IndexOperation> result = new ArrayList<>(operations.size());
+    
+    for (IndexOperation operation : operations) {
+      if (operation.getOperationType() != IndexOperationType.INDEX || operation.getAttempts() == 0) {
+        result.add(operation);
+        continue;
+      }
+      
+      RefreshIndexableEvent event = new RefreshIndexableEvent(operation.getType(), operation.getId());
+      try {
+        refreshIndexableEvent.fire(event);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to recreate {} {}, retrying", operation.getType(), operation.getId(), e);
+        retryOperation(operation);
+        continue;
+      }
+      
+      if (event.getIndexable() != null) {
+        operation.setSource(serialize(event.getIndexable()));
+        result.add(operation);
+      } else {
+        logger.debug("Dropped retry of removed {} {}", operation.getType(), operation.getId());
+        bulkIndexQueue.complete(operation);
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Executes a bulk request for given operations. 
+   * 
+   * When the index is being rebuilt, operations are written into the rebuilt index as well
+   * 
+   * @param operations operations
+   */
+  private void executeBulk(List<IndexOperation> operations) {
+    BulkRequestBuilder bulkRequest = getClient().prepareBulk();
+    List<IndexOperation> requestOperations = new ArrayList<>(operations.size());
+    String targetIndex = rebuildIndex;
+    
+    for (IndexOperation operation : operations) {
+      addBulkOperation(bulkRequest, getIndex(), operation);
+      requestOperations.add(operation);
+      
+      if (targetIndex != null) {
+        addBulkOperation(bulkRequest, targetIndex, operation);
+        requestOperations.add(operation);
+        
+        if (operation.getOperationType() == IndexOperationType.DELETE) {
+          rebuildDeletes.add(operation);
+        }
+      }
+    }
+    
+    long startTime = System.currentTimeMillis();
+    BulkResponse response;
+    try {
+      response = bulkRequest.execute().actionGet();
+    } catch (ElasticsearchException e) {
+      logger.warn("Bulk index request failed, retrying {} operations", operations.size(), e);
+      operations.forEach(this::retryOperation);
+      return;
+    } finally {
+      recordFlushLatency(System.currentTimeMillis() - startTime);
+    }
+    
+    Set<IndexOperation> retryable = Collections.newSetFromMap(new IdentityHashMap<>());
+    Set<IndexOperation> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+    
+    for (BulkItemResponse itemResponse : response.getItems()) {
+      if (itemResponse.isFailed()) {
+        IndexOperation operation = requestOperations.get(itemResponse.getItemId());
+        if (isMissingDocumentUpdate(operation, itemResponse.getFailure().getStatus())) {
+          // Document has not been indexed yet, it will contain up-to-date fields when it is
+          logger.debug("Skipped partial update of missing document {} {} in {}", operation.getType(), operation.getId(), itemResponse.getIndex());
+        } else if (isRetryable(itemResponse.getFailure().getStatus())) {
+          retryable.add(operation);
+        } else {
+          logger.error("Failed to {} {} {} in {}: {}", operation.getOperationType(), operation.getType(), operation.getId(), itemResponse.getIndex(), itemResponse.getFailureMessage());
+          failed.add(operation);
+        }
+      }
+    }
+    
+    for (IndexOperation operation : operations) {
+      if (retryable.contains(operation)) {
+        retryOperation(operation);
+      } else if (failed.contains(operation)) {
+        failedCount.incrementAndGet();
+        bulkIndexQueue.complete(operation);
+      } else {
+        indexedCount.incrementAndGet();
+        bulkIndexQueue.complete(operation);
+      }
+    }
+  }
+  
+  /**
+   * Adds an operation into a bulk request
+   * 
+   * @param bulkRequest bulk request
+   * @param index target index
+   * @param operation operation
+   */
+  private void addBulkOperation(BulkRequestBuilder bulkRequest, String index, IndexOperation operation) {
+    switch (operation.getOperationType()) {
+      case INDEX:
+        bulkRequest.add(getClient().prepareIndex(index, operation.getType(), operation.getId())
+          .setSource(operation.getSource(), XContentType.JSON));
+      break;
+      case UPDATE:
+        bulkRequest.add(getClient().prepareUpdate(index, operation.getType(), operation.getId())
+          .setDoc(operation.getSource(), XContentType.JSON));
+      break;
+      case DELETE:
+        bulkRequest.add(getClient().prepareDelete(index, operation.getType(), operation.getId()));
+      break;
+    }
+  }
+  
+  /**
+   * Returns operation into the queue with exponential backoff or drops it if it has 
+   * exceeded the max attempts
+   * 
+   * @param operation operation
+   */
+  private void retryOperation(IndexOperation operation) {
+    if (operation.getAttempts() + 1 >= bulkMaxAttempts) {
+      logger.error("Giving up {} {} {} after {} attempts", operation.getOperationType(), operation.getType(), operation.getId(), bulkMaxAttempts);
+      failedCount.incrementAndGet();
+      bulkIndexQueue.complete(operation);
+      return;
+    }
+    
+    long delay = Math.min(RETRY_BASE_DELAY << operation.getAttempts(), RETRY_MAX_DELAY);
+    retriedCount.incrementAndGet();
+    bulkIndexQueue.retry(operation, delay);
+  }
+  
+  /**
+   * Returns whether failed operation with given status should be retried 
+   * 
+   * @param status failure status
+   * @return whether failed operation should be retried
+   */
+  private boolean isRetryable(RestStatus status) {
+    return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+  }
+  
+  /**
+   * Returns whether failure is caused by a partial update of a document that does not exist 
+   * 
+   * @param operation operation
+   * @param status failure status
+   * @return whether failure is caused by a partial update of a missing document
+   */
+  private boolean isMissingDocumentUpdate(IndexOperation operation, RestStatus status) {
+    return operation.getOperationType() == IndexOperationType.UPDATE && status == RestStatus.NOT_FOUND;
+  }
+  
+  /**
+   * Records bulk request latency
+   * 
+   * @param latency latency in milliseconds
+   */
+  private void recordFlushLatency(long latency) {
+    flushCount.incrementAndGet();
+    flushLatencyTotal.addAndGet(latency);
+    lastFlushLatency.set(latency);
+  }
+  
   /**
    * Registers an indexable
    * 
@@ -98,7 +629,8 @@ public class IndexUpdater extends AbstractIndexHander {
     try {
       Indexable instance = indexable.newInstance();
       readProperties(indexable, properties);
-      updateTypeMapping(instance.getType(), properties);
+      typeMappings.put(instance.getType(), properties);
+      updateTypeMapping(getIndex(), instance.getType(), properties);
       
     } catch (IntrospectionException e) {
       logger.error("Failed to inspect indexable {}", indexable.getName(), e);
@@ -171,25 +703,25 @@ public class IndexUpdater extends AbstractIndexHander {
   /**
    * Updates type mapping into Elastic Search
    * 
+   * @param index index
    * @param type type
    * @param properties properties
    */
-  private void updateTypeMapping(String type, Map<String, Map<String, Object>> properties) {
+  private void updateTypeMapping(String index, String type, Map<String, Map<String, Object>> properties) {
     if (!isEnabled()) {
       logger.warn("Could not update type mapping. Search functions are disabled");
       return;
     }
     
-    ObjectMapper objectMapper = new ObjectMapper();
     try {
       Map<String, Map<String, Map<String, Object>>> mapping = new HashMap<>();
       mapping.put("properties", properties);
-      String source = objectMapper.writeValueAsString(mapping);
+      String source = getSerializer().writeValueAsString(mapping);
       
       getClient()
         .admin()
         .indices()
-        .preparePutMapping(getIndex())
+        .preparePutMapping(index)
         .setType(type)
         .setSource(source, XContentType.JSON)
         .execute()
@@ -200,6 +732,22 @@ public class IndexUpdater extends AbstractIndexHander {
     }
   }
   
+  /**
+   * Serializes partial document fields
+   * 
+   * @param fields fields
+   * @return serialized fields or null if serialization fails
+   */
+  private byte[] serializeFields(Map<String, Object> fields) {
+    try {
+      return getSerializer().writeValueAsBytes(fields);
+    } catch (JsonProcessingException e) {
+      logger.error("Failed to serialize partial document", e);
+    }
+    
+    return null;
+  }
+  
   /**
    * Returns fields from an indexable using reflection API
    * 
@@ -0,0 +1,68 @@
+package fi.metatavu.dcfb.server.search.io;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Serializer for documents written into the search index. 
+ * 
+ * Object mapper is configured once and writers are cached per serialized class. Both are 
+ * immutable and thread-safe, so the serializer is shared by all index handlers.
+ */
+@ApplicationScoped
+public class IndexableSerializer {
+  
+  private final ObjectMapper objectMapper;
+  
+  private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+  
+  /**
+   * Constructor
+   */
+  public IndexableSerializer() {
+    objectMapper = new ObjectMapper();
+    objectMapper.registerModule(new JavaTimeModule());
+    objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+  }
+  
+  /**
+   * Serializes value into JSON bytes
+   * 
+   * @param value value
+   * @return serialized value
+   * @throws JsonProcessingException when serialization fails
+   */
+  public byte[] writeValueAsBytes(Object value) throws JsonProcessingException {
+    return getWriter(value.getClass()).writeValueAsBytes(value);
+  }
+  
+  /**
+   * Serializes value into JSON string
+   * 
+   * @param value value
+   * @return serialized value
+   * @throws JsonProcessingException when serialization fails
+   */
+  public String writeValueAsString(Object value) throws JsonProcessingException {
+    return getWriter(value.getClass()).writeValueAsString(value);
+  }
+  
+  /**
+   * Returns cached writer for a class
+   * 
+   * @param valueClass class
+   * @return writer
+   */
+  private ObjectWriter getWriter(Class<?> valueClass) {
+    return writers.computeIfAbsent(valueClass, objectMapper::writerFor);
+  }
+
+}
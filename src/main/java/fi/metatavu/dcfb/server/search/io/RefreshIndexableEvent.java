@@ -0,0 +1,63 @@
+package fi.metatavu.dcfb.server.search.io;
+
+import fi.metatavu.dcfb.server.search.index.Indexable;
+
+/**
+ * Event fired when a document is about to be reindexed and needs to be recreated from the current state of the entity
+ */
+public class RefreshIndexableEvent {
+
+  private final String type;
+
+  private final String id;
+
+  private Indexable indexable;
+
+  /**
+   * Constructor
+   *
+   * @param type document type
+   * @param id document id
+   */
+  public RefreshIndexableEvent(String type, String id) {
+    this.type = type;
+    this.id = id;
+  }
+
+  /**
+   * Returns document type
+   *
+   * @return document type
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * Returns document id
+   *
+   * @return document id
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Returns recreated indexable
+   *
+   * @return recreated indexable or null if entity no longer exists
+   */
+  public Indexable getIndexable() {
+    return indexable;
+  }
+
+  /**
+   * Sets recreated indexable
+   *
+   * @param indexable recreated indexable
+   */
+  public void setIndexable(Indexable indexable) {
+    this.indexable = indexable;
+  }
+
+}
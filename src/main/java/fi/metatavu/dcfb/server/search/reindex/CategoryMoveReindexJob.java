@@ -0,0 +1,71 @@
+package fi.metatavu.dcfb.server.search.reindex;
+
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+
+import fi.metatavu.dcfb.server.categories.CategoryController;
+import fi.metatavu.dcfb.server.categories.CategoryMoveEvent;
+import fi.metatavu.dcfb.server.search.handlers.ItemIndexHandler;
+
+/**
+ * Job that reindexes items of a moved category and its subcategories in background. 
+ * 
+ * Items carry ids of their category ancestry in the index, so the ancestry of all items 
+ * within the moved subtree needs to be updated.
+ */
+@ApplicationScoped
+public class CategoryMoveReindexJob {
+  
+  private static final int CHUNK_SIZE = 200;
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  private CategoryController categoryController;
+
+  @Inject
+  private ItemIndexHandler itemIndexHandler;
+  
+  @Resource
+  private ManagedExecutorService executorService;
+  
+  /**
+   * Category move event listener. Starts reindexing items of the moved subtree after the move has been committed
+   * 
+   * @param event move event
+   */
+  public void onCategoryMove(@Observes (during = TransactionPhase.AFTER_SUCCESS) CategoryMoveEvent event) {
+    categoryController.invalidateCategoryTree();
+    executorService.execute(() -> run(event.getCategoryId()));
+  }
+  
+  /**
+   * Runs the job
+   * 
+   * @param categoryId moved category id
+   */
+  @SuppressWarnings ("squid:S2221")
+  private void run(UUID categoryId) {
+    try {
+      List<UUID> categoryIds = categoryController.listSubtreeCategoryIds(categoryId);
+      UUID lastId = null;
+      
+      do {
+        lastId = itemIndexHandler.indexItemsByCategories(categoryIds, lastId, CHUNK_SIZE);
+      } while (lastId != null);
+    } catch (Exception e) {
+      logger.error("Failed to reindex items of moved category {}", categoryId, e);
+    }
+  }
+  
+}
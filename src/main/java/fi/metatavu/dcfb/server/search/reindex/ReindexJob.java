@@ -0,0 +1,126 @@
+package fi.metatavu.dcfb.server.search.reindex;
+
+import java.util.UUID;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+
+import fi.metatavu.dcfb.server.search.handlers.AbstractIndexableHandler;
+import fi.metatavu.dcfb.server.search.handlers.CategoryIndexHandler;
+import fi.metatavu.dcfb.server.search.handlers.IndexableChunk;
+import fi.metatavu.dcfb.server.search.handlers.ItemIndexHandler;
+import fi.metatavu.dcfb.server.search.handlers.LocationIndexHandler;
+import fi.metatavu.dcfb.server.search.index.Indexable;
+import fi.metatavu.dcfb.server.search.io.IndexUpdater;
+
+/**
+ * Job that rebuilds the search index from the database. 
+ * 
+ * Entities are streamed in id ordered chunks into a new versioned index which replaces 
+ * the live index once all entities have been loaded.
+ */
+@ApplicationScoped
+public class ReindexJob {
+  
+  private static final int CHUNK_SIZE = 200;
+
+  @Inject
+  private Logger logger;
+
+  @Inject
+  private IndexUpdater indexUpdater;
+
+  @Inject
+  private CategoryIndexHandler categoryIndexHandler;
+
+  @Inject
+  private LocationIndexHandler locationIndexHandler;
+
+  @Inject
+  private ItemIndexHandler itemIndexHandler;
+  
+  @Resource
+  private ManagedExecutorService executorService;
+  
+  private ReindexStatus status = new ReindexStatus(ReindexState.IDLE);
+  
+  /**
+   * Starts the reindex job in background
+   * 
+   * @return status of started job or null if a job is already running
+   */
+  public synchronized ReindexStatus start() {
+    if (status.getState() == ReindexState.RUNNING) {
+      return null;
+    }
+    
+    ReindexStatus jobStatus = new ReindexStatus(ReindexState.RUNNING);
+    status = jobStatus;
+    executorService.execute(() -> run(jobStatus));
+    
+    return jobStatus;
+  }
+  
+  /**
+   * Returns status of latest reindex job
+   * 
+   * @return status of latest reindex job
+   */
+  public synchronized ReindexStatus getStatus() {
+    return status;
+  }
+  
+  /**
+   * Runs the job
+   * 
+   * @param jobStatus job status
+   */
+  @SuppressWarnings ("squid:S2221")
+  private void run(ReindexStatus jobStatus) {
+    String targetIndex = null;
+    
+    try {
+      targetIndex = indexUpdater.startRebuild();
+      jobStatus.start(targetIndex);
+      logger.info("Rebuilding search index into {}", targetIndex);
+      
+      reindex(jobStatus, targetIndex, categoryIndexHandler);
+      reindex(jobStatus, targetIndex, locationIndexHandler);
+      reindex(jobStatus, targetIndex, itemIndexHandler);
+      
+      indexUpdater.completeRebuild(targetIndex);
+      jobStatus.complete();
+      logger.info("Search index rebuilt into {}. {} documents at {} docs/sec", targetIndex, jobStatus.getProcessed(), jobStatus.getDocsPerSecond());
+    } catch (Exception e) {
+      logger.error("Failed to rebuild search index", e);
+      jobStatus.fail(e.getMessage());
+      
+      if (targetIndex != null) {
+        indexUpdater.abortRebuild(targetIndex);
+      }
+    }
+  }
+  
+  /**
+   * Streams all entities of a handler into the target index
+   * 
+   * @param jobStatus job status
+   * @param targetIndex target index
+   * @param handler index handler
+   */
+  private <T, I extends Indexable> void reindex(ReindexStatus jobStatus, String targetIndex, AbstractIndexableHandler<T, I> handler) {
+    UUID lastId = null;
+    
+    do {
+      IndexableChunk<I> chunk = handler.createIndexables(lastId, CHUNK_SIZE);
+      int failed = indexUpdater.bulkLoad(targetIndex, chunk.getIndexables());
+      jobStatus.addProcessed(chunk.getType(), chunk.getIndexables().size(), failed);
+      lastId = chunk.getLastId();
+    } while (lastId != null);
+  }
+  
+}
@@ -0,0 +1,16 @@
+package fi.metatavu.dcfb.server.search.reindex;
+
+/**
+ * Enumeration for reindex job states
+ */
+public enum ReindexState {
+
+  IDLE,
+
+  RUNNING,
+
+  COMPLETED,
+
+  FAILED
+
+}
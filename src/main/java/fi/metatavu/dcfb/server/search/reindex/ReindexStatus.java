@@ -0,0 +1,136 @@
+package fi.metatavu.dcfb.server.search.reindex;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Progress status of a reindex job
+ */
+public class ReindexStatus {
+
+  private ReindexState state;
+
+  private String index;
+
+  private OffsetDateTime startedAt;
+
+  private OffsetDateTime finishedAt;
+
+  private long processed;
+
+  private long failed;
+
+  private Map<String, Long> processedByType;
+
+  private String error;
+
+  /**
+   * Constructor
+   * 
+   * @param state state
+   */
+  public ReindexStatus(ReindexState state) {
+    this.state = state;
+    this.processed = 0;
+    this.failed = 0;
+    this.processedByType = new LinkedHashMap<>();
+  }
+
+  public synchronized ReindexState getState() {
+    return state;
+  }
+
+  public synchronized String getIndex() {
+    return index;
+  }
+
+  public synchronized OffsetDateTime getStartedAt() {
+    return startedAt;
+  }
+
+  public synchronized OffsetDateTime getFinishedAt() {
+    return finishedAt;
+  }
+
+  public synchronized long getProcessed() {
+    return processed;
+  }
+
+  public synchronized long getFailed() {
+    return failed;
+  }
+
+  public synchronized Map<String, Long> getProcessedByType() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(processedByType));
+  }
+
+  public synchronized String getError() {
+    return error;
+  }
+
+  /**
+   * Returns throughput of the job as documents per second
+   * 
+   * @return throughput of the job as documents per second
+   */
+  public synchronized double getDocsPerSecond() {
+    if (startedAt == null) {
+      return 0d;
+    }
+    
+    OffsetDateTime endTime = finishedAt != null ? finishedAt : OffsetDateTime.now();
+    long millis = Duration.between(startedAt, endTime).toMillis();
+    if (millis <= 0) {
+      return 0d;
+    }
+    
+    return processed * 1000d / millis;
+  }
+
+  /**
+   * Marks job started
+   * 
+   * @param index name of the index being built
+   */
+  synchronized void start(String index) {
+    this.state = ReindexState.RUNNING;
+    this.index = index;
+    this.startedAt = OffsetDateTime.now();
+  }
+
+  /**
+   * Adds processed documents into the progress
+   * 
+   * @param type elastic search type
+   * @param processedCount number of processed documents
+   * @param failedCount number of failed documents
+   */
+  synchronized void addProcessed(String type, long processedCount, long failedCount) {
+    this.processed += processedCount;
+    this.failed += failedCount;
+    this.processedByType.merge(type, processedCount, Long::sum);
+  }
+
+  /**
+   * Marks job completed
+   */
+  synchronized void complete() {
+    this.state = ReindexState.COMPLETED;
+    this.finishedAt = OffsetDateTime.now();
+  }
+
+  /**
+   * Marks job failed
+   * 
+   * @param error error message
+   */
+  synchronized void fail(String error) {
+    this.state = ReindexState.FAILED;
+    this.error = error;
+    this.finishedAt = OffsetDateTime.now();
+  }
+
+}
@@ -1,6 +1,11 @@
 package fi.metatavu.dcfb.server.search.searchers;
 
+import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -10,9 +15,12 @@ import javax.inject.Inject;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.TermsQueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
 
 import fi.metatavu.dcfb.server.search.io.IndexReader;
 
@@ -22,6 +30,10 @@ import fi.metatavu.dcfb.server.search.io.IndexReader;
 public abstract class AbstractSearcher {
 
   public static final int DEFALT_MAX_RESULTS = 20;
+  
+  private static final String TIEBREAKER_FIELD = "_uid";
+  
+  private static final String INVALID_CURSOR_MESSAGE = "Page token does not match the sort of the search";
 
   @Inject
   private IndexReader indexReader;
@@ -34,39 +46,121 @@ public abstract class AbstractSearcher {
   public abstract String getType();
 
   /**
-   * Executes a search and returns result as UUIDs
+   * Executes a search and returns result as UUIDs. 
+   * 
+   * When cursor is given, search is paginated with search_after instead of offset. In that case 
+   * hits are additionally sorted by document id, so that the order of hits with equal sort values is stable. 
+   * Without explicit sorts hits are sorted by score before the document id, like they would be without a cursor. 
+   * Cursors are bound to the sorts they were created with and can not be used with different sorts. 
    * 
    * @param query query
-   * @param firstResult first result
+   * @param sorts sorts
+   * @param firstResult first result. Ignored when cursor is given
+   * @param cursor cursor to the page or null to paginate by offset
    * @param maxResults max results
    * @return result
+   * @throws InvalidSearchCursorException when cursor was created with different sorts
    */
-  protected SearchResult<UUID> executeSearch(QueryBuilder query, List<SortBuilder<?>> sorts, Long firstResult, Long maxResults) {
+  protected SearchResult<UUID> executeSearch(QueryBuilder query, List<SortBuilder<?>> sorts, Long firstResult, SearchCursor cursor, Long maxResults) {
+    int size = maxResults != null ? maxResults.intValue() : DEFALT_MAX_RESULTS;
+    
     SearchRequestBuilder requestBuilder = indexReader
       .requestBuilder(getType())
       .setQuery(query)
-      .setFrom(firstResult != null ? firstResult.intValue() : 0)
-      .setSize(maxResults != null ? maxResults.intValue() : DEFALT_MAX_RESULTS);
+      .setSize(size);
 
-    sorts.stream().forEach(requestBuilder::addSort);
+    String sortKey = null;
+    
+    if (cursor == null) {
+      requestBuilder.setFrom(firstResult != null ? firstResult.intValue() : 0);
+      sorts.stream().forEach(requestBuilder::addSort);
+    } else {
+      List<SortBuilder<?>> cursorSorts = new ArrayList<>(sorts);
+      if (cursorSorts.isEmpty()) {
+        cursorSorts.add(SortBuilders.scoreSort().order(SortOrder.DESC));
+      }
+      
+      cursorSorts.add(SortBuilders.fieldSort(TIEBREAKER_FIELD).order(SortOrder.ASC));
+      cursorSorts.stream().forEach(requestBuilder::addSort);
+      sortKey = getSortKey(cursorSorts);
+      
+      if (!cursor.isFirst()) {
+        if (!sortKey.equals(cursor.getSortKey()) || cursor.getSortValues().length != cursorSorts.size()) {
+          throw new InvalidSearchCursorException(INVALID_CURSOR_MESSAGE);
+        }
+        
+        requestBuilder.searchAfter(cursor.getSortValues());
+      }
+    }
     
     SearchResponse response = indexReader.executeSearch(requestBuilder);
     SearchHits searchHits = response.getHits();
-    return fromHits(searchHits);
+    SearchCursor nextCursor = cursor != null ? getNextCursor(searchHits, size, sortKey) : null;
+    
+    return fromHits(searchHits, nextCursor);
+  }
+  
+  /**
+   * Creates terms query that matches any of given ids in given keyword field. 
+   * 
+   * Query is meant to be used in filter context, where it does not affect scoring and can be cached by Elasticsearch
+   * 
+   * @param field field
+   * @param ids ids
+   * @return terms query
+   */
+  protected TermsQueryBuilder createTermsQuery(String field, Collection<UUID> ids) {
+    return termsQuery(field, ids.stream()
+      .map(UUID::toString)
+      .collect(Collectors.toList()));
+  }
+  
+  /**
+   * Returns cursor to the page following given hits
+   * 
+   * @param searchHits hits
+   * @param size page size
+   * @param sortKey key of the sorts of the search
+   * @return cursor to the next page or null if page was not full
+   */
+  private SearchCursor getNextCursor(SearchHits searchHits, int size, String sortKey) {
+    SearchHit[] hits = searchHits.getHits();
+    if (hits.length == 0 || hits.length < size) {
+      return null;
+    }
+    
+    return new SearchCursor(sortKey, hits[hits.length - 1].getSortValues());
+  }
+  
+  /**
+   * Returns key that identifies given sorts. 
+   * 
+   * Key covers sorted fields, sort orders and sort parameters, such as the geo point of a distance sort
+   * 
+   * @param sorts sorts
+   * @return sort key
+   */
+  private String getSortKey(List<SortBuilder<?>> sorts) {
+    String sortJson = sorts.stream()
+      .map(Object::toString)
+      .collect(Collectors.joining(","));
+    
+    return UUID.nameUUIDFromBytes(sortJson.getBytes(StandardCharsets.UTF_8)).toString();
   }
   
   /**
    * Extracts search result for hits
    * 
    * @param searchHits hits
+   * @param nextCursor cursor to the next page or null if not available
    * @return search result
    */
-  private SearchResult<UUID> fromHits(SearchHits searchHits) {
+  private SearchResult<UUID> fromHits(SearchHits searchHits, SearchCursor nextCursor) {
     List<UUID> result = Arrays.stream(searchHits.getHits())
       .map(SearchHit::getId)
       .map(UUID::fromString)
       .collect(Collectors.toList());
 
-    return new SearchResult<>(result, searchHits.getTotalHits());
+    return new SearchResult<>(result, searchHits.getTotalHits(), nextCursor);
   }
 }
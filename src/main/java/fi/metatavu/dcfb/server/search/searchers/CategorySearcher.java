@@ -1,8 +1,8 @@
 package fi.metatavu.dcfb.server.search.searchers;
 
 import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
-import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
 import static org.elasticsearch.index.query.QueryBuilders.queryStringQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
 import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
 
 import java.util.Collections;
@@ -33,30 +33,31 @@ public class CategorySearcher extends AbstractSearcher {
    * @param parentId parent id of result categories. Omitted if null
    * @param slug filter results by slug. Omitted if null
    * @param search free text search that must match the result. Omitted if null
-   * @param firstResult first result. Defaults to 0
+   * @param firstResult first result. Defaults to 0. Ignored if cursor is given
+   * @param cursor cursor to the page when paginating with search_after or null to paginate by offset
    * @param maxResults max results. Defaults to 20
    * @return search result 
    */
-  public SearchResult<UUID> searchCategories(UUID parentId, String slug, String search, Long firstResult, Long maxResults, List<CategoryListSort> sorts) {
+  public SearchResult<UUID> searchCategories(UUID parentId, String slug, String search, Long firstResult, SearchCursor cursor, Long maxResults, List<CategoryListSort> sorts) {
     boolean matchAll = parentId == null && slug == null && search == null;
     if (matchAll) {
-      return executeSearch(matchAllQuery(), createSorts(sorts), firstResult, maxResults);
+      return executeSearch(matchAllQuery(), createSorts(sorts), firstResult, cursor, maxResults);
     } else {    
       BoolQueryBuilder query = boolQuery();
       
       if (parentId != null) {
-        query.must(matchQuery(IndexableCategory.PARENT_ID_FIELD, parentId.toString()));
+        query.filter(termQuery(IndexableCategory.PARENT_ID_FIELD, parentId.toString()));
       }
 
       if (slug != null) {
-        query.must(matchQuery(IndexableCategory.SLUG_FIELD, slug));
+        query.filter(termQuery(IndexableCategory.SLUG_FIELD, slug));
       }
 
       if (search != null) {
         query.must(queryStringQuery(search));
       }
 
-      return executeSearch(query, createSorts(sorts), firstResult, maxResults);
+      return executeSearch(query, createSorts(sorts), firstResult, cursor, maxResults);
     }
   }
 
@@ -0,0 +1,14 @@
+package fi.metatavu.dcfb.server.search.searchers;
+
+/**
+ * Exception thrown when a search cursor does not match the sorts of the search it is used with
+ */
+public class InvalidSearchCursorException extends RuntimeException {
+
+  private static final long serialVersionUID = -2318465096210957381L;
+
+  public InvalidSearchCursorException(String message) {
+    super(message);
+  }
+
+}
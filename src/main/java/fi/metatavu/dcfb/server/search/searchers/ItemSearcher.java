@@ -1,8 +1,6 @@
 package fi.metatavu.dcfb.server.search.searchers;
 
 import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
-import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
-import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
 import static org.elasticsearch.index.query.QueryBuilders.queryStringQuery;
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
 import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
@@ -17,7 +15,6 @@ import java.util.stream.Collectors;
 import javax.enterprise.context.ApplicationScoped;
 
 import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.index.query.ConstantScoreQueryBuilder;
 import org.elasticsearch.search.sort.SortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
@@ -37,65 +34,66 @@ public class ItemSearcher extends AbstractSearcher {
    * 
    * @param nearLat prefer items near geo point
    * @param nearLon prefer items near geo point
-   * @param sellerIds view only seller ids
-   * @param categoryIds category ids that must exist on the result. Omitted if null
-   * @param locationId location id that must exist on the result. Omitted if null
+   * @param sellerIds view only seller ids. Omitted if null or empty
+   * @param categoryIds category ids that must exist on the result either as category or as an ancestor of the category. Omitted if null or empty
+   * @param subtreeCategoryIds ids of given categories and all their subcategories. Used for documents indexed without category path. Ignored if null
+   * @param locationIds location ids that must exist on the result. Omitted if null or empty
    * @param search free text search that must match the result. Omitted if null
    * @param currentUserId currentUserId
    * @param includeExhausted whether to include exhausted items
-   * @param firstResult first result. Defaults to 0
+   * @param firstResult first result. Defaults to 0. Ignored if cursor is given
+   * @param cursor cursor to the page when paginating with search_after or null to paginate by offset
    * @param maxResults max results. Defaults to 20
    * @return search result 
    */
   @SuppressWarnings ("squid:S00107")
-  public SearchResult<UUID> searchItems(Double nearLat, Double nearLon, List<UUID> sellerIds, List<UUID> categoryIds, List<UUID> locationIds, 
-      String search, UUID currentUserId, boolean includeExhausted, Long firstResult, Long maxResults, List<ItemListSort> sorts) {
+  public SearchResult<UUID> searchItems(Double nearLat, Double nearLon, List<UUID> sellerIds, List<UUID> categoryIds, List<UUID> subtreeCategoryIds, 
+      List<UUID> locationIds, String search, UUID currentUserId, boolean includeExhausted, Long firstResult, SearchCursor cursor, Long maxResults, List<ItemListSort> sorts) {
     
-    boolean matchAll = categoryIds == null && locationIds == null && search == null && sellerIds == null && includeExhausted;
-    if (matchAll) {
-      ConstantScoreQueryBuilder query = constantScoreQuery(createPublicOrInAllowedIdsQuery(currentUserId.toString()));
-      query.boost(1.0f);
-      return executeSearch(query, createSorts(nearLat, nearLon, sorts), firstResult, maxResults);
-    } else {
-      BoolQueryBuilder query = boolQuery();
-      query.must(createPublicOrInAllowedIdsQuery(currentUserId.toString()));
-
-      if (categoryIds != null) {
-        query.must(createOrMatchQuery(IndexableItem.CATEGORY_ID_FIELD, categoryIds));
-      }
+    BoolQueryBuilder query = boolQuery();
+    query.filter(createPublicOrInAllowedIdsQuery(currentUserId.toString()));
 
-      if (locationIds != null) {
-        query.must(createOrMatchQuery(IndexableItem.LOCATION_ID_FIELD, locationIds));
-      }
-      
-      if (search != null) {
-        query.must(queryStringQuery(search));
-      }
-      
-      if (sellerIds != null) {
-        query.must(createOrMatchQuery(IndexableItem.SELLER_ID_FIELD, sellerIds));
-      }
-      
-      if (!includeExhausted) {
-        query.must(rangeQuery(IndexableItem.ITEMS_LEFT).gt(0));
-      }
-      
-      return executeSearch(query, createSorts(nearLat, nearLon, sorts), firstResult, maxResults);
+    if (categoryIds != null && !categoryIds.isEmpty()) {
+      query.filter(createCategoryQuery(categoryIds, subtreeCategoryIds));
+    }
+
+    if (locationIds != null && !locationIds.isEmpty()) {
+      query.filter(createTermsQuery(IndexableItem.LOCATION_ID_FIELD, locationIds));
+    }
+    
+    if (sellerIds != null && !sellerIds.isEmpty()) {
+      query.filter(createTermsQuery(IndexableItem.SELLER_ID_FIELD, sellerIds));
     }
+    
+    if (!includeExhausted) {
+      query.filter(rangeQuery(IndexableItem.ITEMS_LEFT).gt(0));
+    }
+    
+    if (search != null) {
+      query.must(queryStringQuery(search));
+    }
+    
+    return executeSearch(query, createSorts(nearLat, nearLon, sorts), firstResult, cursor, maxResults);
   }
 
   /**
-   * Creates match queries for all given ids for given field. 
-   * Fields are combined within bool query with or operator 
+   * Creates query that matches items in given categories or in their subcategories. 
+   * 
+   * Items are matched by category path and, for documents indexed before the category path was 
+   * added, by the category id of the item
    * 
-   * @param field field
-   * @param ids ids
-   * @return bool query
+   * @param categoryIds category ids
+   * @param subtreeCategoryIds ids of given categories and all their subcategories or null
+   * @return created query
    */
-  private BoolQueryBuilder createOrMatchQuery(String field, List<UUID> ids) {
-    BoolQueryBuilder matchOrQuery = boolQuery();
-    ids.forEach(id -> matchOrQuery.should(matchQuery(field, id.toString())));
-    return matchOrQuery;
+  private BoolQueryBuilder createCategoryQuery(List<UUID> categoryIds, List<UUID> subtreeCategoryIds) {
+    BoolQueryBuilder categoryQuery = boolQuery();
+    categoryQuery.should(createTermsQuery(IndexableItem.CATEGORY_PATH_FIELD, categoryIds));
+    if (subtreeCategoryIds != null) {
+      categoryQuery.should(createTermsQuery(IndexableItem.CATEGORY_ID_FIELD, subtreeCategoryIds));
+    }
+    
+    return categoryQuery;
   }
 
   private BoolQueryBuilder createPublicOrInAllowedIdsQuery(String currentUserId) {
@@ -0,0 +1,62 @@
+package fi.metatavu.dcfb.server.search.searchers;
+
+/**
+ * Cursor for search_after based pagination. 
+ * 
+ * Cursor holds sort values of the last hit of the previous page and a key of the sorts that produced them. 
+ * First page is represented by a cursor without sort values
+ */
+public class SearchCursor {
+  
+  private final String sortKey;
+  
+  private final Object[] sortValues;
+  
+  /**
+   * Constructor
+   * 
+   * @param sortKey key of the sorts that produced the sort values
+   * @param sortValues sort values of the last hit of the previous page
+   */
+  public SearchCursor(String sortKey, Object[] sortValues) {
+    this.sortKey = sortKey;
+    this.sortValues = sortValues;
+  }
+  
+  /**
+   * Returns cursor that points to the first page
+   * 
+   * @return cursor that points to the first page
+   */
+  public static SearchCursor first() {
+    return new SearchCursor(null, new Object[0]);
+  }
+  
+  /**
+   * Returns key of the sorts that produced the sort values
+   * 
+   * @return key of the sorts or null if cursor points to the first page
+   */
+  public String getSortKey() {
+    return sortKey;
+  }
+  
+  /**
+   * Returns sort values of the last hit of the previous page
+   * 
+   * @return sort values of the last hit of the previous page
+   */
+  public Object[] getSortValues() {
+    return sortValues;
+  }
+  
+  /**
+   * Returns whether cursor points to the first page
+   * 
+   * @return whether cursor points to the first page
+   */
+  public boolean isFirst() {
+    return sortValues.length == 0;
+  }
+  
+}
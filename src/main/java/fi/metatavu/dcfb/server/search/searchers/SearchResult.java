@@ -11,6 +11,7 @@ public class SearchResult <T> {
   
   private List<T> result;
   private long totalHits;
+  private SearchCursor nextCursor;
   
   /**
    * Constructor
@@ -19,8 +20,20 @@ public class SearchResult <T> {
    * @param totalHits
    */
   public SearchResult(List<T> result, long totalHits) {
+    this(result, totalHits, null);
+  }
+  
+  /**
+   * Constructor
+   * 
+   * @param result results
+   * @param totalHits total hit count
+   * @param nextCursor cursor to the next page or null if there are no more pages
+   */
+  public SearchResult(List<T> result, long totalHits, SearchCursor nextCursor) {
     this.result = result;
     this.totalHits = totalHits;
+    this.nextCursor = nextCursor;
   }
   
   /**
@@ -41,4 +54,15 @@ public class SearchResult <T> {
     return totalHits;
   }
   
+  /**
+   * Returns cursor to the next page. 
+   * 
+   * Cursor is only available when search was executed with a cursor and the page was full
+   * 
+   * @return cursor to the next page or null if there are no more pages
+   */
+  public SearchCursor getNextCursor() {
+    return nextCursor;
+  }
+  
 }
@@ -0,0 +1,39 @@
+package fi.metatavu.dcfb.server.settings;
+
+/**
+ * Snapshot of system setting cache statistics
+ */
+public class SystemSettingCacheStatistics {
+
+  private long hitCount;
+
+  private long missCount;
+
+  private int size;
+
+  /**
+   * Constructor
+   *
+   * @param hitCount number of reads served from the cache
+   * @param missCount number of reads that loaded settings from the database
+   * @param size number of cached settings
+   */
+  public SystemSettingCacheStatistics(long hitCount, long missCount, int size) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.size = size;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+}
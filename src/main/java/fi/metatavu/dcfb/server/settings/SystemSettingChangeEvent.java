@@ -0,0 +1,29 @@
+package fi.metatavu.dcfb.server.settings;
+
+/**
+ * Event fired when a system setting has been created, updated or deleted
+ */
+public class SystemSettingChangeEvent {
+  
+  private String key;
+  
+  /**
+   * Constructor
+   * 
+   * @param key setting key
+   */
+  public SystemSettingChangeEvent(String key) {
+    super();
+    this.key = key;
+  }
+
+  /**
+   * Returns setting key
+   * 
+   * @return setting key
+   */
+  public String getKey() {
+    return key;
+  }
+
+}
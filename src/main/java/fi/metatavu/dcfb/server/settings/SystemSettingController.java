@@ -1,11 +1,17 @@
 package fi.metatavu.dcfb.server.settings;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
 import javax.inject.Inject;
 
 import org.apache.commons.lang3.BooleanUtils;
@@ -19,16 +25,56 @@ import fi.metatavu.dcfb.server.persistence.model.SystemSetting;
 /**
  * Controller for system settings.
  * 
+ * Setting values are served from an in-memory cache that is loaded at startup and invalidated 
+ * when settings are changed through the controller. Optionally the cache is also reloaded 
+ * periodically to pick up changes made directly into the database.
+ * 
  * @author Antti Leppä
  */
 @ApplicationScoped
 public class SystemSettingController {
   
+  private static final String CACHE_TTL_SETTING = "system-settings-cache-ttl";
+  
   @Inject
   private Logger logger;
 
   @Inject
   private SystemSettingDAO systemSettingDAO;
+
+  @Inject
+  private Event<SystemSettingChangeEvent> systemSettingChangeEvent;
+  
+  private volatile Map<String, String> cachedValues;
+  
+  private volatile long cacheExpiresAt;
+  
+  private final AtomicLong cacheGeneration = new AtomicLong(0);
+  
+  private final AtomicLong cacheHits = new AtomicLong(0);
+  
+  private final AtomicLong cacheMisses = new AtomicLong(0);
+  
+  /**
+   * Loads settings into the cache when application starts
+   * 
+   * @param event initialization event
+   */
+  public void onApplicationInitialized(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    getCachedValues();
+  }
+  
+  /**
+   * Invalidates the cache after a transaction that changed settings has completed. 
+   * 
+   * Cache is also invalidated immediately on change, but a concurrent read may have reloaded the 
+   * cache before the change was committed.
+   * 
+   * @param event change event
+   */
+  public void onSystemSettingChange(@Observes (during = TransactionPhase.AFTER_COMPLETION) SystemSettingChangeEvent event) {
+    invalidateCache();
+  }
   
   /**
    * Returns system setting by key or defaultValue if setting is not defined
@@ -37,9 +83,9 @@ public class SystemSettingController {
    * @return setting value
    */
   public String getSettingValue(String key, String defaultValue) {
-    SystemSetting systemSetting = systemSettingDAO.findByKey(key);
-    if (systemSetting != null) {
-      return systemSetting.getValue();
+    String value = getCachedValues().get(key);
+    if (value != null) {
+      return value;
     }
     
     return defaultValue;
@@ -90,7 +136,7 @@ public class SystemSettingController {
   public void setSettingValue(String key, String value) {
     SystemSetting systemSetting = systemSettingDAO.findByKey(key);
     if (systemSetting != null) {
-      systemSettingDAO.updateValue(systemSetting, value);
+      updateSystemSetting(systemSetting, value);
     } else {
       createSystemSetting(key, value);
     }
@@ -114,12 +160,25 @@ public class SystemSettingController {
    * @return setting value
    */
   public Integer getSettingValueInteger(String key, Integer defaultValue) {
-    SystemSetting systemSetting = systemSettingDAO.findByKey(key);
-    if (systemSetting != null) {
-      Integer result = NumberUtils.createInteger(systemSetting.getValue());
-      if (result != null) {
-        return result;
-      }
+    Integer result = NumberUtils.createInteger(getSettingValue(key));
+    if (result != null) {
+      return result;
+    }
+    
+    return defaultValue;
+  }
+  
+  /**
+   * Returns system setting by key or defaultValue if setting is not defined
+   * 
+   * @param key system setting key
+   * @param defaultValue returned value if setting is not defined
+   * @return setting value
+   */
+  public Long getSettingValueLong(String key, Long defaultValue) {
+    Long result = NumberUtils.createLong(getSettingValue(key));
+    if (result != null) {
+      return result;
     }
     
     return defaultValue;
@@ -143,9 +202,9 @@ public class SystemSettingController {
    * @return setting value
    */
   public boolean getSettingValueBoolean(String key, Boolean defaultValue) {
-    SystemSetting systemSetting = systemSettingDAO.findByKey(key);
-    if (systemSetting != null) {
-      return BooleanUtils.toBoolean(systemSetting.getValue());
+    String value = getSettingValue(key);
+    if (value != null) {
+      return BooleanUtils.toBoolean(value);
     }
     
     return defaultValue;
@@ -160,7 +219,9 @@ public class SystemSettingController {
    * @return SystemSetting
    */
   public SystemSetting createSystemSetting(String key, String value) {
-    return systemSettingDAO.create(UUID.randomUUID(), key, value);
+    SystemSetting result = systemSettingDAO.create(UUID.randomUUID(), key, value);
+    settingChanged(key);
+    return result;
   }
   
   /**
@@ -177,7 +238,9 @@ public class SystemSettingController {
       return null;
     }
     
-    return systemSettingDAO.updateValue(systemSetting, value);
+    SystemSetting result = systemSettingDAO.updateValue(systemSetting, value);
+    settingChanged(result.getKey());
+    return result;
   }
   
   /**
@@ -206,7 +269,9 @@ public class SystemSettingController {
    * @param systemSetting setting
    */
   public void deleteSystemSetting(SystemSetting systemSetting) {
+    String key = systemSetting.getKey();
     systemSettingDAO.delete(systemSetting);
+    settingChanged(key);
   }
   
   /**
@@ -228,14 +293,83 @@ public class SystemSettingController {
   public Map<String, String> getSettingsWithPrefix(String prefix) {
     Map<String, String> result = new HashMap<>();
     
-    List<SystemSetting> systemSettings = systemSettingDAO.listAll();
-    for (SystemSetting systemSetting : systemSettings) {
-      if (StringUtils.startsWith(systemSetting.getKey(), prefix)) {
-        result.put(systemSetting.getKey(), systemSetting.getValue());
+    getCachedValues().forEach((key, value) -> {
+      if (StringUtils.startsWith(key, prefix)) {
+        result.put(key, value);
       }
+    });
+    
+    return result;
+  }
+  
+  /**
+   * Invalidates cached setting values. Values are reloaded from the database on next access 
+   */
+  public void invalidateCache() {
+    cacheGeneration.incrementAndGet();
+    cachedValues = null;
+  }
+  
+  /**
+   * Returns setting cache statistics
+   * 
+   * @return setting cache statistics
+   */
+  public SystemSettingCacheStatistics getCacheStatistics() {
+    Map<String, String> values = cachedValues;
+    return new SystemSettingCacheStatistics(cacheHits.get(), cacheMisses.get(), values != null ? values.size() : 0);
+  }
+  
+  /**
+   * Returns cached setting values. Values are loaded from the database if the cache is empty or expired
+   * 
+   * @return cached setting values
+   */
+  private Map<String, String> getCachedValues() {
+    Map<String, String> result = cachedValues;
+    if (result != null && (cacheExpiresAt == 0 || cacheExpiresAt > System.currentTimeMillis())) {
+      cacheHits.incrementAndGet();
+      return result;
+    }
+    
+    cacheMisses.incrementAndGet();
+    
+    long generation = cacheGeneration.get();
+    result = loadValues();
+    
+    if (cacheGeneration.get() == generation) {
+      long ttl = NumberUtils.toLong(result.get(CACHE_TTL_SETTING), 0l);
+      cacheExpiresAt = ttl > 0 ? System.currentTimeMillis() + (ttl * 1000) : 0;
+      cachedValues = result;
     }
     
     return result;
   }
   
+  /**
+   * Loads all setting values from the database
+   * 
+   * @return setting values
+   */
+  private Map<String, String> loadValues() {
+    Map<String, String> result = new HashMap<>();
+    
+    List<SystemSetting> systemSettings = systemSettingDAO.listAll();
+    for (SystemSetting systemSetting : systemSettings) {
+      result.put(systemSetting.getKey(), systemSetting.getValue());
+    }
+    
+    return Collections.unmodifiableMap(result);
+  }
+  
+  /**
+   * Invalidates the cache and notifies listeners about a changed setting
+   * 
+   * @param key setting key
+   */
+  private void settingChanged(String key) {
+    invalidateCache();
+    systemSettingChangeEvent.fire(new SystemSettingChangeEvent(key));
+  }
+  
 }
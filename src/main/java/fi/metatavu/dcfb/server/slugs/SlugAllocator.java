@@ -0,0 +1,44 @@
+package fi.metatavu.dcfb.server.slugs;
+
+import java.util.List;
+import java.util.function.Function;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * Allocates unique slugs. 
+ * 
+ * Slug is used as is when it is free, otherwise it is suffixed with the next free number (e.g. slug-3)
+ */
+@ApplicationScoped
+public class SlugAllocator {
+  
+  /**
+   * Returns unique slug
+   * 
+   * @param slug slug
+   * @param reservedSlugLister function that lists reserved slugs that are equal to given slug or consist of the slug followed by a numeric suffix
+   * @return unique slug
+   */
+  public String getUniqueSlug(String slug, Function<String, List<String>> reservedSlugLister) {
+    List<String> reservedSlugs = reservedSlugLister.apply(slug);
+    if (!reservedSlugs.contains(slug)) {
+      return slug;
+    }
+    
+    String suffixPrefix = String.format("%s-", slug);
+    long maxSuffix = 0;
+    
+    for (String reservedSlug : reservedSlugs) {
+      if (reservedSlug.startsWith(suffixPrefix)) {
+        maxSuffix = Math.max(maxSuffix, NumberUtils.toLong(StringUtils.removeStart(reservedSlug, suffixPrefix), 0l));
+      }
+    }
+    
+    return String.format("%s-%d", slug, maxSuffix + 1);
+  }
+  
+}
@@ -0,0 +1,223 @@
+package fi.metatavu.dcfb.server.stripe;
+
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+import javax.transaction.Transactional.TxType;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import com.stripe.model.Charge;
+import com.stripe.model.Event;
+import com.stripe.model.StripeObject;
+import com.stripe.net.ApiResource;
+
+import fi.metatavu.dcfb.server.items.ItemController;
+import fi.metatavu.dcfb.server.persistence.dao.StripeWebhookEventDAO;
+import fi.metatavu.dcfb.server.persistence.model.Item;
+import fi.metatavu.dcfb.server.persistence.model.ItemReservation;
+import fi.metatavu.dcfb.server.persistence.model.StripeWebhookEvent;
+import fi.metatavu.dcfb.server.persistence.model.StripeWebhookEventStatus;
+import fi.metatavu.dcfb.server.webhooks.WebhookException;
+
+/**
+ * Controller for recording and processing received Stripe webhook events
+ */
+@ApplicationScoped
+public class StripeWebhookEventController {
+  
+  private static final String CHARGE_SUCCEEDED = "charge.succeeded";
+  
+  private static final int MAX_ATTEMPTS = 8;
+  
+  private static final long RETRY_BASE_DELAY = 30l;
+  
+  private static final long RETRY_MAX_DELAY = 3600l;
+  
+  private static final int MAX_ERROR_LENGTH = 1024;
+  
+  @Inject
+  private Logger logger;
+  
+  @Inject
+  private ItemController itemController;
+
+  @Inject
+  private StripeWebhookEventDAO stripeWebhookEventDAO;
+
+  @Inject
+  private javax.enterprise.event.Event<StripeWebhookEventRecordedEvent> recordedEvent;
+  
+  /**
+   * Records a verified Stripe event for processing. Event is processed after current transaction has been committed. 
+   * 
+   * Events that have already been recorded are ignored.
+   * 
+   * @param event Stripe event
+   * @param payload raw event payload
+   * @return whether the event was recorded or false if it had already been recorded
+   */
+  @Transactional
+  public boolean record(Event event, String payload) {
+    UUID id = UUID.randomUUID();
+    if (!stripeWebhookEventDAO.createIfAbsent(id, event.getId(), event.getType(), getItemId(event), payload)) {
+      logger.info("Ignoring already received Stripe event {}", event.getId());
+      return false;
+    }
+    
+    recordedEvent.fire(new StripeWebhookEventRecordedEvent(id));
+    return true;
+  }
+  
+  /**
+   * Lists events that are due for processing in the order they were received. 
+   * 
+   * Only the oldest queued event of each item is listed
+   * 
+   * @param maxResults max results
+   * @return events due for processing
+   */
+  public List<StripeWebhookEvent> listDueEvents(int maxResults) {
+    return stripeWebhookEventDAO.listDue(OffsetDateTime.now(), maxResults);
+  }
+  
+  /**
+   * Processes a recorded event in a new transaction. 
+   * 
+   * Event is locked for the duration of processing and changes are committed together 
+   * with the processed status, so each event is applied only once.
+   * 
+   * @param id recorded event id
+   * @throws WebhookException when event processing fails
+   */
+  @Transactional (value = TxType.REQUIRES_NEW, rollbackOn = WebhookException.class)
+  public void process(UUID id) throws WebhookException {
+    StripeWebhookEvent stripeWebhookEvent = stripeWebhookEventDAO.findByIdForUpdate(id);
+    if (stripeWebhookEvent == null || stripeWebhookEvent.getStatus() != StripeWebhookEventStatus.QUEUED) {
+      return;
+    }
+    
+    Event event = ApiResource.GSON.fromJson(stripeWebhookEvent.getPayload(), Event.class);
+    
+    switch (event.getType()) {
+      case CHARGE_SUCCEEDED:
+        handleChargeSucceeded(event);
+      break;
+      default:
+        logger.info("received webhook from stripe with type {}", event.getType());
+    }
+    
+    stripeWebhookEventDAO.updateStatus(stripeWebhookEvent, StripeWebhookEventStatus.PROCESSED);
+  }
+  
+  /**
+   * Schedules a failed event for a retry with exponential backoff or marks it 
+   * as failed after max attempts
+   * 
+   * @param id recorded event id
+   * @param e failure
+   */
+  @Transactional (value = TxType.REQUIRES_NEW)
+  public void markFailed(UUID id, Exception e) {
+    StripeWebhookEvent stripeWebhookEvent = stripeWebhookEventDAO.findById(id);
+    if (stripeWebhookEvent == null) {
+      return;
+    }
+    
+    int attempts = stripeWebhookEvent.getAttempts() + 1;
+    String error = StringUtils.abbreviate(e.getMessage(), MAX_ERROR_LENGTH);
+    
+    if (attempts >= MAX_ATTEMPTS) {
+      logger.error("Giving up processing Stripe event {} after {} attempts", stripeWebhookEvent.getEventId(), attempts, e);
+      stripeWebhookEventDAO.updateAttempt(stripeWebhookEvent, StripeWebhookEventStatus.FAILED, stripeWebhookEvent.getNextAttemptAt(), error);
+      return;
+    }
+    
+    long delay = Math.min(RETRY_BASE_DELAY << (attempts - 1), RETRY_MAX_DELAY);
+    logger.warn("Failed to process Stripe event {}, retrying in {} seconds", stripeWebhookEvent.getEventId(), delay, e);
+    stripeWebhookEventDAO.updateAttempt(stripeWebhookEvent, StripeWebhookEventStatus.QUEUED, OffsetDateTime.now().plus(delay, ChronoUnit.SECONDS), error);
+  }
+  
+  /**
+   * Handles charge succeeded event by selling the reservation the charge was made for
+   * 
+   * @param event event
+   * @throws WebhookException when event does not refer to an existing reservation
+   */
+  private void handleChargeSucceeded(Event event) throws WebhookException {
+    UUID itemReservationId = getItemReservationId(event);
+    if (itemReservationId == null) {
+      throw new WebhookException("Received charge without item details");
+    }
+    
+    ItemReservation itemReservation = itemController.findItemReservation(itemReservationId);
+    if (itemReservation == null) {
+      throw new WebhookException("Received charge with non existing item reservation");
+    }
+    
+    Item item = itemReservation.getItem();
+    if (item == null) {
+      throw new WebhookException("Received charge with non existing item");
+    }
+    
+    itemController.sellReservation(itemReservation);
+  }
+  
+  /**
+   * Resolves id of the item an event concerns. Used to apply events of the same item in order
+   * 
+   * @param event event
+   * @return item id or null if event does not concern an item
+   */
+  private UUID getItemId(Event event) {
+    if (!CHARGE_SUCCEEDED.equals(event.getType())) {
+      return null;
+    }
+    
+    UUID itemReservationId;
+    try {
+      itemReservationId = getItemReservationId(event);
+    } catch (WebhookException e) {
+      return null;
+    }
+    
+    ItemReservation itemReservation = itemReservationId != null ? itemController.findItemReservation(itemReservationId) : null;
+    if (itemReservation == null || itemReservation.getItem() == null) {
+      return null;
+    }
+    
+    return itemReservation.getItem().getId();
+  }
+  
+  /**
+   * Returns id of the item reservation a charge event was made for
+   * 
+   * @param event charge event
+   * @return item reservation id or null if charge does not refer to a reservation
+   * @throws WebhookException when reservation id is invalid
+   */
+  private UUID getItemReservationId(Event event) throws WebhookException {
+    StripeObject data = event.getData().getObject();
+    Charge charge = ApiResource.GSON.fromJson(data.toJson(), Charge.class);
+    Map<String, String> metadata = charge.getMetadata();
+    
+    String itemReservationIdStr = metadata != null ? metadata.get(StripeConsts.STRIPE_CHARGE_ITEM_RESERVATION_ID) : null;
+    if (StringUtils.isBlank(itemReservationIdStr)) {
+      return null;
+    }
+    
+    try {
+      return UUID.fromString(itemReservationIdStr);
+    } catch (IllegalArgumentException e) {
+      throw new WebhookException("Received charge with invalid itemId", e);
+    }
+  }
+  
+}
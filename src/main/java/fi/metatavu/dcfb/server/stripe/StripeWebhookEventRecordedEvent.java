@@ -0,0 +1,31 @@
+package fi.metatavu.dcfb.server.stripe;
+
+import java.util.UUID;
+
+/**
+ * Event fired when a received Stripe webhook event has been recorded for processing
+ */
+public class StripeWebhookEventRecordedEvent {
+  
+  private UUID id;
+  
+  /**
+   * Constructor
+   * 
+   * @param id recorded event id
+   */
+  public StripeWebhookEventRecordedEvent(UUID id) {
+    super();
+    this.id = id;
+  }
+
+  /**
+   * Returns recorded event id
+   * 
+   * @return recorded event id
+   */
+  public UUID getId() {
+    return id;
+  }
+
+}
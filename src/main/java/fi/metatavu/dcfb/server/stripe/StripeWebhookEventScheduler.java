@@ -0,0 +1,25 @@
+package fi.metatavu.dcfb.server.stripe;
+
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Scheduler that processes Stripe webhook events that are due for a retry
+ */
+@Startup
+@Singleton
+@ApplicationScoped
+public class StripeWebhookEventScheduler {
+  
+  @Inject
+  private StripeWebhookEventWorker stripeWebhookEventWorker;
+
+  @Schedule(hour = "*", minute = "*", second = "*/10", persistent = false, info = "Every 10 seconds")
+  public void processEvents() {
+    stripeWebhookEventWorker.dispatch();
+  }
+  
+}
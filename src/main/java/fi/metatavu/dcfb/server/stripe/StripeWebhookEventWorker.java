@@ -0,0 +1,84 @@
+package fi.metatavu.dcfb.server.stripe;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import fi.metatavu.dcfb.server.persistence.model.StripeWebhookEvent;
+import fi.metatavu.dcfb.server.webhooks.WebhookException;
+
+/**
+ * Worker that processes recorded Stripe webhook events. 
+ * 
+ * Events are processed one at a time in the order they were received. When an event fails 
+ * or is waiting for a retry, later events of the same item are held back until it has been processed. 
+ * Events of other items are processed meanwhile.
+ */
+@ApplicationScoped
+public class StripeWebhookEventWorker {
+  
+  private static final int BATCH_SIZE = 100;
+  
+  @Inject
+  private StripeWebhookEventController stripeWebhookEventController;
+  
+  @Resource
+  private ManagedExecutorService executorService;
+  
+  private final AtomicBoolean dispatching = new AtomicBoolean(false);
+  
+  /**
+   * Starts processing as soon as the transaction that recorded the event has been committed
+   * 
+   * @param event recorded event
+   */
+  public void onEventRecorded(@Observes (during = TransactionPhase.AFTER_SUCCESS) StripeWebhookEventRecordedEvent event) {
+    executorService.execute(this::dispatch);
+  }
+  
+  /**
+   * Processes due events. 
+   * 
+   * Only one dispatch is running at a time, concurrent calls return immediately.
+   */
+  public void dispatch() {
+    if (!dispatching.compareAndSet(false, true)) {
+      return;
+    }
+    
+    try {
+      List<StripeWebhookEvent> events;
+      do {
+        events = stripeWebhookEventController.listDueEvents(BATCH_SIZE);
+        processEvents(events);
+      } while (events.size() == BATCH_SIZE);
+    } finally {
+      dispatching.set(false);
+    }
+  }
+  
+  /**
+   * Processes events in given order. 
+   * 
+   * Failed events are scheduled for a retry, which removes them and the later events of 
+   * their item from the events due for processing.
+   * 
+   * @param events events
+   */
+  private void processEvents(List<StripeWebhookEvent> events) {
+    for (StripeWebhookEvent event : events) {
+      try {
+        stripeWebhookEventController.process(event.getId());
+      } catch (WebhookException | RuntimeException e) {
+        stripeWebhookEventController.markFailed(event.getId(), e);
+      }
+    }
+  }
+  
+}
@@ -18,7 +18,8 @@ public interface WebhookHandler {
    * Handles webhook request
    * 
    * @param request http servlet request
+   * @param payload raw request body
    */
-  public void handle(HttpServletRequest request) throws WebhookException;
+  public void handle(HttpServletRequest request, byte[] payload) throws WebhookException;
 
 }
\ No newline at end of file
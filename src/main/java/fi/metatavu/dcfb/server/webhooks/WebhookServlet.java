@@ -1,8 +1,11 @@
 package fi.metatavu.dcfb.server.webhooks;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Writer;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.enterprise.inject.Any;
 import javax.enterprise.inject.Instance;
@@ -18,7 +21,10 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
 /**
- * Servlet handling receiving webhooks
+ * Servlet handling receiving webhooks. 
+ * 
+ * Handlers are resolved by type from a registry that is built once on the first request. Registry holds 
+ * client proxies of the handlers, so request scoped handlers are still instantiated once per request.
  * 
  * @author Heikki Kurhinen
  */
@@ -27,6 +33,8 @@ import org.slf4j.Logger;
 public class WebhookServlet extends HttpServlet {
 
   private static final long serialVersionUID = 8456693177050096253L;
+  
+  private static final int BUFFER_SIZE = 4096;
 
   @Inject
   private Logger logger;
@@ -35,6 +43,8 @@ public class WebhookServlet extends HttpServlet {
   @Any
   private Instance<WebhookHandler> webhookHandlers;
   
+  private transient volatile Map<String, WebhookHandler> handlerRegistry;
+  
   @Override
   protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
     String type = StringUtils.stripStart(request.getPathInfo(), "/");
@@ -45,23 +55,67 @@ public class WebhookServlet extends HttpServlet {
 
     logger.info("Received webhook of type: {}", type);
 
-    Iterator<WebhookHandler> webhookHandlerIterator = webhookHandlers.iterator();
+    WebhookHandler webhookHandler = getHandlerRegistry().get(type);
+    if (webhookHandler == null) {
+      sendResponse(response, HttpServletResponse.SC_NOT_FOUND, "Not found");
+      return;
+    }
+    
     try {
-      while (webhookHandlerIterator.hasNext()) {
-        WebhookHandler webhookHandler = webhookHandlerIterator.next();
-        if (StringUtils.equals(webhookHandler.getType(), type)) {
-          webhookHandler.handle(request);
-          sendResponse(response, HttpServletResponse.SC_OK, "OK");
-          return;
-        }
-      }
+      webhookHandler.handle(request, readPayload(request));
+      sendResponse(response, HttpServletResponse.SC_OK, "OK");
     } catch (WebhookException e) {
       logger.error("Error processing webhook", e);
       sendResponse(response, HttpServletResponse.SC_BAD_REQUEST, "webhook processing failed");
-      return;
+    }
+  }
+  
+  /**
+   * Returns registry of webhook handlers by type. Registry is built on first call
+   * 
+   * @return registry of webhook handlers by type
+   */
+  private Map<String, WebhookHandler> getHandlerRegistry() {
+    Map<String, WebhookHandler> result = handlerRegistry;
+    if (result == null) {
+      synchronized (this) {
+        result = handlerRegistry;
+        if (result == null) {
+          result = new HashMap<>();
+          for (WebhookHandler webhookHandler : webhookHandlers) {
+            result.put(webhookHandler.getType(), webhookHandler);
+          }
+          
+          handlerRegistry = result;
+        }
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Reads raw request body
+   * 
+   * @param request http servlet request
+   * @return request body
+   * @throws WebhookException when reading fails
+   */
+  private byte[] readPayload(HttpServletRequest request) throws WebhookException {
+    int contentLength = request.getContentLength();
+    ByteArrayOutputStream result = new ByteArrayOutputStream(contentLength > 0 ? contentLength : BUFFER_SIZE);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    
+    try (InputStream inputStream = request.getInputStream()) {
+      int read;
+      while ((read = inputStream.read(buffer)) != -1) {
+        result.write(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      throw new WebhookException(e);
     }
     
-    sendResponse(response, HttpServletResponse.SC_NOT_FOUND, "Not found");
+    return result.toByteArray();
   }
 
   /**
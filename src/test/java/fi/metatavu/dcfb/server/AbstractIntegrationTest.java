@@ -50,11 +50,13 @@ public abstract class AbstractIntegrationTest extends AbstractTest {
     insertSystemSetting("keycloak-admin-client-id", "api");
     insertSystemSetting("keycloak-admin-username", ADMIN_USERNAME);
     insertSystemSetting("keycloak-admin-password", ADMIN_PASSWORD);
+    flushCache();
   }
   
   @After
   public void teardownKeycloakSettings() {
     deleteSystemSettings("keycloak-admin-realm", "keycloak-admin-server-url", "keycloak-admin-client-secret", "keycloak-admin-client-id", "keycloak-admin-username", "keycloak-admin-password", "test");
+    flushCache();
   }
   
   /**
@@ -103,7 +105,7 @@ public abstract class AbstractIntegrationTest extends AbstractTest {
   }
 
   /**
-   * Flushes JPA cache
+   * Flushes JPA and system setting caches
    */
   protected void flushCache() {
     given()
@@ -237,6 +239,7 @@ public abstract class AbstractIntegrationTest extends AbstractTest {
     executeInsert("INSERT INTO SystemSetting (id, settingkey, value) VALUES (?, ?, ?)", UUID.randomUUID(), "mailgun-apikey", apiKey);
     executeInsert("INSERT INTO SystemSetting (id, settingkey, value) VALUES (?, ?, ?)", UUID.randomUUID(), "mailgun-sender-email", senderEmail);
     executeInsert("INSERT INTO SystemSetting (id, settingkey, value) VALUES (?, ?, ?)", UUID.randomUUID(), "mailgun-sender-name", senderName);
+    flushCache();
     
     MailgunMocker mailgunMocker = new MailgunMocker(String.format("/%s", path), domain, apiKey);
     mailgunMocker.startMock();
@@ -251,6 +254,7 @@ public abstract class AbstractIntegrationTest extends AbstractTest {
   protected void stopMailgunMocker(MailgunMocker mailgunMocker) {
     mailgunMocker.stopMock();
     executeDelete("DELETE FROM SystemSetting WHERE settingKey in ('mailgun-apiurl', 'mailgun-domain', 'mailgun-apikey', 'mailgun-sender-email', 'mailgun-sender-name')");
+    flushCache();
   }
   
   private void insertSystemSetting(String key, String value) {
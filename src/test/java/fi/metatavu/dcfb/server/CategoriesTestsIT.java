@@ -6,21 +6,28 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import static org.awaitility.Awaitility.*;
+import static io.restassured.RestAssured.given;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import feign.FeignException;
+import io.restassured.response.Response;
 import fi.metatavu.dcfb.client.CategoriesApi;
 import fi.metatavu.dcfb.client.Category;
 import fi.metatavu.dcfb.client.CategoryListSort;
@@ -154,6 +161,30 @@ public class CategoriesTestsIT extends AbstractIntegrationTest {
     }
   }
 
+  @Test
+  public void testUniqueSlugs() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      assertEquals("duplicate", createSlugCategory(dataBuilder, "duplicate"));
+      assertEquals("duplicate-1", createSlugCategory(dataBuilder, "duplicate"));
+      assertEquals("duplicate-2", createSlugCategory(dataBuilder, "duplicate"));
+
+      // Slugs that would match unescaped wildcards of the percent and underscore slugs
+      createSlugCategory(dataBuilder, "percentxxslug-7");
+      createSlugCategory(dataBuilder, "underscorexslug-7");
+      
+      assertEquals("percent%slug", createSlugCategory(dataBuilder, "percent%slug"));
+      assertEquals("percent%slug-1", createSlugCategory(dataBuilder, "percent%slug"));
+      assertEquals("percent%slug-2", createSlugCategory(dataBuilder, "percent%slug"));
+      
+      assertEquals("underscore_slug", createSlugCategory(dataBuilder, "underscore_slug"));
+      assertEquals("underscore_slug-1", createSlugCategory(dataBuilder, "underscore_slug"));
+      assertEquals("underscore_slug-2", createSlugCategory(dataBuilder, "underscore_slug"));
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+  
   @Test
   public void testSearchCategoriesBySlug() throws IOException, URISyntaxException {
     TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
@@ -243,6 +274,103 @@ public class CategoriesTestsIT extends AbstractIntegrationTest {
     }
   }
 
+  @Test
+  public void testSearchCategoriesPageToken() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      CategoriesApi categoriesApi = dataBuilder.getAnonymousCategoriesApi();
+      
+      Set<UUID> categoryIds = new HashSet<>();
+      for (int i = 0; i < 5; i++) {
+        categoryIds.add(dataBuilder.createSimpleCategory().getId());
+      }
+      
+      waitCategoryCount(categoriesApi, 5);
+      
+      String accessToken = getAnonymousToken();
+      List<UUID> pagedIds = new ArrayList<>();
+      String pageToken = "";
+      int pageCount = 0;
+      
+      while (pageToken != null) {
+        Response response = given()
+          .baseUri(getBasePath())
+          .header("Authorization", String.format("Bearer %s", accessToken))
+          .queryParam("pageToken", pageToken)
+          .queryParam("maxResults", 2)
+          .get("/v1/categories")
+          .then()
+          .statusCode(200)
+          .extract()
+          .response();
+        
+        response.jsonPath().getList("id", String.class).stream().map(UUID::fromString).forEach(pagedIds::add);
+        pageToken = response.getHeader("Next-Page-Token");
+        pageCount++;
+      }
+      
+      assertEquals(3, pageCount);
+      assertEquals(5, pagedIds.size());
+      assertEquals(categoryIds, new HashSet<>(pagedIds));
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+
+  @Test
+  public void testSearchCategoriesMismatchingPageToken() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      CategoriesApi categoriesApi = dataBuilder.getAnonymousCategoriesApi();
+      
+      for (int i = 0; i < 3; i++) {
+        dataBuilder.createSimpleCategory();
+      }
+      
+      waitCategoryCount(categoriesApi, 3);
+      
+      String accessToken = getAnonymousToken();
+      
+      String pageToken = given()
+        .baseUri(getBasePath())
+        .header("Authorization", String.format("Bearer %s", accessToken))
+        .queryParam("pageToken", "")
+        .queryParam("maxResults", 2)
+        .get("/v1/categories")
+        .then()
+        .statusCode(200)
+        .extract()
+        .header("Next-Page-Token");
+      
+      assertNotNull(pageToken);
+      
+      given()
+        .baseUri(getBasePath())
+        .header("Authorization", String.format("Bearer %s", accessToken))
+        .queryParam("pageToken", pageToken)
+        .queryParam("maxResults", 2)
+        .queryParam("sort", CategoryListSort.MODIFIED_AT_DESC.toString())
+        .get("/v1/categories")
+        .then()
+        .statusCode(400);
+      
+      Map<String, Object> token = readJsonMap(new ByteArrayInputStream(Base64.getUrlDecoder().decode(pageToken)));
+      token.put("values", Collections.singletonList(1));
+      String forgedPageToken = Base64.getUrlEncoder().withoutPadding().encodeToString(getObjectMapper().writeValueAsBytes(token));
+      
+      given()
+        .baseUri(getBasePath())
+        .header("Authorization", String.format("Bearer %s", accessToken))
+        .queryParam("pageToken", forgedPageToken)
+        .queryParam("maxResults", 2)
+        .get("/v1/categories")
+        .then()
+        .statusCode(400);
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+
   @Test
   public void testSearchCategoriesSortDates() throws IOException, URISyntaxException {
     TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
@@ -458,4 +586,19 @@ public class CategoriesTestsIT extends AbstractIntegrationTest {
   }
   
 
-}
+}  /**
+   * Creates a category with given slug
+   * 
+   * @param dataBuilder test data builder
+   * @param slug requested slug
+   * @return slug allocated for the category
+   * @throws IOException thrown on communication failure
+   */
+  private String createSlugCategory(TestDataBuilder dataBuilder, String slug) throws IOException {
+    Category payload = new Category();
+    payload.setTitle(dataBuilder.createLocalized("slug category"));
+    payload.setSlug(slug);
+    return dataBuilder.createCategory(payload).getSlug();
+  }
+  
+
@@ -5,22 +5,32 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 import static org.awaitility.Awaitility.*;
+import static io.restassured.RestAssured.given;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
 import feign.FeignException;
+import io.restassured.path.json.JsonPath;
 import fi.metatavu.dcfb.client.Category;
 import fi.metatavu.dcfb.client.Image;
 import fi.metatavu.dcfb.client.Item;
@@ -36,6 +46,8 @@ import fi.metatavu.dcfb.client.Location;
 public class ItemsTestsIT extends AbstractIntegrationTest {
   
   private static final ZoneId TIMEZONE = ZoneId.of("Europe/Helsinki");
+  private static final String RESOURCE_SERVER_CLIENT_ID = "api";
+  private static final String RESOURCE_SERVER_CLIENT_SECRET = "0e0facfe-8922-48d3-b3d3-8cbc50bd2ada";
 
   @Test
   public void testCreateItem() throws IOException, URISyntaxException {
@@ -251,6 +263,80 @@ public class ItemsTestsIT extends AbstractIntegrationTest {
     }
   }
   
+  @Test
+  public void testExpiredReservation() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      Category simpleCategory = dataBuilder.createSimpleCategory();
+      Item item = dataBuilder.createSimpleItem(simpleCategory.getId(), null);
+      ItemsApi adminItemApi = dataBuilder.getAdminItemApi();
+      
+      ItemReservation itemReservation = dataBuilder.createItemReservation(item.getId(), 10l);
+      assertEquals(new Long(10l), adminItemApi.findItem(item.getId()).getReservedAmount());
+      
+      executeUpdate("UPDATE itemreservation SET expiresat = NOW() - INTERVAL '1 minute' WHERE id = ?", itemReservation.getId());
+      
+      await().atMost(3, TimeUnit.MINUTES).until(() -> {
+        return adminItemApi.findItem(item.getId()).getReservedAmount() == 0l;
+      });
+      
+      Item foundItem = adminItemApi.findItem(item.getId());
+      assertEquals(new Long(15l), foundItem.getAmount());
+      assertEquals(new Long(0l), foundItem.getSoldAmount());
+      
+      try {
+        adminItemApi.findItemReservation(item.getId(), itemReservation.getId());
+        fail("Expired reservation should not be found");
+      } catch (FeignException e) {
+        assertEquals(404, e.status());
+      }
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+  
+  @Test
+  public void testConcurrentReservations() throws Exception {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    ExecutorService executorService = Executors.newFixedThreadPool(10);
+    try {
+      Category simpleCategory = dataBuilder.createSimpleCategory();
+      Item item = dataBuilder.createSimpleItem(simpleCategory.getId(), null);
+      ItemsApi adminItemApi = dataBuilder.getAdminItemApi();
+      
+      ItemReservation payload = new ItemReservation();
+      payload.setAmount(1l);
+      
+      List<Callable<Boolean>> reservers = new ArrayList<>();
+      for (int i = 0; i < item.getAmount() * 3; i++) {
+        reservers.add(() -> {
+          try {
+            return adminItemApi.createItemReservation(item.getId(), payload) != null;
+          } catch (FeignException e) {
+            assertEquals(400, e.status());
+            return false;
+          }
+        });
+      }
+      
+      long succeeded = 0;
+      for (Future<Boolean> result : executorService.invokeAll(reservers)) {
+        if (result.get()) {
+          succeeded++;
+        }
+      }
+      
+      assertEquals(item.getAmount().longValue(), succeeded);
+      
+      Item foundItem = adminItemApi.findItem(item.getId());
+      assertEquals(item.getAmount(), foundItem.getReservedAmount());
+      assertEquals(new Long(0l), foundItem.getSoldAmount());
+    } finally {
+      executorService.shutdown();
+      dataBuilder.clean();
+    }
+  }
+  
   @Test
   public void testSearchItemsByUser() throws IOException, URISyntaxException {
     TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
@@ -397,6 +483,122 @@ public class ItemsTestsIT extends AbstractIntegrationTest {
     }
   }
   
+  @Test
+  public void testSearchItemsByMovedCategory() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      ItemsApi itemsApi = dataBuilder.getItemApi();
+
+      Category parentCategory1 = dataBuilder.createSimpleCategory();
+      Category parentCategory2 = dataBuilder.createSimpleCategory();
+      
+      Category childCategoryPayload = new Category();
+      childCategoryPayload.setTitle(dataBuilder.createLocalized("child category"));
+      childCategoryPayload.setParentId(parentCategory1.getId());
+      Category childCategory = dataBuilder.createCategory(childCategoryPayload);
+
+      Item simpleItem = dataBuilder.createSimpleItem(childCategory.getId(), null);
+      
+      waitItemCount(itemsApi, 1);
+
+      List<Item> parent1Items = itemsApi.listItems(parentCategory1.getId().toString(), null, null, null, null, null, null, null, null, null);
+      assertEquals(1, parent1Items.size());
+      assertEquals(simpleItem.getId(), parent1Items.get(0).getId());
+      assertEquals(0, itemsApi.listItems(parentCategory2.getId().toString(), null, null, null, null, null, null, null, null, null).size());
+
+      childCategory.setParentId(parentCategory2.getId());
+      dataBuilder.getAdminCategoriesApi().updateCategory(childCategory.getId(), childCategory);
+      
+      await().atMost(1, TimeUnit.MINUTES).until(() -> {
+        return itemsApi.listItems(parentCategory2.getId().toString(), null, null, null, null, null, null, null, null, null).size() == 1;
+      });
+      
+      List<Item> parent2Items = itemsApi.listItems(parentCategory2.getId().toString(), null, null, null, null, null, null, null, null, null);
+      assertEquals(simpleItem.getId(), parent2Items.get(0).getId());
+      
+      await().atMost(1, TimeUnit.MINUTES).until(() -> {
+        return itemsApi.listItems(parentCategory1.getId().toString(), null, null, null, null, null, null, null, null, null).isEmpty();
+      });
+      
+      assertEquals(1, itemsApi.listItems(childCategory.getId().toString(), null, null, null, null, null, null, null, null, null).size());
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+  
+  @Test
+  public void testSearchItemsByChangedCategoryTree() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      ItemsApi itemsApi = dataBuilder.getItemApi();
+      
+      Category rootCategory1 = dataBuilder.createSimpleCategory();
+      Category rootCategory2 = dataBuilder.createSimpleCategory();
+      Category childCategory = createChildCategory(dataBuilder, rootCategory1);
+      dataBuilder.createSimpleItem(childCategory.getId(), null);
+      waitCategoryItemCount(itemsApi, rootCategory1, 1);
+      
+      // Created category
+      
+      Category grandchildCategory = createChildCategory(dataBuilder, childCategory);
+      Item grandchildItem = dataBuilder.createSimpleItem(grandchildCategory.getId(), null);
+      waitCategoryItemCount(itemsApi, rootCategory1, 2);
+      assertEquals(2, listCategoryItems(itemsApi, childCategory).size());
+      
+      // Re-parented category
+      
+      childCategory.setParentId(rootCategory2.getId());
+      dataBuilder.getAdminCategoriesApi().updateCategory(childCategory.getId(), childCategory);
+      waitCategoryItemCount(itemsApi, rootCategory2, 2);
+      waitCategoryItemCount(itemsApi, rootCategory1, 0);
+      
+      // Deleted category
+      
+      itemsApi.deleteItem(grandchildItem.getId());
+      dataBuilder.excludeItemFromClean(grandchildItem);
+      dataBuilder.getAdminCategoriesApi().deleteCategory(grandchildCategory.getId());
+      dataBuilder.excludeCategoryFromClean(grandchildCategory);
+      waitCategoryItemCount(itemsApi, rootCategory2, 1);
+      
+      Category newGrandchildCategory = createChildCategory(dataBuilder, childCategory);
+      dataBuilder.createSimpleItem(newGrandchildCategory.getId(), null);
+      waitCategoryItemCount(itemsApi, rootCategory2, 2);
+      assertEquals(0, listCategoryItems(itemsApi, rootCategory1).size());
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+  
+  @Test
+  public void testSearchItemsEmptyFilters() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      ItemsApi itemsApi = dataBuilder.getItemApi();
+
+      Category category = dataBuilder.createSimpleCategory();
+      Item simpleItem = dataBuilder.createSimpleItem(category.getId(), null);
+      
+      waitItemCount(itemsApi, 1);
+      
+      List<String> itemIds = given()
+        .baseUri(getBasePath())
+        .header("Authorization", String.format("Bearer %s", getAccessToken(USER_1_USERNAME, USER_1_PASSWORD)))
+        .queryParam("categoryIds", "")
+        .queryParam("locationIds", "")
+        .queryParam("userIds", "")
+        .get("/v1/items")
+        .then()
+        .statusCode(200)
+        .extract()
+        .jsonPath()
+        .getList("id");
+      
+      assertEquals(Collections.singletonList(simpleItem.getId().toString()), itemIds);
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+  
   @Test
   public void testSearchItemsByLocation() throws IOException, URISyntaxException {
     TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
@@ -695,8 +897,153 @@ public class ItemsTestsIT extends AbstractIntegrationTest {
       dataBuilder.clean();
     }
   }
-  
+
 
+  @Test
+  public void testUpdateItemWithoutChanges() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      ItemsApi itemApi = dataBuilder.getItemApi();
+      
+      Category simpleCategory = dataBuilder.createSimpleCategory();
+      
+      Image pngImage = new Image();
+      pngImage.setType("image/png");
+      pngImage.setUrl("https://www.example.com/png.png");
+      
+      Image jpegImage = new Image();
+      jpegImage.setType("image/jpeg");
+      jpegImage.setUrl("https://www.example.com/jpeg.jpg");
+      
+      fi.metatavu.dcfb.client.Item payload = new fi.metatavu.dcfb.client.Item();
+      payload.setAmount(15l);
+      payload.setCategoryId(simpleCategory.getId());
+      payload.setDescription(dataBuilder.createLocalized("desc"));
+      payload.setExpiresAt(null);
+      payload.setTypeOfBusiness(TypeOfBusinessEnum.SALE);
+      payload.setImages(Arrays.asList(pngImage, jpegImage));
+      payload.setTitle(dataBuilder.createLocalized("simple item"));
+      payload.setUnit("Fake");
+      payload.setUnitPrice(dataBuilder.createSimplePrice());
+      payload.setSellerId(REALM1_USER_1_ID);
+      payload.setPaymentMethods(dataBuilder.createDefaultPaymentMethods());
+      
+      Item createdItem = dataBuilder.createItem(payload);
+      waitResourceSynced(createdItem.getId());
+      long indexedCount = waitSearchIndexIdle();
+      Item item = itemApi.findItem(createdItem.getId());
+      
+      List<Image> reversedImages = new ArrayList<>(item.getImages());
+      Collections.reverse(reversedImages);
+      item.setImages(reversedImages);
+      
+      Item updatedItem = itemApi.updateItem(item.getId(), item);
+      
+      assertEquals(item.getModifiedAt().toInstant(), updatedItem.getModifiedAt().toInstant());
+      assertEquals(2, updatedItem.getImages().size());
+      assertEquals(mapImageIds(item.getImages()), mapImageIds(updatedItem.getImages()));
+      assertEquals(item.getModifiedAt().toInstant(), itemApi.findItem(item.getId()).getModifiedAt().toInstant());
+      assertEquals(indexedCount, waitSearchIndexIdle());
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+
+  @Test
+  public void testUpdateItemTitle() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      ItemsApi itemsApi = dataBuilder.getItemApi();
+      
+      Category simpleCategory = dataBuilder.createSimpleCategory();
+      Item item = dataBuilder.createSimpleItem(simpleCategory.getId(), null);
+      waitItemCount(itemsApi, 1);
+      
+      assertEquals(1, itemsApi.listItems(null, null, null, "simple", null, null, null, null, null, null).size());
+      
+      item = itemsApi.findItem(item.getId());
+      item.setTitle(dataBuilder.createLocalized("renamed"));
+      itemsApi.updateItem(item.getId(), item);
+      
+      Item foundItem = itemsApi.findItem(item.getId());
+      assertEquals(1, foundItem.getTitle().size());
+      assertEquals("renamed", foundItem.getTitle().get(0).getValue());
+      
+      await().atMost(1, TimeUnit.MINUTES).until(() -> {
+        return itemsApi.listItems(null, null, null, "renamed", null, null, null, null, null, null).size() == 1;
+      });
+      
+      List<Item> items = itemsApi.listItems(null, null, null, "renamed", null, null, null, null, null, null);
+      assertEquals("renamed", items.get(0).getTitle().get(0).getValue());
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+  
+  @Test
+  public void testItemProtectedResource() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      ItemsApi itemApi = dataBuilder.getItemApi();
+      
+      Category simpleCategory = dataBuilder.createSimpleCategory();
+      Item item = dataBuilder.createSimpleItem(simpleCategory.getId(), null);
+      waitResourceSynced(item.getId());
+      
+      UUID resourceId = itemApi.findItem(item.getId()).getResourceId();
+      assertNotNull(resourceId);
+      assertEquals(200, getProtectedResourceStatus(resourceId));
+      
+      itemApi.deleteItem(item.getId());
+      dataBuilder.excludeItemFromClean(item);
+      
+      await().atMost(1, TimeUnit.MINUTES).until(() -> {
+        return getProtectedResourceStatus(resourceId) == 404;
+      });
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+  
+  @Test
+  public void testUpdateItemMissingProtectedResource() throws IOException, URISyntaxException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      ItemsApi itemApi = dataBuilder.getItemApi();
+      
+      Category simpleCategory = dataBuilder.createSimpleCategory();
+      Item item = dataBuilder.createSimpleItem(simpleCategory.getId(), null);
+      waitResourceSynced(item.getId());
+      
+      item = itemApi.findItem(item.getId());
+      given()
+        .baseUri(AUTH_SERVER_URL)
+        .header("Authorization", String.format("Bearer %s", getProtectionToken()))
+        .delete(String.format("/auth/realms/%s/authz/protection/resource_set/%s", KEYCLOAK_REALM, item.getResourceId()))
+        .then()
+        .statusCode(204);
+      
+      item.setVisibilityLimited(true);
+      itemApi.updateItem(item.getId(), item);
+      
+      String accessToken = getAdminToken();
+      UUID itemId = item.getId();
+      
+      await().atMost(1, TimeUnit.MINUTES).until(() -> {
+        return "FAILED".equals(given()
+          .baseUri(getBasePath())
+          .header("Authorization", String.format("Bearer %s", accessToken))
+          .get(String.format("/v1/items/%s", itemId))
+          .then()
+          .statusCode(200)
+          .extract()
+          .header("Resource-Sync-Status"));
+      });
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+  
   @Test
   public void testDeleteItem() throws IOException, URISyntaxException {
     TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
@@ -727,4 +1074,146 @@ public class ItemsTestsIT extends AbstractIntegrationTest {
     });
   }
 
+  /**
+   * Creates a subcategory
+   * 
+   * @param dataBuilder test data builder
+   * @param parent parent category
+   * @return created category
+   * @throws IOException thrown on communication failure
+   */
+  private Category createChildCategory(TestDataBuilder dataBuilder, Category parent) throws IOException {
+    Category payload = new Category();
+    payload.setTitle(dataBuilder.createLocalized("child category"));
+    payload.setParentId(parent.getId());
+    return dataBuilder.createCategory(payload);
+  }
+  
+  /**
+   * Lists items of a category and its subcategories
+   * 
+   * @param itemsApi items API
+   * @param category category
+   * @return items
+   */
+  private List<Item> listCategoryItems(ItemsApi itemsApi, Category category) {
+    return itemsApi.listItems(category.getId().toString(), null, null, null, null, null, null, null, null, null);
+  }
+  
+  /**
+   * Waits until given number of items is found from a category and its subcategories
+   * 
+   * @param itemsApi items API
+   * @param category category
+   * @param count expected count
+   */
+  private void waitCategoryItemCount(ItemsApi itemsApi, Category category, int count) {
+    await().atMost(1, TimeUnit.MINUTES).until(() -> {
+      return listCategoryItems(itemsApi, category).size() == count;
+    });
+  }
+  
+  /**
+   * Returns status code of a protected resource lookup from Keycloak protection API
+   * 
+   * @param resourceId resource id
+   * @return status code
+   * @throws IOException thrown on communication failure
+   */
+  private int getProtectedResourceStatus(UUID resourceId) throws IOException {
+    return given()
+      .baseUri(AUTH_SERVER_URL)
+      .header("Authorization", String.format("Bearer %s", getProtectionToken()))
+      .get(String.format("/auth/realms/%s/authz/protection/resource_set/%s", KEYCLOAK_REALM, resourceId))
+      .then()
+      .extract()
+      .statusCode();
+  }
+  
+  /**
+   * Resolves a protection API token of the resource server
+   * 
+   * @return an access token
+   * @throws IOException thrown on communication failure
+   */
+  private String getProtectionToken() throws IOException {
+    String response = given()
+      .baseUri(AUTH_SERVER_URL)
+      .formParam("client_id", RESOURCE_SERVER_CLIENT_ID)
+      .formParam("client_secret", RESOURCE_SERVER_CLIENT_SECRET)
+      .formParam("grant_type", "client_credentials")
+      .post(String.format("/auth/realms/%s/protocol/openid-connect/token", KEYCLOAK_REALM))
+      .getBody()
+      .asString();
+    
+    String result = (String) readJsonMap(response).get("access_token");
+    assertNotNull(result);
+    return result;
+  }
+  
+  /**
+   * Waits until the Keycloak resource of an item has been synchronized
+   * 
+   * @param itemId item id
+   * @throws IOException thrown on communication failure
+   */
+  private void waitResourceSynced(UUID itemId) throws IOException {
+    String accessToken = getAdminToken();
+    
+    await().atMost(1, TimeUnit.MINUTES).until(() -> {
+      return "SYNCED".equals(given()
+        .baseUri(getBasePath())
+        .header("Authorization", String.format("Bearer %s", accessToken))
+        .get(String.format("/v1/items/%s", itemId))
+        .then()
+        .statusCode(200)
+        .extract()
+        .header("Resource-Sync-Status"));
+    });
+  }
+
+  /**
+   * Waits until the search index queue is empty and no more documents are being indexed
+   * 
+   * @return count of indexed documents
+   */
+  private long waitSearchIndexIdle() {
+    AtomicLong indexedCount = new AtomicLong(-1);
+    
+    await().atMost(1, TimeUnit.MINUTES).pollInterval(2, TimeUnit.SECONDS).until(() -> {
+      JsonPath statistics = getSearchStatistics();
+      long currentCount = statistics.getLong("indexedCount");
+      return statistics.getInt("queueDepth") == 0 && indexedCount.getAndSet(currentCount) == currentCount;
+    });
+    
+    return indexedCount.get();
+  }
+
+  /**
+   * Returns statistics of the search index pipeline
+   * 
+   * @return statistics of the search index pipeline
+   * @throws IOException thrown on communication failure
+   */
+  private JsonPath getSearchStatistics() throws IOException {
+    return given()
+      .baseUri(getBasePath())
+      .header("Authorization", String.format("Bearer %s", getAdminToken()))
+      .get("/v1/system/search/statistics")
+      .then()
+      .statusCode(200)
+      .extract()
+      .jsonPath();
+  }
+
+  /**
+   * Returns ids of images
+   * 
+   * @param images images
+   * @return ids of images
+   */
+  private Set<UUID> mapImageIds(List<Image> images) {
+    return images.stream().map(Image::getId).collect(Collectors.toSet());
+  }
+
 }
@@ -0,0 +1,102 @@
+package fi.metatavu.dcfb.server;
+
+import static io.restassured.RestAssured.given;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fi.metatavu.dcfb.client.Category;
+import fi.metatavu.dcfb.client.Item;
+import fi.metatavu.dcfb.client.ItemsApi;
+
+@SuppressWarnings ("squid:S1192")
+public class SearchIndexTestsIT extends AbstractIntegrationTest {
+
+  @Test
+  public void testReindex() throws IOException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      ItemsApi itemsApi = dataBuilder.getItemApi();
+
+      Category category = dataBuilder.createSimpleCategory();
+      Item keptItem = dataBuilder.createSimpleItem(category.getId(), null);
+      Item deletedItem = dataBuilder.createSimpleItem(category.getId(), null);
+      waitCategoryItemCount(itemsApi, category, 2);
+
+      dataBuilder.getAdminItemApi().deleteItem(deletedItem.getId());
+      dataBuilder.excludeItemFromClean(deletedItem);
+      waitCategoryItemCount(itemsApi, category, 1);
+
+      // First rebuild replaces the index, second one replaces the aliased index built by the first one
+      for (int i = 0; i < 2; i++) {
+        String adminToken = getAdminToken();
+
+        given()
+          .baseUri(getBasePath())
+          .header("Authorization", String.format("Bearer %s", adminToken))
+          .contentType("application/json")
+          .post("/v1/system/search/reindex")
+          .then()
+          .statusCode(202);
+
+        await().atMost(1, TimeUnit.MINUTES).until(() -> {
+          return "COMPLETED".equals(given()
+            .baseUri(getBasePath())
+            .header("Authorization", String.format("Bearer %s", adminToken))
+            .get("/v1/system/search/reindex")
+            .then()
+            .statusCode(200)
+            .extract()
+            .path("state"));
+        });
+
+        List<Item> items = listCategoryItems(itemsApi, category);
+        assertEquals(1, items.size());
+        assertEquals(keptItem.getId(), items.get(0).getId());
+      }
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+
+  @Test
+  public void testReindexAsUser() throws IOException {
+    given()
+      .baseUri(getBasePath())
+      .header("Authorization", String.format("Bearer %s", getAccessToken(USER_1_USERNAME, USER_1_PASSWORD)))
+      .contentType("application/json")
+      .post("/v1/system/search/reindex")
+      .then()
+      .statusCode(403);
+  }
+
+  /**
+   * Lists items of a category
+   *
+   * @param itemsApi items API
+   * @param category category
+   * @return items of the category
+   */
+  private List<Item> listCategoryItems(ItemsApi itemsApi, Category category) {
+    return itemsApi.listItems(category.getId().toString(), null, null, null, null, null, null, null, null, null);
+  }
+
+  /**
+   * Waits until given number of items is found from a category
+   *
+   * @param itemsApi items API
+   * @param category category
+   * @param count expected count
+   */
+  private void waitCategoryItemCount(ItemsApi itemsApi, Category category, int count) {
+    await().atMost(1, TimeUnit.MINUTES).until(() -> {
+      return listCategoryItems(itemsApi, category).size() == count;
+    });
+  }
+
+}
@@ -0,0 +1,137 @@
+package fi.metatavu.dcfb.server;
+
+import static io.restassured.RestAssured.given;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.metatavu.dcfb.client.Category;
+import fi.metatavu.dcfb.client.Item;
+import fi.metatavu.dcfb.client.ItemReservation;
+import fi.metatavu.dcfb.client.ItemsApi;
+
+@SuppressWarnings ("squid:S1192")
+public class StripeWebhookTestsIT extends AbstractIntegrationTest {
+
+  private static final String SIGNING_SECRET = "whsec_test";
+
+  @Before
+  public void setupStripeSettings() {
+    executeInsert("INSERT INTO SystemSetting (id, settingkey, value) VALUES (?, ?, ?)", UUID.randomUUID(), "stripe.webhook-signing-secret", SIGNING_SECRET);
+    executeInsert("INSERT INTO SystemSetting (id, settingkey, value) VALUES (?, ?, ?)", UUID.randomUUID(), "stripe.live-mode", "false");
+    flushCache();
+  }
+
+  @After
+  public void teardownStripeSettings() {
+    executeDelete("DELETE FROM SystemSetting WHERE settingKey in ('stripe.webhook-signing-secret', 'stripe.live-mode')");
+    executeDelete("DELETE FROM StripeWebhookEvent");
+    flushCache();
+  }
+
+  @Test
+  public void testChargeSucceededReplay() throws IOException, GeneralSecurityException {
+    TestDataBuilder dataBuilder = new TestDataBuilder(this, USER_1_USERNAME, USER_1_PASSWORD);
+    try {
+      Category simpleCategory = dataBuilder.createSimpleCategory();
+      Item item = dataBuilder.createSimpleItem(simpleCategory.getId(), null);
+      ItemsApi adminItemApi = dataBuilder.getAdminItemApi();
+      ItemReservation itemReservation = dataBuilder.createItemReservation(item.getId(), 10l);
+
+      String payload = createChargeSucceededPayload("evt_replay", itemReservation.getId());
+
+      postStripeWebhook(payload);
+
+      await().atMost(1, TimeUnit.MINUTES).until(() -> {
+        return adminItemApi.findItem(item.getId()).getSoldAmount() == 10l;
+      });
+
+      postStripeWebhook(payload);
+
+      assertEquals(new Long(1l), countWebhookEvents("evt_replay"));
+
+      Item foundItem = adminItemApi.findItem(item.getId());
+      assertEquals(new Long(10l), foundItem.getSoldAmount());
+      assertEquals(new Long(0l), foundItem.getReservedAmount());
+    } finally {
+      dataBuilder.clean();
+    }
+  }
+
+  /**
+   * Posts a signed Stripe webhook and asserts that it was accepted
+   *
+   * @param payload payload
+   * @throws GeneralSecurityException when signing fails
+   */
+  private void postStripeWebhook(String payload) throws GeneralSecurityException {
+    long timestamp = System.currentTimeMillis() / 1000l;
+    String signature = String.format("t=%d,v1=%s", timestamp, sign(String.format("%d.%s", timestamp, payload)));
+
+    given()
+      .baseUri(getBasePath())
+      .header("Stripe-Signature", signature)
+      .contentType("application/json")
+      .body(payload)
+      .post("/webhooks/stripe")
+      .then()
+      .statusCode(200);
+  }
+
+  /**
+   * Signs a value with the webhook signing secret
+   *
+   * @param value value
+   * @return signature as hex string
+   * @throws GeneralSecurityException when signing fails
+   */
+  private String sign(String value) throws GeneralSecurityException {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SIGNING_SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    return Hex.encodeHexString(mac.doFinal(value.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Creates a charge.succeeded event payload
+   *
+   * @param eventId event id
+   * @param itemReservationId item reservation id
+   * @return payload
+   */
+  private String createChargeSucceededPayload(String eventId, UUID itemReservationId) {
+    return String.format("{\"id\":\"%s\",\"object\":\"event\",\"type\":\"charge.succeeded\",\"livemode\":false,\"created\":%d,"
+        + "\"data\":{\"object\":{\"id\":\"ch_test\",\"object\":\"charge\",\"metadata\":{\"item-reservation-id\":\"%s\"}}}}",
+        eventId, System.currentTimeMillis() / 1000l, itemReservationId);
+  }
+
+  /**
+   * Counts recorded webhook events with given Stripe event id
+   *
+   * @param eventId Stripe event id
+   * @return count of recorded events
+   */
+  private Long countWebhookEvents(String eventId) {
+    return executeSelectSingle("SELECT COUNT(*) FROM StripeWebhookEvent WHERE eventId = ?", resultSet -> {
+      try {
+        return resultSet.getLong(1);
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    }, eventId);
+  }
+
+}